@@ -0,0 +1,55 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Données communes aux benchmarks : les PDF du projet, lus depuis le classpath
+ * (ils sont embarqués dans benchmarks.jar avec src/main/resources).
+ */
+final class BenchmarkCorpus {
+
+    static final String[] DOCUMENTS = {"rag.pdf", "threat_report.pdf"};
+
+    static final String[] QUERIES = {
+            "Qu'est-ce que le RAG ?",
+            "Comment découper un document en segments pour le RAG ?",
+            "Quelles sont les principales menaces décrites dans le rapport ?",
+            "Quels groupes de ransomware sont mentionnés ?",
+            "Which vulnerabilities were most exploited this year?",
+            "Donne-moi une recette de tajine"
+    };
+
+    private BenchmarkCorpus() {
+    }
+
+    static Document load(String resource) {
+        try (InputStream in = BenchmarkCorpus.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Ressource introuvable : " + resource);
+            }
+            return new ApacheTikaDocumentParser().parse(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Segments des deux PDF découpés comme dans RagQueryRouterApp : recursive(300, 30).
+     */
+    static List<TextSegment> segments() {
+        List<TextSegment> segments = new ArrayList<>();
+        for (String document : DOCUMENTS) {
+            segments.addAll(DocumentSplitters.recursive(300, 30).split(load(document)));
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,78 @@
+package ma.emsi.fetheddine;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compare deux résultats JMH au format JSON (-rf json) : une ligne par benchmark et jeu de
+ * paramètres, avec la variation relative. Une variation est signalée quand l'écart dépasse
+ * la somme des marges d'erreur des deux mesures.
+ * <pre>
+ * java -jar target/benchmarks.jar -rf json -rff jmh-baseline.json     (avant le changement)
+ * java -jar target/benchmarks.jar -rf json -rff jmh-result.json       (après)
+ * java -cp target/benchmarks.jar ma.emsi.fetheddine.BenchmarkDiff jmh-baseline.json jmh-result.json
+ * </pre>
+ * Le jmh-baseline.json commité à la racine est une référence mesurée sur un seul cœur (voir
+ * README) : sur une autre machine, le régénérer avant le changement.
+ */
+public class BenchmarkDiff {
+
+    private record Score(double value, double error, String unit, String mode) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage : BenchmarkDiff <baseline.json> <result.json>");
+            return;
+        }
+        Map<String, Score> baseline = read(Paths.get(args[0]));
+        Map<String, Score> result = read(Paths.get(args[1]));
+
+        System.out.printf("%-70s %14s %14s %9s%n", "benchmark", "référence", "mesure", "écart");
+        for (Map.Entry<String, Score> entry : result.entrySet()) {
+            Score after = entry.getValue();
+            Score before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-70s %14s %14.3f %9s  (nouveau)%n", entry.getKey(), "-", after.value(), "");
+                continue;
+            }
+            double change = (after.value() - before.value()) / before.value();
+            boolean significant = Math.abs(after.value() - before.value()) > before.error() + after.error();
+            // En mode débit, plus haut est meilleur ; sinon (temps moyen, échantillon) plus bas est meilleur.
+            boolean better = "thrpt".equals(after.mode()) == change > 0;
+            String verdict = !significant ? "" : better ? "  amélioration" : "  RÉGRESSION";
+            System.out.printf("%-70s %14.3f %14.3f %+8.1f%%%s  %s%n", entry.getKey(), before.value(), after.value(),
+                    change * 100, verdict, after.unit());
+        }
+        for (String missing : baseline.keySet()) {
+            if (!result.containsKey(missing)) {
+                System.out.printf("%-70s  (absent de la nouvelle mesure)%n", missing);
+            }
+        }
+    }
+
+    private static Map<String, Score> read(Path file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file.toFile())) {
+            StringBuilder key = new StringBuilder(run.get("benchmark").asText()
+                    .replace("ma.emsi.fetheddine.", ""));
+            JsonNode params = run.get("params");
+            if (params != null) {
+                for (Map.Entry<String, JsonNode> param : params.properties()) {
+                    key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+                }
+            }
+            JsonNode metric = run.get("primaryMetric");
+            double error = metric.get("scoreError").asDouble();
+            scores.put(key.toString(), new Score(metric.get("score").asDouble(), Double.isNaN(error) ? 0 : error,
+                    metric.get("scoreUnit").asText(), run.get("mode").asText()));
+        }
+        return scores;
+    }
+}
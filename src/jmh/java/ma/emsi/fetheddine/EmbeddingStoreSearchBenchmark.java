@@ -0,0 +1,113 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recherche top-2 (maxResults et minScore des applications) dans InMemoryEmbeddingStore et
+ * OffHeapEmbeddingStore (exactes) et QuantizedEmbeddingStore en INT8 et PQ (approchées puis
+ * reclassées), à 1k, 100k et 1M vecteurs aléatoires de dimension 768.
+ * À 1M vecteurs les float occupent 3 Go, sur le tas (inMemory) ou hors tas (offHeap), d'où le
+ * -Xmx et le MaxDirectMemorySize du fork : sans -Xms, chaque store n'occupe que la mémoire qu'il
+ * utilise. Sur une machine de 6 Go, mesurer 1M store par store (voir README) ; l'encodage PQ de
+ * 1M vecteurs prend plusieurs minutes de préparation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+public class EmbeddingStoreSearchBenchmark {
+
+    private static final int QUERIES = 64;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"768"})
+    public int dimension;
+
+    @Param({"inMemory", "offHeap", "int8", "pq"})
+    public String store;
+
+    private EmbeddingStore<TextSegment> embeddingStore;
+    private EmbeddingSearchRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        embeddingStore = switch (store) {
+            case "inMemory" -> new InMemoryEmbeddingStore<>();
+            case "int8" -> QuantizedEmbeddingStore.builder().encoding(QuantizedEmbeddingStore.Encoding.INT8).build();
+            case "pq" -> QuantizedEmbeddingStore.builder().encoding(QuantizedEmbeddingStore.Encoding.PQ).build();
+            default -> new OffHeapEmbeddingStore();
+        };
+        Random random = new Random(42);
+        int batch = 10_000;
+        for (int from = 0; from < size; from += batch) {
+            int count = Math.min(batch, size - from);
+            List<Embedding> embeddings = new ArrayList<>(count);
+            List<TextSegment> segments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                embeddings.add(randomEmbedding(random));
+                segments.add(TextSegment.from("segment " + (from + i)));
+            }
+            embeddingStore.addAll(embeddings, segments);
+        }
+        if (embeddingStore instanceof QuantizedEmbeddingStore quantized && !quantized.isTrained()) {
+            quantized.train();
+        }
+        requests = new EmbeddingSearchRequest[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            requests[i] = EmbeddingSearchRequest.builder()
+                    .queryEmbedding(randomEmbedding(random))
+                    .maxResults(2)
+                    .minScore(0.5)
+                    .build();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (embeddingStore instanceof QuantizedEmbeddingStore quantized) {
+            quantized.close();
+        }
+    }
+
+    @Benchmark
+    public EmbeddingSearchResult<TextSegment> search() {
+        EmbeddingSearchRequest request = requests[next];
+        next = (next + 1) % QUERIES;
+        return embeddingStore.search(request);
+    }
+
+    private Embedding randomEmbedding(Random random) {
+        float[] vector = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            vector[d] = (float) random.nextGaussian();
+        }
+        return Embedding.from(vector);
+    }
+}
@@ -0,0 +1,95 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.AugmentationRequest;
+import dev.langchain4j.rag.AugmentationResult;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.rag.query.Metadata;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chemin de récupération complet sur les segments des deux PDF, avec StubEmbeddingModel :
+ * EmbeddingStoreContentRetriever (embedding de la question + recherche) et
+ * DefaultRetrievalAugmentor (récupération + injection des contenus dans le message utilisateur).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetrievalBenchmark {
+
+    @Param({"inMemory", "offHeap"})
+    public String store;
+
+    private ContentRetriever contentRetriever;
+    private RetrievalAugmentor retrievalAugmentor;
+    private Query[] queries;
+    private AugmentationRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        EmbeddingModel embeddingModel = new StubEmbeddingModel();
+        EmbeddingStore<TextSegment> embeddingStore = "inMemory".equals(store)
+                ? new InMemoryEmbeddingStore<>() : new OffHeapEmbeddingStore();
+        List<TextSegment> segments = BenchmarkCorpus.segments();
+        embeddingStore.addAll(embeddingModel.embedAll(segments).content(), segments);
+
+        contentRetriever = EmbeddingStoreContentRetriever.builder()
+                .embeddingStore(embeddingStore)
+                .embeddingModel(embeddingModel)
+                .maxResults(2)
+                .minScore(0.5)
+                .build();
+        retrievalAugmentor = DefaultRetrievalAugmentor.builder()
+                .contentRetriever(contentRetriever)
+                .build();
+
+        String[] texts = BenchmarkCorpus.QUERIES;
+        queries = new Query[texts.length];
+        requests = new AugmentationRequest[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            UserMessage userMessage = UserMessage.from(texts[i]);
+            queries[i] = Query.from(texts[i]);
+            requests[i] = new AugmentationRequest(userMessage, Metadata.from(userMessage, "benchmark", List.of()));
+        }
+    }
+
+    @Benchmark
+    public List<Content> contentRetriever() {
+        Query query = queries[next];
+        next = (next + 1) % queries.length;
+        return contentRetriever.retrieve(query);
+    }
+
+    @Benchmark
+    public AugmentationResult retrievalAugmentor() {
+        AugmentationRequest request = requests[next];
+        next = (next + 1) % requests.length;
+        return retrievalAugmentor.augment(request);
+    }
+}
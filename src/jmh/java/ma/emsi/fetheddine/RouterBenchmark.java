@@ -0,0 +1,118 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Surcoût du routage, hors latence du LLM (le modèle de chat répond instantanément) :
+ * TopicBasedQueryRouter sans cache (construction du prompt + appel), avec le cache sémantique
+ * (embedding de la question + recherche dans le cache), et EmbeddingQueryRouter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouterBenchmark {
+
+    private RagQueryRouterApp.TopicBasedQueryRouter topicRouter;
+    private RagQueryRouterApp.TopicBasedQueryRouter cachedTopicRouter;
+    private EmbeddingQueryRouter embeddingRouter;
+    private Query[] queries;
+    private int next;
+    private PrintStream stdout;
+
+    private record NamedRetriever(String name) implements ContentRetriever {
+        @Override
+        public List<Content> retrieve(Query query) {
+            return List.of();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        // TopicBasedQueryRouter journalise chaque décision : on ne mesure pas la console.
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        ChatModel chatModel = new ChatModel() {
+            @Override
+            public ChatResponse doChat(ChatRequest chatRequest) {
+                return ChatResponse.builder().aiMessage(AiMessage.from("oui")).build();
+            }
+        };
+        EmbeddingModel embeddingModel = new StubEmbeddingModel();
+        ContentRetriever rag = new NamedRetriever("rag");
+        ContentRetriever threat = new NamedRetriever("threat");
+
+        topicRouter = new RagQueryRouterApp.TopicBasedQueryRouter(chatModel, rag);
+        cachedTopicRouter = new RagQueryRouterApp.TopicBasedQueryRouter(chatModel, rag, embeddingModel,
+                new SemanticCache<>(0.92, 1000, Duration.ofHours(1)));
+
+        Map<ContentRetriever, String> retrieverMap = new LinkedHashMap<>();
+        retrieverMap.put(rag, "Answers questions about Retrieval-Augmented Generation (RAG)");
+        retrieverMap.put(threat, "Answers questions about a threat report");
+        embeddingRouter = EmbeddingQueryRouter.builder()
+                .embeddingModel(embeddingModel)
+                .retrieverToDescription(retrieverMap)
+                .build();
+
+        queries = new Query[BenchmarkCorpus.QUERIES.length];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = Query.from(BenchmarkCorpus.QUERIES[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public Collection<ContentRetriever> topicRouter() {
+        return topicRouter.route(nextQuery());
+    }
+
+    @Benchmark
+    public Collection<ContentRetriever> topicRouterWithSemanticCache() {
+        return cachedTopicRouter.route(nextQuery());
+    }
+
+    @Benchmark
+    public Collection<ContentRetriever> embeddingRouter() {
+        return embeddingRouter.route(nextQuery());
+    }
+
+    private Query nextQuery() {
+        Query query = queries[next];
+        next = (next + 1) % queries.length;
+        return query;
+    }
+}
@@ -0,0 +1,53 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Découpage des PDF du projet avec recursive(300, 30) (RagQueryRouterApp, TestRagNaif)
+ * et recursive(300, 0) (TestRoutage). Le parsing Tika est fait une fois dans le setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SplitterBenchmark {
+
+    @Param({"rag.pdf", "threat_report.pdf"})
+    public String document;
+
+    @Param({"0", "30"})
+    public int overlap;
+
+    private Document parsed;
+    private DocumentSplitter splitter;
+
+    @Setup
+    public void setUp() {
+        parsed = BenchmarkCorpus.load(document);
+        splitter = DocumentSplitters.recursive(300, overlap);
+    }
+
+    @Benchmark
+    public List<TextSegment> split() {
+        return splitter.split(parsed);
+    }
+}
@@ -0,0 +1,271 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.AugmentationRequest;
+import dev.langchain4j.rag.AugmentationResult;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/**
+ * Cache des réponses du LLM devant le pipeline augmenté d'un AiService : une question assez
+ * proche d'une question déjà posée (similarité cosinus des embeddings) et qui récupère
+ * exactement les mêmes segments reçoit la réponse mémorisée, sans appel au LLM.
+ * <p>
+ * Deux décorateurs coopèrent, à passer tous deux à AiServices :
+ * {@link #retrievalAugmentor(RetrievalAugmentor)} laisse le routage et la recherche se faire
+ * puis calcule la clé (embedding de la question, identifiants et empreintes des segments
+ * récupérés) ; {@link #chatModel(ChatModel)} consulte le cache avec cette clé pour la requête
+ * qui suit sur le même thread, et mémorise la réponse en cas d'absence.
+ * <p>
+ * La clé dépend du contenu récupéré : une ré-ingestion qui modifie ou remplace les segments
+ * (nouveaux identifiants, nouveau texte) rend les anciennes entrées inaccessibles, qui
+ * sortent ensuite par LRU ou TTL ; {@link #clear()} les vide immédiatement.
+ * Les tours qui dépendent de la conversation (relances, voir {@link #isFollowUp}) ne sont ni
+ * servis ni mémorisés. Seul le modèle bloquant est couvert : AiServices n'appelle pas le
+ * modèle de streaming sur le thread de l'augmentation.
+ * <p>
+ * Mesures : answer_cache_lookups{result=hit|miss|skipped} et answer_cache_saved_seconds
+ * (durée de la génération d'origine, évitée par chaque hit).
+ */
+public class AnswerCache {
+
+    private static final Set<String> REFERENCES = Set.of(
+            "ça", "cela", "ceci", "celui-ci", "celle-ci", "ceux-ci", "celui-là", "celle-là", "dernier", "dernière",
+            "précédent", "précédente", "dessus", "là-dessus",
+            "it", "this", "that", "these", "those", "them", "previous", "above");
+
+    private final EmbeddingModel embeddingModel;
+    private final SemanticCache<Answer> cache;
+    private final BiPredicate<String, List<ChatMessage>> skipTurn;
+    private final MetricsSink sink;
+    private final ThreadLocal<Pending> pending = new ThreadLocal<>();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+
+    private AnswerCache(Builder builder) {
+        this.embeddingModel = builder.embeddingModel;
+        this.cache = new SemanticCache<>(builder.minSimilarity, builder.maxEntries, builder.ttl);
+        this.skipTurn = builder.skipTurn;
+        this.sink = builder.sink;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Heuristique par défaut : un tour dépend de la conversation s'il y a un historique et que
+     * la question est très courte (3 mots au plus) ou contient un renvoi (« ça », « cela »,
+     * « ce dernier », « it », ...). Un faux positif coûte seulement un appel au LLM.
+     */
+    public static boolean isFollowUp(String question, List<ChatMessage> history) {
+        if (history.stream().allMatch(message -> message instanceof SystemMessage)) {
+            return false;
+        }
+        String[] words = question.toLowerCase(Locale.ROOT).split("[\\s,;:!?.'’\"()]+");
+        int count = 0;
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            count++;
+            if (REFERENCES.contains(word)) {
+                return true;
+            }
+        }
+        return count <= 3;
+    }
+
+    public RetrievalAugmentor retrievalAugmentor(RetrievalAugmentor delegate) {
+        return request -> {
+            pending.remove();
+            AugmentationResult result = delegate.augment(request);
+            if (!(request.chatMessage() instanceof UserMessage userMessage) || !userMessage.hasSingleText()) {
+                return result;
+            }
+            String question = userMessage.singleText();
+            List<ChatMessage> history = request.metadata() == null ? List.of() : request.metadata().chatMemory();
+            if (skipTurn.test(question, history == null ? List.of() : history)) {
+                skipped.increment();
+                sink.record("answer_cache_lookups", 1, "result", "skipped");
+                return result;
+            }
+            Embedding embedding = embeddingModel.embed(question).content();
+            pending.set(new Pending(result.chatMessage(), embedding, contextKey(result.contents())));
+            return result;
+        };
+    }
+
+    public ChatModel chatModel(ChatModel delegate) {
+        return new ChatModel() {
+            @Override
+            public ChatResponse doChat(ChatRequest chatRequest) {
+                Pending key = pending.get();
+                List<ChatMessage> messages = chatRequest.messages();
+                // Seule la requête qui porte le message augmenté est concernée (pas un appel de
+                // routage ni une requête d'outil sur le même thread).
+                if (key == null || messages.isEmpty() || !key.message().equals(messages.get(messages.size() - 1))) {
+                    return delegate.chat(chatRequest);
+                }
+                pending.remove();
+                Answer answer = cache.get(key.embedding(), key.context());
+                if (answer != null) {
+                    savedNanos.add(answer.generationNanos());
+                    sink.record("answer_cache_lookups", 1, "result", "hit");
+                    sink.record("answer_cache_saved_seconds", answer.generationNanos() / 1e9);
+                    return answer.response();
+                }
+                sink.record("answer_cache_lookups", 1, "result", "miss");
+                long start = System.nanoTime();
+                ChatResponse response = delegate.chat(chatRequest);
+                cache.put(key.embedding(), key.context(), new Answer(response, System.nanoTime() - start));
+                return response;
+            }
+
+            @Override
+            public ChatRequestParameters defaultRequestParameters() {
+                return delegate.defaultRequestParameters();
+            }
+
+            @Override
+            public ModelProvider provider() {
+                return delegate.provider();
+            }
+
+            @Override
+            public Set<Capability> supportedCapabilities() {
+                return delegate.supportedCapabilities();
+            }
+        };
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long hits() {
+        return cache.hits();
+    }
+
+    public long misses() {
+        return cache.misses();
+    }
+
+    public long skipped() {
+        return skipped.sum();
+    }
+
+    public long evictions() {
+        return cache.evictions();
+    }
+
+    public double hitRate() {
+        return cache.hitRate();
+    }
+
+    @Override
+    public String toString() {
+        return cache + String.format(", %d tours ignorés, %.1f s de génération évitées",
+                skipped.sum(), savedNanos.sum() / 1e9);
+    }
+
+    // Identifiant et empreinte du texte de chaque segment, triés : l'ordre de fusion des
+    // retrievers ne change pas la clé, une modification du texte sous le même identifiant si.
+    private static String contextKey(List<Content> contents) {
+        Set<String> parts = new TreeSet<>();
+        for (Content content : contents) {
+            Object id = content.metadata().get(ContentMetadata.EMBEDDING_ID);
+            UUID digest = UUID.nameUUIDFromBytes(content.textSegment().text().getBytes(StandardCharsets.UTF_8));
+            parts.add((id == null ? "" : id + ":") + digest);
+        }
+        return String.join(",", parts);
+    }
+
+    private record Pending(ChatMessage message, Embedding embedding, String context) {
+    }
+
+    private record Answer(ChatResponse response, long generationNanos) {
+    }
+
+    public static class Builder {
+
+        private EmbeddingModel embeddingModel;
+        private double minSimilarity = 0.95;
+        private int maxEntries = 1000;
+        private Duration ttl = Duration.ofHours(12);
+        private BiPredicate<String, List<ChatMessage>> skipTurn = AnswerCache::isFollowUp;
+        private MetricsSink sink = MetricsSink.NONE;
+
+        /**
+         * Modèle d'embedding des questions ; le même QueryEmbeddingCache que les retrievers
+         * évite un second appel.
+         */
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /**
+         * Similarité cosinus minimale entre deux questions pour partager une réponse (0.95).
+         */
+        public Builder minSimilarity(double minSimilarity) {
+            this.minSimilarity = minSimilarity;
+            return this;
+        }
+
+        /**
+         * Nombre maximal de réponses gardées (1000) et leur durée de vie (12 h).
+         */
+        public Builder capacity(int maxEntries, Duration ttl) {
+            this.maxEntries = maxEntries;
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * Décide, à partir de la question et de l'historique, des tours à ne pas mettre en
+         * cache ; par défaut {@link #isFollowUp}.
+         */
+        public Builder skipTurn(BiPredicate<String, List<ChatMessage>> skipTurn) {
+            this.skipTurn = skipTurn;
+            return this;
+        }
+
+        public Builder metrics(MetricsSink sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        public AnswerCache build() {
+            if (embeddingModel == null) {
+                throw new IllegalStateException("embeddingModel est obligatoire");
+            }
+            return new AnswerCache(this);
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index inversé en mémoire avec score BM25 (k1 = 1.2, b = 0.75), pour retrouver les
+ * correspondances exactes que la recherche vectorielle rate : numéros de CVE, empreintes,
+ * adresses IP, noms de domaine.
+ * <p>
+ * Le découpage en termes garde les identifiants entiers (« cve-2024-3400 », « 10.0.0.1 »)
+ * et indexe aussi leurs parties. Les listes de postings sont des tableaux d'int (document,
+ * fréquence) ; une recherche accumule les scores dans un tableau pris dans un pool borné et
+ * sélectionne le top-k avec le tas de primitives d'OffHeapEmbeddingStore : aucune
+ * allocation par terme ni par document candidat.
+ * <p>
+ * Les suppressions marquent le document comme supprimé ; l'index est compacté quand les
+ * documents supprimés deviennent majoritaires. {@link #indexing} renvoie un EmbeddingStore
+ * qui alimente à la fois le store vectoriel et cet index, en une seule passe d'ingestion.
+ */
+public class Bm25Index {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final String CONNECTORS = ".-_:/@";
+    private static final int POOLED_SCRATCH = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private final Map<String, Integer> documentById = new HashMap<>();
+    // Tableaux de travail dimensionnés sur le corpus ; un pool borné plutôt qu'un ThreadLocal,
+    // qui en garderait un par thread virtuel (un par requête sous ChatServer).
+    private final BlockingQueue<Scratch> scratchPool = new ArrayBlockingQueue<>(POOLED_SCRATCH);
+
+    // Postings par terme : documents et fréquences, triés par numéro de document.
+    private int[][] postingDocuments = new int[0][];
+    private int[][] postingFrequencies = new int[0][];
+    private int[] postingSizes = new int[0];
+    private int[] documentFrequencies = new int[0];
+    private int termCount;
+
+    // Documents, par numéro d'insertion.
+    private String[] ids = new String[0];
+    private TextSegment[] segments = new TextSegment[0];
+    private int[] lengths = new int[0];
+    private int[][] documentTerms = new int[0][];
+    private int[][] documentTermFrequencies = new int[0][];
+    private boolean[] deleted = new boolean[0];
+    private int documentCount;
+    private int liveCount;
+    private long liveLength;
+
+    /**
+     * Un document trouvé et son score BM25.
+     */
+    public record Hit(String id, TextSegment segment, double score) {
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void add(String id, TextSegment segment) {
+        addAll(List.of(id), List.of(segment));
+    }
+
+    /**
+     * Indexe les segments ; un identifiant déjà présent est remplacé.
+     */
+    public void addAll(List<String> ids, List<TextSegment> segments) {
+        // Découpage hors verrou : c'est la partie coûteuse.
+        List<List<String>> tokenized = new ArrayList<>(segments.size());
+        for (TextSegment segment : segments) {
+            tokenized.add(tokenize(segment.text()));
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                Integer existing = documentById.get(ids.get(i));
+                if (existing != null) {
+                    delete(existing);
+                }
+                insert(ids.get(i), segments.get(i), tokenized.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                Integer document = documentById.get(id);
+                if (document != null) {
+                    delete(document);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int d = 0; d < documentCount; d++) {
+                if (!deleted[d] && filter.test(segments[d].metadata())) {
+                    delete(d);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            termIds.clear();
+            documentById.clear();
+            termCount = 0;
+            documentCount = 0;
+            liveCount = 0;
+            liveLength = 0;
+            Arrays.fill(segments, null);
+            Arrays.fill(documentTerms, null);
+            Arrays.fill(documentTermFrequencies, null);
+            Arrays.fill(postingDocuments, null);
+            Arrays.fill(postingFrequencies, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Les maxResults documents au meilleur score BM25 pour la requête, par score décroissant.
+     * Seuls les documents contenant au moins un terme de la requête sont renvoyés.
+     */
+    public List<Hit> search(String query, int maxResults) {
+        List<String> tokens = tokenize(query);
+        Scratch work = scratchPool.poll();
+        if (work == null) {
+            work = new Scratch();
+        }
+        lock.readLock().lock();
+        try {
+            if (liveCount == 0 || tokens.isEmpty()) {
+                return List.of();
+            }
+            // Termes connus de la requête, sans doublon.
+            int queryTerms = 0;
+            int[] terms = work.terms(tokens.size());
+            for (String token : tokens) {
+                Integer term = termIds.get(token);
+                if (term != null && documentFrequencies[term] > 0) {
+                    terms[queryTerms++] = term;
+                }
+            }
+            Arrays.sort(terms, 0, queryTerms);
+
+            float[] scores = work.scores(documentCount);
+            int[] touched = work.touched(documentCount);
+            int touchedCount = 0;
+            float averageLength = (float) liveLength / liveCount;
+            for (int t = 0; t < queryTerms; t++) {
+                int term = terms[t];
+                if (t > 0 && term == terms[t - 1]) {
+                    continue;
+                }
+                int df = documentFrequencies[term];
+                float idf = (float) Math.log(1 + (liveCount - df + 0.5) / (df + 0.5));
+                int[] documents = postingDocuments[term];
+                int[] frequencies = postingFrequencies[term];
+                for (int p = 0, n = postingSizes[term]; p < n; p++) {
+                    int document = documents[p];
+                    if (deleted[document]) {
+                        continue;
+                    }
+                    int tf = frequencies[p];
+                    float norm = K1 * (1 - B + B * lengths[document] / averageLength);
+                    if (scores[document] == 0) {
+                        touched[touchedCount++] = document;
+                    }
+                    scores[document] += idf * tf * (K1 + 1) / (tf + norm);
+                }
+            }
+
+            OffHeapEmbeddingStore.TopK top = work.top;
+            top.reset(maxResults);
+            for (int i = 0; i < touchedCount; i++) {
+                int document = touched[i];
+                if (top.accepts(scores[document])) {
+                    top.offer(document, scores[document]);
+                }
+                scores[document] = 0;
+            }
+            top.sortDescending();
+            List<Hit> hits = new ArrayList<>(top.size);
+            for (int k = 0; k < top.size; k++) {
+                int document = top.indexes[k];
+                hits.add(new Hit(ids[document], segments[document], top.scores[k]));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+            scratchPool.offer(work);
+        }
+    }
+
+    /**
+     * Store d'ingestion qui ajoute chaque segment au store vectoriel et à cet index sous le
+     * même identifiant, et propage les suppressions aux deux. Les recherches vont au store vectoriel.
+     */
+    public EmbeddingStore<TextSegment> indexing(EmbeddingStore<TextSegment> vectorStore) {
+        return new Indexing(vectorStore);
+    }
+
+    /**
+     * Découpe en termes en minuscules. Les caractères . - _ : / @ entre deux lettres ou
+     * chiffres ne coupent pas le terme (identifiants, adresses, versions) ; les parties
+     * d'un tel terme composé sont aussi émises.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            boolean compound = false;
+            while (i < n) {
+                char c = text.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    i++;
+                } else if (CONNECTORS.indexOf(c) >= 0 && i + 1 < n && Character.isLetterOrDigit(text.charAt(i + 1))) {
+                    compound = true;
+                    i++;
+                } else {
+                    break;
+                }
+            }
+            if (i == start) {
+                continue;
+            }
+            String token = text.substring(start, i).toLowerCase(Locale.ROOT);
+            tokens.add(token);
+            if (compound) {
+                int partStart = 0;
+                for (int k = 0; k <= token.length(); k++) {
+                    if (k == token.length() || CONNECTORS.indexOf(token.charAt(k)) >= 0) {
+                        if (k > partStart) {
+                            tokens.add(token.substring(partStart, k));
+                        }
+                        partStart = k + 1;
+                    }
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private void insert(String id, TextSegment segment, List<String> tokens) {
+        // Termes du document triés, puis comptés par plages : pas de map par document.
+        int[] sorted = new int[tokens.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = termId(tokens.get(i));
+        }
+        Arrays.sort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                unique++;
+            }
+        }
+        int[] terms = new int[unique];
+        int[] frequencies = new int[unique];
+        int u = -1;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                terms[++u] = sorted[i];
+            }
+            frequencies[u]++;
+        }
+
+        int document = documentCount++;
+        if (document == ids.length) {
+            int capacity = Math.max(64, ids.length * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            documentTerms = Arrays.copyOf(documentTerms, capacity);
+            documentTermFrequencies = Arrays.copyOf(documentTermFrequencies, capacity);
+            deleted = Arrays.copyOf(deleted, capacity);
+        }
+        ids[document] = id;
+        segments[document] = segment;
+        lengths[document] = sorted.length;
+        documentTerms[document] = terms;
+        documentTermFrequencies[document] = frequencies;
+        deleted[document] = false;
+        documentById.put(id, document);
+        liveCount++;
+        liveLength += sorted.length;
+        for (int k = 0; k < terms.length; k++) {
+            appendPosting(terms[k], document, frequencies[k]);
+            documentFrequencies[terms[k]]++;
+        }
+    }
+
+    private int termId(String token) {
+        Integer existing = termIds.get(token);
+        if (existing != null) {
+            return existing;
+        }
+        int term = termCount++;
+        if (term == postingSizes.length) {
+            int capacity = Math.max(1024, postingSizes.length * 2);
+            postingDocuments = Arrays.copyOf(postingDocuments, capacity);
+            postingFrequencies = Arrays.copyOf(postingFrequencies, capacity);
+            postingSizes = Arrays.copyOf(postingSizes, capacity);
+            documentFrequencies = Arrays.copyOf(documentFrequencies, capacity);
+        }
+        postingDocuments[term] = new int[4];
+        postingFrequencies[term] = new int[4];
+        postingSizes[term] = 0;
+        documentFrequencies[term] = 0;
+        termIds.put(token, term);
+        return term;
+    }
+
+    private void appendPosting(int term, int document, int frequency) {
+        int size = postingSizes[term];
+        if (size == postingDocuments[term].length) {
+            postingDocuments[term] = Arrays.copyOf(postingDocuments[term], size * 2);
+            postingFrequencies[term] = Arrays.copyOf(postingFrequencies[term], size * 2);
+        }
+        postingDocuments[term][size] = document;
+        postingFrequencies[term][size] = frequency;
+        postingSizes[term] = size + 1;
+    }
+
+    private void delete(int document) {
+        deleted[document] = true;
+        documentById.remove(ids[document]);
+        liveCount--;
+        liveLength -= lengths[document];
+        for (int term : documentTerms[document]) {
+            documentFrequencies[term]--;
+        }
+    }
+
+    // Reconstruit les postings sans les documents supprimés, une fois qu'ils sont majoritaires.
+    private void compactIfNeeded() {
+        int deletedCount = documentCount - liveCount;
+        if (deletedCount < 1024 || deletedCount < liveCount) {
+            return;
+        }
+        for (int term = 0; term < termCount; term++) {
+            postingSizes[term] = 0;
+        }
+        int next = 0;
+        for (int d = 0; d < documentCount; d++) {
+            if (deleted[d]) {
+                continue;
+            }
+            ids[next] = ids[d];
+            segments[next] = segments[d];
+            lengths[next] = lengths[d];
+            documentTerms[next] = documentTerms[d];
+            documentTermFrequencies[next] = documentTermFrequencies[d];
+            deleted[next] = false;
+            documentById.put(ids[next], next);
+            int[] terms = documentTerms[next];
+            for (int k = 0; k < terms.length; k++) {
+                appendPosting(terms[k], next, documentTermFrequencies[next][k]);
+            }
+            next++;
+        }
+        for (int d = next; d < documentCount; d++) {
+            ids[d] = null;
+            segments[d] = null;
+            documentTerms[d] = null;
+            documentTermFrequencies[d] = null;
+        }
+        documentCount = next;
+    }
+
+    /**
+     * Tableaux de travail d'une recherche, rendus au pool à la fin.
+     */
+    private static final class Scratch {
+
+        final OffHeapEmbeddingStore.TopK top = new OffHeapEmbeddingStore.TopK();
+        private float[] scores = new float[0];
+        private int[] touched = new int[0];
+        private int[] terms = new int[16];
+
+        float[] scores(int documents) {
+            if (scores.length < documents) {
+                scores = new float[Math.max(documents, scores.length * 2)];
+            }
+            return scores;
+        }
+
+        int[] touched(int documents) {
+            if (touched.length < documents) {
+                touched = new int[Math.max(documents, touched.length * 2)];
+            }
+            return touched;
+        }
+
+        int[] terms(int count) {
+            if (terms.length < count) {
+                terms = new int[Math.max(count, terms.length * 2)];
+            }
+            return terms;
+        }
+    }
+
+    private final class Indexing implements EmbeddingStore<TextSegment> {
+
+        private final EmbeddingStore<TextSegment> vectorStore;
+
+        Indexing(EmbeddingStore<TextSegment> vectorStore) {
+            this.vectorStore = vectorStore;
+        }
+
+        @Override
+        public String add(Embedding embedding) {
+            throw new UnsupportedOperationException("L'index lexical a besoin du texte des segments");
+        }
+
+        @Override
+        public void add(String id, Embedding embedding) {
+            throw new UnsupportedOperationException("L'index lexical a besoin du texte des segments");
+        }
+
+        @Override
+        public String add(Embedding embedding, TextSegment segment) {
+            String id = generateIds(1).get(0);
+            addAll(List.of(id), List.of(embedding), List.of(segment));
+            return id;
+        }
+
+        @Override
+        public List<String> addAll(List<Embedding> embeddings) {
+            throw new UnsupportedOperationException("L'index lexical a besoin du texte des segments");
+        }
+
+        @Override
+        public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+            vectorStore.addAll(ids, embeddings, segments);
+            Bm25Index.this.addAll(ids, segments);
+        }
+
+        @Override
+        public void removeAll(Collection<String> ids) {
+            vectorStore.removeAll(ids);
+            Bm25Index.this.removeAll(ids);
+        }
+
+        @Override
+        public void removeAll(Filter filter) {
+            vectorStore.removeAll(filter);
+            Bm25Index.this.removeAll(filter);
+        }
+
+        @Override
+        public void removeAll() {
+            vectorStore.removeAll();
+            Bm25Index.this.removeAll();
+        }
+
+        @Override
+        public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+            return vectorStore.search(request);
+        }
+    }
+}
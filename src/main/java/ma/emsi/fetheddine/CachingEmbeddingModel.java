@@ -0,0 +1,259 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Décorateur d'EmbeddingModel avec un cache persistant sur disque.
+ * <p>
+ * Chaque vecteur est indexé par le SHA-256 de (espace de noms, texte du segment),
+ * l'espace de noms regroupant le nom du modèle et les paramètres du splitter.
+ * Les vecteurs sont stockés dans un fichier mappé en mémoire : seuls les segments
+ * absents du cache sont envoyés au modèle, le reste est relu directement du fichier.
+ * <p>
+ * Format du fichier : en-tête (magic, version, fin des données), puis une suite
+ * d'enregistrements [clé 32 octets][dimension int][dimension x float32].
+ * <p>
+ * Le mapping est limité à 2 Go : une fois plein, le cache reste lisible mais les nouveaux
+ * vecteurs ne sont plus écrits (voir isFull()). Appeler close() à l'arrêt de l'application
+ * pour forcer l'écriture sur disque des derniers enregistrements.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel, Closeable {
+
+    private static final int MAGIC = 0x454D4243; // "EMBC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int KEY_SIZE = 32;
+    private static final long INITIAL_CAPACITY = 1L << 20;
+    private static final long MAX_CAPACITY = Integer.MAX_VALUE;
+
+    private final EmbeddingModel delegate;
+    private final String namespace;
+    private final FileChannel channel;
+    private final Map<String, Long> offsets = new HashMap<>();
+
+    private MappedByteBuffer buffer;
+    private long end;
+    private long hits;
+    private long misses;
+    private boolean full;
+    private boolean closed;
+
+    /**
+     * @param delegate  Le modèle réellement appelé pour les segments inconnus.
+     * @param cacheFile Le fichier de cache (créé s'il n'existe pas).
+     * @param namespace L'espace de noms, voir {@link #namespace(String, int, int)}.
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, Path cacheFile, String namespace) {
+        this.delegate = delegate;
+        this.namespace = namespace;
+        try {
+            if (cacheFile.getParent() != null) {
+                Files.createDirectories(cacheFile.getParent());
+            }
+            this.channel = FileChannel.open(cacheFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean isNew = channel.size() == 0;
+            map(Math.max(channel.size(), INITIAL_CAPACITY));
+            if (isNew) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                writeEnd(HEADER_SIZE);
+            } else {
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IllegalStateException("Fichier de cache d'embeddings invalide : " + cacheFile);
+                }
+                end = buffer.getLong(8);
+                loadIndex();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'ouvrir le cache d'embeddings : " + cacheFile, e);
+        }
+    }
+
+    /**
+     * Construit l'espace de noms d'un cache à partir du modèle et des paramètres
+     * de DocumentSplitters.recursive(maxSegmentSize, maxOverlap).
+     */
+    public static String namespace(String modelName, int maxSegmentSize, int maxOverlap) {
+        return modelName + "|recursive(" + maxSegmentSize + "," + maxOverlap + ")";
+    }
+
+    // L'appel au modèle se fait hors du verrou pour que plusieurs lots puissent être embeddés en parallèle.
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        Embedding[] embeddings = new Embedding[segments.size()];
+        List<TextSegment> missing = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        List<String> missingKeys = new ArrayList<>();
+
+        synchronized (this) {
+            for (int i = 0; i < segments.size(); i++) {
+                String key = key(segments.get(i).text());
+                Long offset = offsets.get(key);
+                if (offset != null) {
+                    embeddings[i] = Embedding.from(read(offset));
+                } else {
+                    missing.add(segments.get(i));
+                    missingIndexes.add(i);
+                    missingKeys.add(key);
+                }
+            }
+            hits += segments.size() - missing.size();
+            misses += missing.size();
+        }
+
+        if (!missing.isEmpty()) {
+            List<Embedding> computed = delegate.embedAll(missing).content();
+            if (computed == null || computed.size() != missing.size()) {
+                throw new IllegalStateException("Le modèle d'embedding a renvoyé "
+                        + (computed == null ? 0 : computed.size()) + " vecteurs pour " + missing.size() + " segments");
+            }
+            synchronized (this) {
+                for (int i = 0; i < computed.size(); i++) {
+                    Embedding embedding = computed.get(i);
+                    embeddings[missingIndexes.get(i)] = embedding;
+                    if (!closed && !full && !offsets.containsKey(missingKeys.get(i))) {
+                        write(missingKeys.get(i), embedding.vector());
+                    }
+                }
+            }
+        }
+        return Response.from(List.of(embeddings));
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    /**
+     * Vecteur déjà en cache pour ce texte, null s'il est absent : ni appel au modèle, ni
+     * écriture, ni hit ou miss compté.
+     */
+    public synchronized Embedding cached(String text) {
+        Long offset = offsets.get(key(text));
+        return offset == null ? null : Embedding.from(read(offset));
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return offsets.size();
+    }
+
+    /**
+     * Indique si le fichier a atteint 2 Go : les nouveaux vecteurs ne sont plus mis en cache.
+     */
+    public synchronized boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Force l'écriture sur disque et ferme le fichier ; le modèle reste utilisable, sans
+     * cache en écriture. Sans effet si déjà fermé.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String key(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(namespace.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void loadIndex() {
+        byte[] key = new byte[KEY_SIZE];
+        long position = HEADER_SIZE;
+        while (position < end) {
+            buffer.get((int) position, key);
+            int dimension = buffer.getInt((int) position + KEY_SIZE);
+            offsets.put(HexFormat.of().formatHex(key), position);
+            position += recordSize(dimension);
+        }
+    }
+
+    private float[] read(long offset) {
+        int position = (int) offset + KEY_SIZE;
+        int dimension = buffer.getInt(position);
+        float[] vector = new float[dimension];
+        buffer.slice(position + 4, dimension * Float.BYTES).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    private void write(String key, float[] vector) {
+        long size = recordSize(vector.length);
+        if (end + size > MAX_CAPACITY) {
+            full = true;
+            return;
+        }
+        if (end + size > buffer.capacity()) {
+            map(Math.min(MAX_CAPACITY, Math.max(buffer.capacity() * 2L, end + size)));
+        }
+        int position = (int) end;
+        buffer.put(position, HexFormat.of().parseHex(key));
+        buffer.putInt(position + KEY_SIZE, vector.length);
+        buffer.slice(position + KEY_SIZE + 4, vector.length * Float.BYTES).asFloatBuffer().put(vector);
+        offsets.put(key, end);
+        writeEnd(end + size);
+    }
+
+    private void writeEnd(long newEnd) {
+        end = newEnd;
+        buffer.putLong(8, end);
+    }
+
+    private void map(long capacity) {
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long recordSize(int dimension) {
+        return KEY_SIZE + 4 + (long) dimension * Float.BYTES;
+    }
+}
@@ -0,0 +1,396 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.web.search.WebSearchEngine;
+import dev.langchain4j.web.search.WebSearchInformationResult;
+import dev.langchain4j.web.search.WebSearchOrganicResult;
+import dev.langchain4j.web.search.WebSearchRequest;
+import dev.langchain4j.web.search.WebSearchResults;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Décorateur de WebSearchEngine avec un cache de résultats à durée de vie limitée.
+ * <p>
+ * La clé est le texte de la requête normalisé (casse, accents composés, espaces et
+ * ponctuation finale) plus les paramètres de la recherche. Le cache est borné en nombre
+ * d'entrées et en taille estimée (éviction LRU), les entrées expirent après le TTL, et
+ * des recherches identiques simultanées ne déclenchent qu'un seul appel au moteur.
+ * Avec un fichier de persistance, le cache est rechargé au démarrage et écrit par
+ * {@link #save()} ; les métadonnées libres (searchMetadata, metadata de l'information)
+ * ne sont pas persistées.
+ */
+public class CachingWebSearchEngine implements WebSearchEngine {
+
+    private static final int MAGIC = 0x57454243; // "WEBC"
+    private static final int VERSION = 2;
+
+    private final WebSearchEngine delegate;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Duration ttl;
+    private final Path persistFile;
+    private final Clock clock;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<WebSearchResults>> inFlight = new ConcurrentHashMap<>();
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long coalesced;
+    private long evictions;
+
+    private CachingWebSearchEngine(Builder builder) {
+        this.delegate = builder.delegate;
+        this.maxEntries = builder.maxEntries;
+        this.maxBytes = builder.maxBytes;
+        this.ttl = builder.ttl;
+        this.persistFile = builder.persistFile;
+        this.clock = builder.clock;
+        if (persistFile != null && Files.exists(persistFile)) {
+            load();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public WebSearchResults search(WebSearchRequest request) {
+        String key = key(request);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAtMillis() > clock.millis()) {
+                hits++;
+                return entry.results();
+            }
+            if (entry != null) {
+                remove(key);
+            }
+        }
+
+        CompletableFuture<WebSearchResults> mine = new CompletableFuture<>();
+        CompletableFuture<WebSearchResults> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            synchronized (this) {
+                coalesced++;
+            }
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+            }
+        }
+
+        try {
+            // Un appel identique a pu se terminer entre la lecture du cache et l'enregistrement de celui-ci.
+            synchronized (this) {
+                Entry entry = entries.get(key);
+                if (entry != null && entry.expiresAtMillis() > clock.millis()) {
+                    hits++;
+                    mine.complete(entry.results());
+                    return entry.results();
+                }
+                misses++;
+            }
+            WebSearchResults results = delegate.search(request);
+            put(key, results);
+            mine.complete(results);
+            return results;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Écrit les entrées non expirées dans le fichier de persistance (sans effet s'il n'y en a pas).
+     */
+    public synchronized void save() {
+        if (persistFile == null) {
+            return;
+        }
+        try {
+            if (persistFile.getParent() != null) {
+                Files.createDirectories(persistFile.getParent());
+            }
+            Path tmp = persistFile.resolveSibling(persistFile.getFileName() + ".tmp");
+            long now = clock.millis();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                List<Map.Entry<String, Entry>> alive = new ArrayList<>();
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    if (entry.getValue().expiresAtMillis() > now) {
+                        alive.add(entry);
+                    }
+                }
+                out.writeInt(alive.size());
+                for (Map.Entry<String, Entry> entry : alive) {
+                    writeNullable(out, entry.getKey());
+                    out.writeLong(entry.getValue().expiresAtMillis());
+                    write(out, entry.getValue().results());
+                }
+            }
+            Files.move(tmp, persistFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Sauvegarde du cache web impossible : " + persistFile, e);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Recherches servies en attendant un appel identique déjà en cours.
+     */
+    public synchronized long coalesced() {
+        return coalesced;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entrées (%d Ko), %d hits, %d misses, %d fusionnées, %d évictions",
+                entries.size(), bytes / 1024, hits, misses, coalesced, evictions);
+    }
+
+    static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC)
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("\\s+", " ")
+                .trim();
+        return normalized.replaceAll("[\\s?!.;:]+$", "");
+    }
+
+    private static String key(WebSearchRequest request) {
+        return normalize(request.searchTerms()) + '|' + request.maxResults() + '|' + request.language()
+                + '|' + request.geoLocation() + '|' + request.startPage() + '|' + request.startIndex()
+                + '|' + request.safeSearch() + '|' + request.additionalParams();
+    }
+
+    private synchronized void put(String key, WebSearchResults results) {
+        remove(key);
+        long size = estimateBytes(key, results);
+        if (size > maxBytes) {
+            return;
+        }
+        entries.put(key, new Entry(results, size, clock.millis() + ttl.toMillis()));
+        bytes += size;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().bytes();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.bytes();
+        }
+    }
+
+    // Estimation grossière : deux octets par caractère plus un forfait par objet.
+    private static long estimateBytes(String key, WebSearchResults results) {
+        long size = 64 + 2L * key.length();
+        for (WebSearchOrganicResult result : results.results()) {
+            size += 96 + 2L * (length(result.title()) + length(result.snippet()) + length(result.content())
+                    + result.url().toString().length());
+            if (result.metadata() != null) {
+                for (Map.Entry<String, String> entry : result.metadata().entrySet()) {
+                    size += 32 + 2L * (length(entry.getKey()) + length(entry.getValue()));
+                }
+            }
+        }
+        return size;
+    }
+
+    private static int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(persistFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.err.println("Cache web ignoré (format inconnu) : " + persistFile);
+                return;
+            }
+            int count = in.readInt();
+            long now = clock.millis();
+            for (int i = 0; i < count; i++) {
+                String key = readNullable(in);
+                long expiresAt = in.readLong();
+                WebSearchResults results = read(in);
+                if (expiresAt > now) {
+                    long size = estimateBytes(key, results);
+                    entries.put(key, new Entry(results, size, expiresAt));
+                    bytes += size;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cache web ignoré (lecture impossible) : " + e.getMessage());
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    private static void write(DataOutputStream out, WebSearchResults results) throws IOException {
+        WebSearchInformationResult information = results.searchInformation();
+        out.writeLong(information == null || information.totalResults() == null ? -1 : information.totalResults());
+        out.writeInt(information == null || information.pageNumber() == null ? -1 : information.pageNumber());
+        out.writeInt(results.results().size());
+        for (WebSearchOrganicResult result : results.results()) {
+            writeNullable(out, result.title());
+            writeNullable(out, result.url().toString());
+            writeNullable(out, result.snippet());
+            writeNullable(out, result.content());
+            Map<String, String> metadata = result.metadata() == null ? Map.of() : result.metadata();
+            out.writeInt(metadata.size());
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                writeNullable(out, entry.getKey());
+                writeNullable(out, entry.getValue());
+            }
+        }
+    }
+
+    private static WebSearchResults read(DataInputStream in) throws IOException {
+        long totalResults = in.readLong();
+        int pageNumber = in.readInt();
+        int count = in.readInt();
+        List<WebSearchOrganicResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String title = readNullable(in);
+            URI url = URI.create(readNullable(in));
+            String snippet = readNullable(in);
+            String content = readNullable(in);
+            int metadataSize = in.readInt();
+            Map<String, String> metadata = new LinkedHashMap<>();
+            for (int j = 0; j < metadataSize; j++) {
+                metadata.put(readNullable(in), readNullable(in));
+            }
+            results.add(WebSearchOrganicResult.from(title, url, snippet, content, metadata));
+        }
+        WebSearchInformationResult information = WebSearchInformationResult.from(
+                totalResults < 0 ? null : totalResults, pageNumber < 0 ? null : pageNumber, null);
+        return WebSearchResults.from(information, results);
+    }
+
+    // writeUTF est limité à 64 Ko : le contenu d'une page web, voire une URL ou une requête, peut
+    // dépasser ; toutes les chaînes sont donc écrites avec leur longueur en int.
+    private static void writeNullable(DataOutputStream out, String text) throws IOException {
+        if (text == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private record Entry(WebSearchResults results, long bytes, long expiresAtMillis) {
+    }
+
+    public static class Builder {
+
+        private WebSearchEngine delegate;
+        private int maxEntries = 1000;
+        private long maxBytes = 32L << 20;
+        private Duration ttl = Duration.ofHours(6);
+        private Path persistFile;
+        private Clock clock = Clock.systemUTC();
+
+        public Builder webSearchEngine(WebSearchEngine delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Taille maximale estimée du cache en mémoire, en octets.
+         */
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * Fichier de persistance entre redémarrages ; null (défaut) pour un cache purement en mémoire.
+         */
+        public Builder persistFile(Path persistFile) {
+            this.persistFile = persistFile;
+            return this;
+        }
+
+        /**
+         * Horloge utilisée pour le TTL, remplaçable pour tester l'expiration sans attendre.
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public CachingWebSearchEngine build() {
+            if (delegate == null) {
+                throw new IllegalStateException("webSearchEngine est obligatoire");
+            }
+            return new CachingWebSearchEngine(this);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package ma.emsi.fetheddine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.googleai.GoogleAiEmbeddingModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.service.AiServices;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mode serveur : expose le même pipeline RAG que TestRagNaif en HTTP, pour plusieurs
+ * utilisateurs simultanés, avec uniquement le serveur HTTP du JDK.
+ * <p>
+ * Chaque requête est traitée sur son propre thread virtuel. Le store d'embeddings, les
+ * modèles et le retriever sont partagés par toutes les sessions ; seule la mémoire de
+ * conversation est propre à chaque session (SessionMemoryStore, bornée et évictive).
+ * <ul>
+ *     <li>POST /chat : la question dans le corps (texte UTF-8), la session dans l'en-tête
+ *     X-Session-Id (créée et renvoyée dans le même en-tête si absente) ; répond le texte.</li>
+ *     <li>DELETE /chat : oublie la session de l'en-tête X-Session-Id.</li>
+ *     <li>GET /stats : compteurs du serveur et des sessions.</li>
+ *     <li>GET /metrics : histogrammes par étape au format Prometheus (voir PipelineMetrics).</li>
+ * </ul>
+ */
+public class ChatServer implements AutoCloseable {
+
+    static final String SESSION_HEADER = "X-Session-Id";
+
+    private final HttpServer server;
+    private final SessionAssistant assistant;
+    private final SessionMemoryStore memoryStore;
+    private final InProcessMetrics metrics;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private ChatServer(InetSocketAddress address, SessionAssistant assistant, SessionMemoryStore memoryStore,
+                       InProcessMetrics metrics) throws IOException {
+        this.assistant = assistant;
+        this.memoryStore = memoryStore;
+        this.metrics = metrics;
+        this.server = HttpServer.create(address, 1024);
+        server.createContext("/chat", this::handleChat);
+        server.createContext("/stats", this::handleStats);
+        server.createContext("/metrics", exchange -> PrometheusExporter.handle(exchange, metrics));
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Démarre le serveur (port 0 : port libre choisi par le système, voir port()).
+     */
+    public static ChatServer start(int port, SessionAssistant assistant, SessionMemoryStore memoryStore)
+            throws IOException {
+        return start(port, assistant, memoryStore, new InProcessMetrics());
+    }
+
+    /**
+     * Démarre le serveur en publiant sur /metrics les histogrammes de metrics, qui peut aussi
+     * recevoir ceux du pipeline (PipelineMetrics) ; chaque requête /chat y ajoute chat_request_seconds.
+     */
+    public static ChatServer start(int port, SessionAssistant assistant, SessionMemoryStore memoryStore,
+                                   InProcessMetrics metrics) throws IOException {
+        ChatServer chatServer = new ChatServer(new InetSocketAddress(port), assistant, memoryStore, metrics);
+        chatServer.server.start();
+        return chatServer;
+    }
+
+    /**
+     * Construit l'assistant multi-sessions : un seul AiService pour tous les utilisateurs,
+     * une mémoire par session fournie par memoryStore.
+     */
+    public static SessionAssistant assistant(ChatModel chatModel, ContentRetriever contentRetriever,
+                                             SessionMemoryStore memoryStore) {
+        return assistantWithAugmentor(chatModel,
+                DefaultRetrievalAugmentor.builder().contentRetriever(contentRetriever).build(), memoryStore);
+    }
+
+    /**
+     * Comme {@link #assistant(ChatModel, ContentRetriever, SessionMemoryStore)}, avec les
+     * réponses partagées entre sessions par answerCache quand la question et le contexte
+     * récupéré sont les mêmes.
+     */
+    public static SessionAssistant assistant(ChatModel chatModel, ContentRetriever contentRetriever,
+                                             SessionMemoryStore memoryStore, AnswerCache answerCache) {
+        return assistantWithAugmentor(answerCache.chatModel(chatModel), answerCache.retrievalAugmentor(
+                DefaultRetrievalAugmentor.builder().contentRetriever(contentRetriever).build()), memoryStore);
+    }
+
+    private static SessionAssistant assistantWithAugmentor(ChatModel chatModel, RetrievalAugmentor retrievalAugmentor,
+                                                           SessionMemoryStore memoryStore) {
+        SessionAssistant assistant = AiServices.builder(SessionAssistant.class)
+                .chatModel(chatModel)
+                .chatMemoryProvider(memoryStore)
+                .retrievalAugmentor(retrievalAugmentor)
+                .build();
+        // Une session évincée du store libère aussi la ChatMemory gardée par l'AiService.
+        memoryStore.onEviction(assistant::evictChatMemory);
+        return assistant;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d requêtes, %d erreurs, %s", requests.get(), failures.get(), memoryStore);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+
+    private void handleChat(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String sessionId = exchange.getRequestHeaders().getFirst(SESSION_HEADER);
+            switch (exchange.getRequestMethod()) {
+                case "POST" -> {
+                    requests.incrementAndGet();
+                    String question;
+                    try (InputStream body = exchange.getRequestBody()) {
+                        question = new String(body.readAllBytes(), StandardCharsets.UTF_8).strip();
+                    }
+                    if (question.isEmpty()) {
+                        send(exchange, 400, "Question vide");
+                        return;
+                    }
+                    if (sessionId == null || sessionId.isBlank()) {
+                        sessionId = UUID.randomUUID().toString();
+                    }
+                    exchange.getResponseHeaders().set(SESSION_HEADER, sessionId);
+                    long start = System.nanoTime();
+                    String answer;
+                    try {
+                        answer = assistant.chat(sessionId, question);
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                        metrics.record("chat_request_seconds", (System.nanoTime() - start) / 1e9, "status", "502");
+                        send(exchange, 502, "Erreur du modèle : " + e.getMessage());
+                        return;
+                    }
+                    metrics.record("chat_request_seconds", (System.nanoTime() - start) / 1e9, "status", "200");
+                    send(exchange, 200, answer);
+                }
+                case "DELETE" -> {
+                    if (sessionId != null) {
+                        assistant.evictChatMemory(sessionId);
+                        memoryStore.deleteMessages(sessionId);
+                    }
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> send(exchange, 405, "Méthode non supportée");
+            }
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            send(exchange, 200, toString());
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Helper pour charger les ressources
+    private static Path getPath(String fileName) {
+        try {
+            URI fileUri = ChatServer.class.getClassLoader().getResource(fileName).toURI();
+            return Paths.get(fileUri);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String geminiKey = System.getenv("GEMINI_KEY");
+        if (geminiKey == null || geminiKey.isEmpty()) {
+            System.err.println("Erreur : la variable d'environnement GEMINI_KEY doit être définie.");
+            return;
+        }
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+
+        InProcessMetrics metrics = new InProcessMetrics();
+        // Toutes les sessions partagent le quota Gemini : débit et concurrence sont bornés ici,
+        // la concurrence s'ajuste aux 429 et à la latence, et les reprises ne sont faites qu'une fois.
+        ModelCallPolicy chatPolicy = ModelCallPolicy.builder()
+                .rateLimit(10, 10)
+                .concurrency(8, 1, 64)
+                .metrics(metrics)
+                .build();
+        ModelCallPolicy embeddingPolicy = ModelCallPolicy.builder()
+                .rateLimit(25, 10)
+                .concurrency(8, 1, 64)
+                .hedging(0.95, 0.1)
+                .metrics(metrics)
+                .build();
+        ChatModel model = chatPolicy.chatModel(GoogleAiGeminiChatModel.builder()
+                .apiKey(geminiKey)
+                .modelName("gemini-2.5-flash")
+                .temperature(0.3)
+                .maxRetries(0)
+                .listeners(List.of(PipelineMetrics.chatModelListener(metrics)))
+                .build());
+        EmbeddingModel embeddingModel = embeddingPolicy.embeddingModel(GoogleAiEmbeddingModel.builder()
+                .apiKey(geminiKey)
+                .modelName("text-embedding-004")
+                .maxRetries(0)
+                .build());
+
+        // Ingestion unique au démarrage, partagée par toutes les sessions
+        DocumentParser parser = new ApacheTikaDocumentParser();
+        Document document = FileSystemDocumentLoader.loadDocument(getPath("rag.pdf"), parser);
+        DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
+        List<TextSegment> segments = splitter.split(document);
+        CachingEmbeddingModel cachedEmbeddingModel = new CachingEmbeddingModel(embeddingModel,
+                Paths.get(".cache", "embeddings.bin"),
+                CachingEmbeddingModel.namespace("text-embedding-004", 300, 30));
+        // Écrit les derniers vecteurs du cache sur disque à l'arrêt, Ctrl-C compris
+        Runtime.getRuntime().addShutdownHook(new Thread(cachedEmbeddingModel::close));
+        EmbeddingStore<TextSegment> embeddingStore = new OffHeapEmbeddingStore();
+        embeddingStore.addAll(cachedEmbeddingModel.embedAll(segments).content(), segments);
+
+        // Le retriever et le cache de réponses partagent l'embedding de chaque question.
+        QueryEmbeddingCache queryEmbeddingModel = new QueryEmbeddingCache(
+                PipelineMetrics.embeddingModel(embeddingModel, metrics), 10_000, metrics);
+        ContentRetriever contentRetriever = PipelineMetrics.contentRetriever("rag",
+                EmbeddingStoreContentRetriever.builder()
+                        .embeddingStore(embeddingStore)
+                        .embeddingModel(queryEmbeddingModel)
+                        .maxResults(2)
+                        .minScore(0.5)
+                        .build(),
+                metrics);
+        // Les questions répétées d'une session à l'autre, sur le même contexte, ne refont pas d'appel Gemini.
+        AnswerCache answerCache = AnswerCache.builder()
+                .embeddingModel(queryEmbeddingModel)
+                .capacity(10_000, Duration.ofHours(12))
+                .metrics(metrics)
+                .build();
+
+        // 10 messages par session comme les applications console, 10 000 sessions, oubliées après 30 min
+        SessionMemoryStore memoryStore = new SessionMemoryStore(10_000, Duration.ofMinutes(30), 10);
+        ChatServer chatServer = start(port, assistant(model, contentRetriever, memoryStore, answerCache), memoryStore,
+                metrics);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            chatServer.close();
+            chatPolicy.close();
+            embeddingPolicy.close();
+        }));
+        System.out.println("Serveur prêt sur http://localhost:" + chatServer.port() + "/chat ("
+                + segments.size() + " segments indexés).");
+    }
+}
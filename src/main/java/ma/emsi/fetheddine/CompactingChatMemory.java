@@ -0,0 +1,355 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.chat.ChatModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * ChatMemory bornée en tokens plutôt qu'en nombre de messages, pour que le prompt de chaque
+ * tour reste à peu près constant au fil d'une longue session :
+ * <ul>
+ *     <li>le contexte injecté par le RetrievalAugmentor est retiré des messages utilisateur
+ *     dès qu'une nouvelle question arrive : s'il est encore utile, il sera récupéré à nouveau.
+ *     Le texte est coupé à injectedContentMarker, l'en-tête du DefaultContentInjector ;</li>
+ *     <li>quand les messages dépassent maxTokens, les tours les plus anciens (une question et
+ *     tout ce qui la suit) sortent de la fenêtre jusqu'à revenir à 60 % du budget, et sont
+ *     résumés par le summarizer dans un thread virtuel, hors du chemin de la requête ;</li>
+ *     <li>le résumé glissant (au plus maxSummaryTokens) est ajouté au message système.</li>
+ * </ul>
+ * Tant qu'un résumé est en cours, les tours sortis n'apparaissent dans aucun des deux : le
+ * budget prime. Un échec du summarizer garde l'ancien résumé et perd ces tours. Sans
+ * summarizer, la mémoire est une simple fenêtre en tokens. La dernière question est
+ * toujours gardée entière, même seule au-delà du budget.
+ * <p>
+ * Mesures : chat_memory_tokens (taille de la mémoire à chaque lecture) et
+ * chat_memory_summary_seconds.
+ */
+public class CompactingChatMemory implements ChatMemory {
+
+    /**
+     * En-tête du prompt de DefaultContentInjector, après la question de l'utilisateur.
+     */
+    public static final String DEFAULT_INJECTED_CONTENT_MARKER = "\n\nAnswer using the following information:";
+
+    private static final double KEEP_RATIO = 0.6;
+
+    private final Object id;
+    private final int maxTokens;
+    private final int maxSummaryTokens;
+    private final ChatModel summarizer;
+    private final String injectedContentMarker;
+    private final ToIntFunction<String> tokenCounter;
+    private final MetricsSink sink;
+
+    private SystemMessage systemMessage;
+    private final List<ChatMessage> recent = new ArrayList<>();
+    private final List<ChatMessage> pending = new ArrayList<>();
+    private String summary = "";
+    private Thread summarizing;
+    // Incrémenté par clear() : un résumé lancé avant ne s'applique pas.
+    private long generation;
+
+    private long foldedTurns;
+    private long summaries;
+    private long summaryFailures;
+    private long strippedTokens;
+
+    private CompactingChatMemory(Builder builder) {
+        this.id = builder.id;
+        this.maxTokens = builder.maxTokens;
+        this.maxSummaryTokens = builder.maxSummaryTokens > 0 ? builder.maxSummaryTokens : builder.maxTokens / 4;
+        this.summarizer = builder.summarizer;
+        this.injectedContentMarker = builder.injectedContentMarker;
+        this.tokenCounter = builder.tokenCounter;
+        this.sink = builder.sink;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public synchronized void add(ChatMessage message) {
+        if (message instanceof SystemMessage system) {
+            systemMessage = system;
+            return;
+        }
+        if (message instanceof UserMessage) {
+            for (int i = 0; i < recent.size(); i++) {
+                if (recent.get(i) instanceof UserMessage older) {
+                    recent.set(i, strip(older));
+                }
+            }
+        }
+        recent.add(message);
+        compact();
+    }
+
+    @Override
+    public synchronized List<ChatMessage> messages() {
+        List<ChatMessage> messages = new ArrayList<>(recent.size() + 1);
+        SystemMessage system = system();
+        if (system != null) {
+            messages.add(system);
+        }
+        messages.addAll(recent);
+        sink.record("chat_memory_tokens", tokens(messages));
+        return messages;
+    }
+
+    @Override
+    public synchronized void clear() {
+        generation++;
+        systemMessage = null;
+        recent.clear();
+        pending.clear();
+        summary = "";
+    }
+
+    /**
+     * Attend la fin du résumé en cours, s'il y en a un (tests, benchmarks).
+     */
+    public void awaitSummary() throws InterruptedException {
+        while (true) {
+            Thread thread;
+            synchronized (this) {
+                thread = summarizing;
+            }
+            if (thread == null) {
+                return;
+            }
+            thread.join();
+        }
+    }
+
+    public synchronized String summary() {
+        return summary;
+    }
+
+    public synchronized int tokens() {
+        List<ChatMessage> messages = new ArrayList<>(recent);
+        SystemMessage system = system();
+        if (system != null) {
+            messages.add(system);
+        }
+        return tokens(messages);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d tokens en mémoire (%d messages), %d tours résumés en %d résumés (%d échecs), "
+                        + "%d tokens de contexte retirés", tokens(), recent.size(), foldedTurns, summaries,
+                summaryFailures, strippedTokens);
+    }
+
+    private SystemMessage system() {
+        if (summary.isEmpty()) {
+            return systemMessage;
+        }
+        String text = "Résumé de la conversation précédente :\n" + summary;
+        return SystemMessage.from(systemMessage == null ? text : systemMessage.text() + "\n\n" + text);
+    }
+
+    private UserMessage strip(UserMessage message) {
+        if (!message.hasSingleText()) {
+            return message;
+        }
+        String text = message.singleText();
+        int marker = text.indexOf(injectedContentMarker);
+        if (marker < 0) {
+            return message;
+        }
+        strippedTokens += tokenCounter.applyAsInt(text.substring(marker));
+        return message.name() == null
+                ? UserMessage.from(text.substring(0, marker))
+                : UserMessage.from(message.name(), text.substring(0, marker));
+    }
+
+    // Sort les tours les plus anciens jusqu'à KEEP_RATIO x maxTokens, sans jamais couper un tour
+    // (un appel d'outil reste avec son résultat) ni sortir le dernier.
+    private void compact() {
+        if (tokens() <= maxTokens) {
+            return;
+        }
+        int target = (int) (maxTokens * KEEP_RATIO);
+        while (tokens() > target) {
+            int next = 1;
+            while (next < recent.size() && !(recent.get(next) instanceof UserMessage)) {
+                next++;
+            }
+            if (next >= recent.size()) {
+                break;
+            }
+            List<ChatMessage> turn = recent.subList(0, next);
+            pending.addAll(turn);
+            turn.clear();
+            foldedTurns++;
+        }
+        if (summarizer == null) {
+            pending.clear();
+        } else if (!pending.isEmpty() && summarizing == null) {
+            summarize();
+        }
+    }
+
+    private void summarize() {
+        List<ChatMessage> batch = new ArrayList<>(pending);
+        pending.clear();
+        String previous = summary;
+        long startedGeneration = generation;
+        summarizing = Thread.ofVirtual().name("chat-memory-summary").start(() -> {
+            long start = System.nanoTime();
+            String result = null;
+            try {
+                result = summarizer.chat(prompt(previous, batch));
+            } catch (RuntimeException e) {
+                // Le résumé précédent reste en place.
+            }
+            sink.record("chat_memory_summary_seconds", (System.nanoTime() - start) / 1e9);
+            synchronized (CompactingChatMemory.this) {
+                summarizing = null;
+                if (generation != startedGeneration) {
+                    return;
+                }
+                if (result == null) {
+                    summaryFailures++;
+                } else {
+                    summary = truncate(result.strip());
+                    summaries++;
+                }
+                if (!pending.isEmpty()) {
+                    summarize();
+                }
+            }
+        });
+    }
+
+    private String prompt(String previous, List<ChatMessage> turns) {
+        StringBuilder prompt = new StringBuilder()
+                .append("Mets à jour le résumé d'une conversation entre un utilisateur et un assistant. ")
+                .append("Garde les faits, les questions posées et les réponses données, sans rien inventer, en ")
+                .append(maxSummaryTokens * 3 / 4).append(" mots au plus. Réponds uniquement par le résumé.\n\n")
+                .append("Résumé actuel :\n").append(previous.isEmpty() ? "(vide)" : previous)
+                .append("\n\nNouveaux échanges :\n");
+        for (ChatMessage message : turns) {
+            String text = text(message);
+            if (!text.isEmpty()) {
+                prompt.append(message instanceof UserMessage ? "Utilisateur : " : "Assistant : ")
+                        .append(text).append('\n');
+            }
+        }
+        return prompt.toString();
+    }
+
+    private String truncate(String text) {
+        if (tokenCounter.applyAsInt(text) <= maxSummaryTokens) {
+            return text;
+        }
+        int end = text.length();
+        while (end > 0 && tokenCounter.applyAsInt(text.substring(0, end)) > maxSummaryTokens) {
+            end = end * 9 / 10;
+        }
+        return text.substring(0, end) + " …";
+    }
+
+    private int tokens(List<ChatMessage> messages) {
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += tokenCounter.applyAsInt(text(message));
+        }
+        return tokens;
+    }
+
+    private static String text(ChatMessage message) {
+        return switch (message) {
+            case SystemMessage system -> system.text();
+            case UserMessage user -> user.hasSingleText() ? user.singleText() : user.contents().toString();
+            case AiMessage ai -> (ai.text() == null ? "" : ai.text())
+                    + (ai.hasToolExecutionRequests() ? ai.toolExecutionRequests().toString() : "");
+            case ToolExecutionResultMessage result -> result.text();
+            default -> message.toString();
+        };
+    }
+
+    public static class Builder {
+
+        private Object id = "default";
+        private int maxTokens = 2000;
+        private int maxSummaryTokens;
+        private ChatModel summarizer;
+        private String injectedContentMarker = DEFAULT_INJECTED_CONTENT_MARKER;
+        private ToIntFunction<String> tokenCounter = ContextPacker::estimateTokens;
+        private MetricsSink sink = MetricsSink.NONE;
+
+        public Builder id(Object id) {
+            this.id = id;
+            return this;
+        }
+
+        /**
+         * Budget de la mémoire, message système et résumé compris (2000 tokens).
+         */
+        public Builder maxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        /**
+         * Taille maximale du résumé (par défaut le quart de maxTokens).
+         */
+        public Builder maxSummaryTokens(int maxSummaryTokens) {
+            this.maxSummaryTokens = maxSummaryTokens;
+            return this;
+        }
+
+        /**
+         * Modèle bloquant qui produit le résumé ; sans lui, les tours anciens sont oubliés.
+         */
+        public Builder summarizer(ChatModel summarizer) {
+            this.summarizer = summarizer;
+            return this;
+        }
+
+        /**
+         * Début du contexte injecté dans les messages utilisateur, à adapter si le
+         * ContentInjector utilise un autre prompt.
+         */
+        public Builder injectedContentMarker(String injectedContentMarker) {
+            this.injectedContentMarker = injectedContentMarker;
+            return this;
+        }
+
+        /**
+         * Comptage des tokens d'un texte, {@link ContextPacker#estimateTokens} par défaut.
+         */
+        public Builder tokenCounter(ToIntFunction<String> tokenCounter) {
+            this.tokenCounter = tokenCounter;
+            return this;
+        }
+
+        public Builder metrics(MetricsSink sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        public CompactingChatMemory build() {
+            if (maxTokens < 1) {
+                throw new IllegalArgumentException("maxTokens doit être >= 1");
+            }
+            return new CompactingChatMemory(this);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.query.Query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * ContentAggregator pour DefaultRetrievalAugmentor qui assemble le contexte dans un budget
+ * de tokens au lieu de concaténer tous les résultats des retrievers :
+ * <ol>
+ *     <li>les contenus de toutes les requêtes et de tous les retrievers sont réunis, les
+ *     doublons exacts retirés ;</li>
+ *     <li>la sélection suit la pertinence marginale maximale (MMR) : à chaque étape, le contenu
+ *     qui maximise lambda x sim(question, contenu) - (1 - lambda) x max sim(contenu, déjà
+ *     choisis) ; un contenu trop proche d'un contenu choisi (duplicateThreshold) est écarté,
+ *     un contenu qui ne tient plus dans le budget est sauté au profit d'un plus court ;</li>
+ *     <li>les segments choisis qui se suivent dans un même document (métadonnée index des
+ *     splitters, même fichier et même page, ou même URL) sont fusionnés en un seul contenu,
+ *     sans répéter leur chevauchement.</li>
+ * </ol>
+ * Les contenus des documents ingérés reprennent le vecteur calculé à l'ingestion, lu sans
+ * écriture dans le CachingEmbeddingModel passé à cachedEmbeddings. Seuls les autres (les
+ * extraits web) partent à contentEmbeddingModel, en un seul lot par tour. Les résultats web
+ * changent à chaque recherche : un cache persistant les garderait tous sur disque, d'où un
+ * QueryEmbeddingCache borné sur le modèle brut, qui évite seulement de ré-embedder un extrait
+ * revenu d'un tour à l'autre. La question passe par queryEmbeddingModel (le
+ * QueryEmbeddingCache des retrievers, qui l'a déjà calculée).
+ * <p>
+ * Mesures : rag_context_tokens{stage=retrieved|packed} et rag_context_contents{stage=...}
+ * par tour.
+ */
+public class ContextPacker implements ContentAggregator {
+
+    private static final String INDEX = "index";
+    private static final String URL = "url";
+    private static final int MAX_OVERLAP_CHARS = 500;
+
+    private final EmbeddingModel contentEmbeddingModel;
+    private final CachingEmbeddingModel cachedEmbeddings;
+    private final EmbeddingModel queryEmbeddingModel;
+    private final int maxTokens;
+    private final double lambda;
+    private final double duplicateThreshold;
+    private final ToIntFunction<String> tokenCounter;
+    private final MetricsSink sink;
+    private final LongAdder turns = new LongAdder();
+    private final LongAdder retrievedTokens = new LongAdder();
+    private final LongAdder packedTokens = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder embedded = new LongAdder();
+
+    private ContextPacker(Builder builder) {
+        this.contentEmbeddingModel = builder.contentEmbeddingModel;
+        this.cachedEmbeddings = builder.cachedEmbeddings;
+        this.queryEmbeddingModel = builder.queryEmbeddingModel;
+        this.maxTokens = builder.maxTokens;
+        this.lambda = builder.lambda;
+        this.duplicateThreshold = builder.duplicateThreshold;
+        this.tokenCounter = builder.tokenCounter;
+        this.sink = builder.sink;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Estimation par défaut : un token pour 4 caractères, l'ordre de grandeur des tokenizers
+     * de Gemini sur du texte latin.
+     */
+    public static int estimateTokens(String text) {
+        return (text.length() + 3) / 4;
+    }
+
+    @Override
+    public List<Content> aggregate(Map<Query, Collection<List<Content>>> queryToContents) {
+        Map<String, Content> unique = new LinkedHashMap<>();
+        for (Collection<List<Content>> lists : queryToContents.values()) {
+            for (List<Content> contents : lists) {
+                for (Content content : contents) {
+                    unique.putIfAbsent(content.textSegment().text(), content);
+                }
+            }
+        }
+        if (unique.isEmpty()) {
+            return List.of();
+        }
+        List<Content> candidates = new ArrayList<>(unique.values());
+        List<float[]> vectors = embed(candidates);
+        List<float[]> queries = new ArrayList<>();
+        for (Query query : queryToContents.keySet()) {
+            queries.add(normalized(queryEmbeddingModel.embed(query.text()).content()));
+        }
+
+        int n = candidates.size();
+        double[] relevance = new double[n];
+        int[] tokens = new int[n];
+        int retrieved = 0;
+        for (int i = 0; i < n; i++) {
+            relevance[i] = Double.NEGATIVE_INFINITY;
+            for (float[] query : queries) {
+                relevance[i] = Math.max(relevance[i], dot(query, vectors.get(i)));
+            }
+            tokens[i] = tokenCounter.applyAsInt(candidates.get(i).textSegment().text());
+            retrieved += tokens[i];
+        }
+
+        // MMR : maxSimilarity[i] = similarité maximale entre i et les contenus déjà choisis.
+        double[] maxSimilarity = new double[n];
+        boolean[] done = new boolean[n];
+        List<Integer> selected = new ArrayList<>();
+        int budget = maxTokens;
+        while (true) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                if (done[i]) {
+                    continue;
+                }
+                if (!selected.isEmpty() && maxSimilarity[i] >= duplicateThreshold) {
+                    done[i] = true;
+                    duplicates.increment();
+                    continue;
+                }
+                if (tokens[i] > budget) {
+                    continue;
+                }
+                double score = lambda * relevance[i] - (1 - lambda) * (selected.isEmpty() ? 0 : maxSimilarity[i]);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            done[best] = true;
+            selected.add(best);
+            budget -= tokens[best];
+            for (int i = 0; i < n; i++) {
+                if (!done[i]) {
+                    maxSimilarity[i] = Math.max(maxSimilarity[i], dot(vectors.get(i), vectors.get(best)));
+                }
+            }
+        }
+
+        List<Content> packed = merge(candidates, selected);
+        int packedCount = 0;
+        for (Content content : packed) {
+            packedCount += tokenCounter.applyAsInt(content.textSegment().text());
+        }
+        turns.increment();
+        retrievedTokens.add(retrieved);
+        packedTokens.add(packedCount);
+        sink.record("rag_context_tokens", retrieved, "stage", "retrieved");
+        sink.record("rag_context_tokens", packedCount, "stage", "packed");
+        sink.record("rag_context_contents", n, "stage", "retrieved");
+        sink.record("rag_context_contents", packed.size(), "stage", "packed");
+        return packed;
+    }
+
+    // Vecteurs normalisés des contenus : ceux des documents ingérés relus du cache, les autres
+    // embeddés en un seul lot.
+    private List<float[]> embed(List<Content> candidates) {
+        float[][] vectors = new float[candidates.size()][];
+        List<TextSegment> missing = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            TextSegment segment = candidates.get(i).textSegment();
+            Embedding cached = cachedEmbeddings == null ? null : cachedEmbeddings.cached(segment.text());
+            if (cached != null) {
+                vectors[i] = normalized(cached);
+            } else {
+                missing.add(segment);
+                missingIndexes.add(i);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<Embedding> computed = contentEmbeddingModel.embedAll(missing).content();
+            for (int i = 0; i < computed.size(); i++) {
+                vectors[missingIndexes.get(i)] = normalized(computed.get(i));
+            }
+        }
+        reused.add(candidates.size() - missing.size());
+        embedded.add(missing.size());
+        return Arrays.asList(vectors);
+    }
+
+    public long turns() {
+        return turns.sum();
+    }
+
+    public long retrievedTokens() {
+        return retrievedTokens.sum();
+    }
+
+    public long packedTokens() {
+        return packedTokens.sum();
+    }
+
+    @Override
+    public String toString() {
+        long retrieved = retrievedTokens.sum();
+        return String.format("%d tours, %d tokens récupérés -> %d injectés (-%.0f %%), %d quasi-doublons écartés, "
+                        + "%d fusions de segments voisins, %d contenus relus du cache / %d embeddés", turns.sum(),
+                retrieved, packedTokens.sum(), retrieved == 0 ? 0 : 100.0 * (retrieved - packedTokens.sum()) / retrieved,
+                duplicates.sum(), merges.sum(), reused.sum(), embedded.sum());
+    }
+
+    // Regroupe les segments choisis par document ; dans chaque groupe, les index consécutifs
+    // forment un seul contenu. Les groupes gardent l'ordre MMR de leur meilleur segment,
+    // le texte fusionné l'ordre du document.
+    private List<Content> merge(List<Content> candidates, List<Integer> selected) {
+        Map<Object, List<Content>> groups = new LinkedHashMap<>();
+        for (int i : selected) {
+            Content content = candidates.get(i);
+            String source = index(content.textSegment()) == null ? null : source(content.textSegment());
+            groups.computeIfAbsent(source == null ? new Object() : source, k -> new ArrayList<>()).add(content);
+        }
+        List<Content> packed = new ArrayList<>(selected.size());
+        for (List<Content> group : groups.values()) {
+            if (group.size() == 1) {
+                packed.add(group.get(0));
+                continue;
+            }
+            group.sort(Comparator.comparing(content -> index(content.textSegment())));
+            TextSegment current = group.get(0).textSegment();
+            int lastIndex = index(current);
+            for (Content content : group.subList(1, group.size())) {
+                TextSegment segment = content.textSegment();
+                int index = index(segment);
+                if (index == lastIndex + 1) {
+                    current = TextSegment.from(concat(current.text(), segment.text()), current.metadata());
+                    merges.increment();
+                } else {
+                    packed.add(Content.from(current));
+                    current = segment;
+                }
+                lastIndex = index;
+            }
+            packed.add(Content.from(current));
+        }
+        return packed;
+    }
+
+    // Retire de b le plus long préfixe qui termine déjà a (le chevauchement du splitter).
+    private static String concat(String a, String b) {
+        int max = Math.min(MAX_OVERLAP_CHARS, Math.min(a.length(), b.length()));
+        for (int k = max; k >= 8; k--) {
+            if (a.regionMatches(a.length() - k, b, 0, k)) {
+                return a + b.substring(k);
+            }
+        }
+        return a + "\n" + b;
+    }
+
+    private static String source(TextSegment segment) {
+        Map<String, Object> metadata = segment.metadata().toMap();
+        Object url = metadata.get(URL);
+        if (url != null) {
+            return String.valueOf(url);
+        }
+        Object file = metadata.get(Document.FILE_NAME);
+        if (file == null) {
+            return null;
+        }
+        return metadata.get(Document.ABSOLUTE_DIRECTORY_PATH) + "/" + file + "#" + metadata.get(PdfPageReader.PAGE_NUMBER);
+    }
+
+    private static Integer index(TextSegment segment) {
+        Object index = segment.metadata().toMap().get(INDEX);
+        if (index == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(String.valueOf(index));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static List<float[]> normalized(List<Embedding> embeddings) {
+        List<float[]> vectors = new ArrayList<>(embeddings.size());
+        for (Embedding embedding : embeddings) {
+            vectors.add(normalized(embedding));
+        }
+        return vectors;
+    }
+
+    private static float[] normalized(Embedding embedding) {
+        float[] vector = embedding.vector().clone();
+        float norm = EmbeddingStoreSnapshot.norm(vector);
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= norm;
+            }
+        }
+        return vector;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+
+    public static class Builder {
+
+        private EmbeddingModel contentEmbeddingModel;
+        private CachingEmbeddingModel cachedEmbeddings;
+        private EmbeddingModel queryEmbeddingModel;
+        private int maxTokens = 1500;
+        private double lambda = 0.7;
+        private double duplicateThreshold = 0.95;
+        private ToIntFunction<String> tokenCounter = ContextPacker::estimateTokens;
+        private MetricsSink sink = MetricsSink.NONE;
+
+        /**
+         * Modèle qui fournit les embeddings des contenus absents de cachedEmbeddings, de
+         * préférence un QueryEmbeddingCache sur le modèle brut : pas de cache sur disque, que
+         * les résultats web rempliraient.
+         */
+        public Builder contentEmbeddingModel(EmbeddingModel contentEmbeddingModel) {
+            this.contentEmbeddingModel = contentEmbeddingModel;
+            return this;
+        }
+
+        /**
+         * Cache qui a servi à l'ingestion des documents, consulté en lecture seule : leurs
+         * segments ne sont pas ré-embeddés à chaque tour (optionnel).
+         */
+        public Builder cachedEmbeddings(CachingEmbeddingModel cachedEmbeddings) {
+            this.cachedEmbeddings = cachedEmbeddings;
+            return this;
+        }
+
+        /**
+         * Modèle qui fournit l'embedding de la question, de préférence le QueryEmbeddingCache
+         * des retrievers.
+         */
+        public Builder queryEmbeddingModel(EmbeddingModel queryEmbeddingModel) {
+            this.queryEmbeddingModel = queryEmbeddingModel;
+            return this;
+        }
+
+        /**
+         * Budget de tokens du contexte injecté (1500).
+         */
+        public Builder maxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        /**
+         * Compromis pertinence / diversité de MMR, entre 0 et 1 (0.7).
+         */
+        public Builder lambda(double lambda) {
+            this.lambda = lambda;
+            return this;
+        }
+
+        /**
+         * Similarité cosinus à partir de laquelle un contenu est un quasi-doublon d'un contenu
+         * déjà choisi (0.95).
+         */
+        public Builder duplicateThreshold(double duplicateThreshold) {
+            this.duplicateThreshold = duplicateThreshold;
+            return this;
+        }
+
+        /**
+         * Comptage des tokens d'un texte, {@link #estimateTokens} par défaut ; un
+         * TokenCountEstimator s'utilise via estimator::estimateTokenCountInText.
+         */
+        public Builder tokenCounter(ToIntFunction<String> tokenCounter) {
+            this.tokenCounter = tokenCounter;
+            return this;
+        }
+
+        public Builder metrics(MetricsSink sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        public ContextPacker build() {
+            if (contentEmbeddingModel == null || queryEmbeddingModel == null) {
+                throw new IllegalStateException("contentEmbeddingModel et queryEmbeddingModel sont obligatoires");
+            }
+            if (maxTokens < 1 || lambda < 0 || lambda > 1) {
+                throw new IllegalArgumentException("maxTokens doit être >= 1 et lambda entre 0 et 1");
+            }
+            return new ContextPacker(this);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryRouter local, sans appel LLM : alternative à LanguageModelQueryRouter qui prend
+ * la même map retriever → description.
+ * <p>
+ * Au démarrage, la description de chaque retriever et ses éventuelles requêtes d'exemple
+ * sont embeddées une seule fois, puis moyennées en un centroïde normalisé. À chaque
+ * requête, seul l'embedding de la question est calculé : on route vers le centroïde le
+ * plus proche si sa similarité cosinus atteint minSimilarity. Si l'écart avec le deuxième
+ * est inférieur à ambiguityMargin, la décision est déléguée au fallbackRouter s'il existe
+ * (typiquement le LanguageModelQueryRouter d'origine), sinon on route vers les deux.
+ */
+public class EmbeddingQueryRouter implements QueryRouter {
+
+    private final EmbeddingModel embeddingModel;
+    private final List<ContentRetriever> retrievers;
+    private final float[][] centroids;
+    private final double minSimilarity;
+    private final double ambiguityMargin;
+    private final QueryRouter fallbackRouter;
+
+    private final AtomicLong localDecisions = new AtomicLong();
+    private final AtomicLong fallbackDecisions = new AtomicLong();
+
+    private EmbeddingQueryRouter(Builder builder) {
+        this.embeddingModel = builder.embeddingModel;
+        this.minSimilarity = builder.minSimilarity;
+        this.ambiguityMargin = builder.ambiguityMargin;
+        this.fallbackRouter = builder.fallbackRouter;
+        this.retrievers = new ArrayList<>(builder.retrieverToDescription.keySet());
+        this.centroids = new float[retrievers.size()][];
+
+        // Un seul appel embedAll pour toutes les descriptions et tous les exemples.
+        List<TextSegment> texts = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        for (int r = 0; r < retrievers.size(); r++) {
+            ContentRetriever retriever = retrievers.get(r);
+            texts.add(TextSegment.from(builder.retrieverToDescription.get(retriever)));
+            owners.add(r);
+            for (String example : builder.examples.getOrDefault(retriever, List.of())) {
+                texts.add(TextSegment.from(example));
+                owners.add(r);
+            }
+        }
+        List<Embedding> embeddings = embeddingModel.embedAll(texts).content();
+        for (int i = 0; i < embeddings.size(); i++) {
+            float[] vector = normalized(embeddings.get(i).vector());
+            int owner = owners.get(i);
+            if (centroids[owner] == null) {
+                centroids[owner] = new float[vector.length];
+            }
+            for (int d = 0; d < vector.length; d++) {
+                centroids[owner][d] += vector[d];
+            }
+        }
+        for (int r = 0; r < centroids.length; r++) {
+            centroids[r] = normalized(centroids[r]);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Collection<ContentRetriever> route(Query query) {
+        float[] vector = normalized(embeddingModel.embed(query.text()).content().vector());
+
+        int best = -1;
+        int second = -1;
+        double bestSimilarity = -1;
+        double secondSimilarity = -1;
+        for (int r = 0; r < centroids.length; r++) {
+            double similarity = dot(vector, centroids[r]);
+            if (similarity > bestSimilarity) {
+                second = best;
+                secondSimilarity = bestSimilarity;
+                best = r;
+                bestSimilarity = similarity;
+            } else if (similarity > secondSimilarity) {
+                second = r;
+                secondSimilarity = similarity;
+            }
+        }
+
+        boolean ambiguous = second >= 0 && secondSimilarity >= minSimilarity
+                && bestSimilarity - secondSimilarity < ambiguityMargin;
+        if (ambiguous || bestSimilarity < minSimilarity) {
+            if (fallbackRouter != null) {
+                fallbackDecisions.incrementAndGet();
+                return fallbackRouter.route(query);
+            }
+            localDecisions.incrementAndGet();
+            if (ambiguous) {
+                return List.of(retrievers.get(best), retrievers.get(second));
+            }
+            return Collections.emptyList();
+        }
+        localDecisions.incrementAndGet();
+        return Collections.singletonList(retrievers.get(best));
+    }
+
+    /**
+     * Nombre de requêtes routées sans appel au routeur de secours.
+     */
+    public long localDecisions() {
+        return localDecisions.get();
+    }
+
+    public long fallbackDecisions() {
+        return fallbackDecisions.get();
+    }
+
+    private static float[] normalized(float[] vector) {
+        float norm = EmbeddingStoreSnapshot.norm(vector);
+        float[] result = new float[vector.length];
+        for (int d = 0; d < vector.length; d++) {
+            result[d] = norm == 0 ? 0 : vector[d] / norm;
+        }
+        return result;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double dot = 0;
+        for (int d = 0; d < a.length; d++) {
+            dot += a[d] * b[d];
+        }
+        return dot;
+    }
+
+    public static class Builder {
+
+        private EmbeddingModel embeddingModel;
+        private Map<ContentRetriever, String> retrieverToDescription;
+        private final Map<ContentRetriever, List<String>> examples = new LinkedHashMap<>();
+        private double minSimilarity = 0.3;
+        private double ambiguityMargin = 0.02;
+        private QueryRouter fallbackRouter;
+
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /**
+         * La même map que celle passée à LanguageModelQueryRouter.
+         */
+        public Builder retrieverToDescription(Map<ContentRetriever, String> retrieverToDescription) {
+            this.retrieverToDescription = retrieverToDescription;
+            return this;
+        }
+
+        /**
+         * Requêtes d'exemple typiques d'un retriever, ajoutées à son centroïde.
+         */
+        public Builder examples(ContentRetriever retriever, List<String> exampleQueries) {
+            this.examples.put(retriever, exampleQueries);
+            return this;
+        }
+
+        /**
+         * Similarité cosinus minimale avec le centroïde retenu ; en dessous, la requête
+         * n'est routée nulle part (ou confiée au routeur de secours).
+         */
+        public Builder minSimilarity(double minSimilarity) {
+            this.minSimilarity = minSimilarity;
+            return this;
+        }
+
+        /**
+         * Écart minimal entre les deux meilleurs centroïdes pour que la décision soit prise localement.
+         */
+        public Builder ambiguityMargin(double ambiguityMargin) {
+            this.ambiguityMargin = ambiguityMargin;
+            return this;
+        }
+
+        public Builder fallbackRouter(QueryRouter fallbackRouter) {
+            this.fallbackRouter = fallbackRouter;
+            return this;
+        }
+
+        public EmbeddingQueryRouter build() {
+            if (embeddingModel == null || retrieverToDescription == null || retrieverToDescription.isEmpty()) {
+                throw new IllegalStateException("embeddingModel et retrieverToDescription sont obligatoires");
+            }
+            return new EmbeddingQueryRouter(this);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Format binaire compact pour sauvegarder un EmbeddingStore entièrement ingéré
+ * et le recharger sans repasser par Tika, le splitter et le modèle d'embedding.
+ * <p>
+ * Disposition du fichier (big-endian, chaînes en longueur int32 + UTF-8) :
+ * <pre>
+ * magic, version
+ * en-tête   : modèle, dimension, config du splitter, sommes SHA-256 des sources
+ * count     : nombre d'entrées
+ * vecteurs  : count x dimension float32 contigus
+ * normes    : count x float32
+ * offsets   : count x int64, position de chaque entrée de la table annexe
+ * table     : id, texte et métadonnées de chaque segment
+ * </pre>
+ * Le chargement ({@link #load(Path)}) mappe le fichier en mémoire et renvoie un
+ * {@link MappedEmbeddingStore} qui lit les vecteurs directement dans le mapping.
+ * Un snapshot ne peut donc pas dépasser 2 Go (environ 650 000 vecteurs de 768 dimensions) :
+ * write refuse de l'écrire et load de le charger.
+ */
+public final class EmbeddingStoreSnapshot {
+
+    static final int MAGIC = 0x534E4150; // "SNAP"
+    static final int VERSION = 2;
+    // Le snapshot est mappé d'un seul tenant : ses positions doivent tenir dans un int.
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_UUID = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_DOUBLE = 5;
+
+    private EmbeddingStoreSnapshot() {
+    }
+
+    /**
+     * En-tête d'un snapshot : ce qui doit correspondre pour que le snapshot soit réutilisable.
+     *
+     * @param sourceChecksums Nom de fichier source → SHA-256 hexadécimal de son contenu.
+     */
+    public record Header(String modelName, int dimension, String splitterConfig, Map<String, String> sourceChecksums) {
+    }
+
+    /**
+     * Calcule l'en-tête attendu pour un ensemble de fichiers sources.
+     */
+    public static Header expectedHeader(String modelName, int dimension, String splitterConfig, List<Path> sources) {
+        Map<String, String> checksums = new LinkedHashMap<>();
+        for (Path source : sources) {
+            checksums.put(source.getFileName().toString(), sha256(source));
+        }
+        return new Header(modelName, dimension, splitterConfig, checksums);
+    }
+
+    /**
+     * Indique si le snapshot existe et a été produit avec le même modèle, le même
+     * splitter et les mêmes fichiers sources. La dimension n'est pas comparée quand
+     * l'en-tête attendu la laisse à 0 (inconnue avant le premier appel au modèle).
+     */
+    public static boolean isUpToDate(Path snapshot, Header expected) {
+        if (!Files.exists(snapshot)) {
+            return false;
+        }
+        Header actual;
+        try {
+            actual = readHeader(snapshot);
+        } catch (RuntimeException e) {
+            return false;
+        }
+        return actual.modelName().equals(expected.modelName())
+                && (expected.dimension() == 0 || actual.dimension() == expected.dimension())
+                && actual.splitterConfig().equals(expected.splitterConfig())
+                && actual.sourceChecksums().equals(expected.sourceChecksums());
+    }
+
+    public static Header readHeader(Path snapshot) {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            checkMagic(buffer, snapshot);
+            return readHeader(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lecture du snapshot impossible : " + snapshot, e);
+        }
+    }
+
+    /**
+     * Écrit un snapshot de façon atomique (fichier temporaire puis renommage).
+     */
+    public static void write(Path snapshot, Header header, List<String> ids,
+                             List<Embedding> embeddings, List<TextSegment> segments) {
+        int count = ids.size();
+        int dimension = header.dimension();
+        try {
+            if (snapshot.getParent() != null) {
+                Files.createDirectories(snapshot.getParent());
+            }
+            // Les tailles de la table annexe ne sont connues qu'après encodage : on l'encode d'abord en mémoire.
+            List<byte[]> entries = new ArrayList<>(count);
+            long entriesSize = 0;
+            for (int i = 0; i < count; i++) {
+                byte[] entry = encodeEntry(ids.get(i), segments.get(i));
+                entries.add(entry);
+                entriesSize += entry.length;
+            }
+            long headerSize = 6L * Integer.BYTES + utf8Length(header.modelName()) + Integer.BYTES
+                    + utf8Length(header.splitterConfig()) + Float.BYTES;
+            for (Map.Entry<String, String> source : header.sourceChecksums().entrySet()) {
+                headerSize += 2L * Integer.BYTES + utf8Length(source.getKey()) + utf8Length(source.getValue());
+            }
+            long size = headerSize + (long) count * dimension * Float.BYTES
+                    + (long) count * (Float.BYTES + Long.BYTES) + entriesSize;
+            if (size > MAX_SIZE) {
+                throw new IllegalArgumentException("Snapshot trop volumineux (> 2 Go) : " + count + " vecteurs de "
+                        + dimension + " dimensions");
+            }
+
+            Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, header.modelName());
+                out.writeInt(dimension);
+                writeString(out, header.splitterConfig());
+                out.writeInt(header.sourceChecksums().size());
+                for (Map.Entry<String, String> source : header.sourceChecksums().entrySet()) {
+                    writeString(out, source.getKey());
+                    writeString(out, source.getValue());
+                }
+                out.writeInt(count);
+                // Alignement sur 4 octets pour que la vue FloatBuffer du loader soit alignée.
+                while (out.size() % Float.BYTES != 0) {
+                    out.writeByte(0);
+                }
+                for (Embedding embedding : embeddings) {
+                    float[] vector = embedding.vector();
+                    if (vector.length != dimension) {
+                        throw new IllegalArgumentException("Dimension " + vector.length + " != " + dimension);
+                    }
+                    for (float value : vector) {
+                        out.writeFloat(value);
+                    }
+                }
+                for (Embedding embedding : embeddings) {
+                    out.writeFloat(norm(embedding.vector()));
+                }
+                long tableStart = out.size() + (long) count * Long.BYTES;
+                long position = tableStart;
+                for (byte[] entry : entries) {
+                    out.writeLong(position);
+                    position += entry.length;
+                }
+                for (byte[] entry : entries) {
+                    out.write(entry);
+                }
+            }
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Écriture du snapshot impossible : " + snapshot, e);
+        }
+    }
+
+    /**
+     * Mappe le snapshot en mémoire et renvoie un store en lecture seule servi depuis ce mapping.
+     */
+    public static MappedEmbeddingStore load(Path snapshot) {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (channel.size() > MAX_SIZE) {
+                throw new IllegalStateException("Snapshot trop volumineux (> 2 Go) : " + snapshot);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            checkMagic(buffer, snapshot);
+            Header header = readHeader(buffer);
+            int count = buffer.getInt();
+            while (buffer.position() % Float.BYTES != 0) {
+                buffer.get();
+            }
+            long vectorsOffset = buffer.position();
+            long normsOffset = vectorsOffset + (long) count * header.dimension() * Float.BYTES;
+            long offsetsOffset = normsOffset + (long) count * Float.BYTES;
+            if (count < 0 || header.dimension() < 0 || offsetsOffset + (long) count * Long.BYTES > buffer.limit()) {
+                throw new IllegalStateException("Snapshot tronqué ou invalide : " + snapshot);
+            }
+            return new MappedEmbeddingStore(header, buffer, count, (int) vectorsOffset, (int) normsOffset,
+                    (int) offsetsOffset);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Chargement du snapshot impossible : " + snapshot, e);
+        }
+    }
+
+    static String sha256(Path file) {
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), MessageDigest.getInstance("SHA-256"))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return HexFormat.of().formatHex(((DigestInputStream) in).getMessageDigest().digest());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Calcul du checksum impossible : " + file, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static float norm(float[] vector) {
+        double sum = 0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    /**
+     * Décode l'entrée de la table annexe située à la position donnée.
+     */
+    static TextSegment readSegment(ByteBuffer buffer, int position) {
+        ByteBuffer in = buffer.duplicate().position(position);
+        readString(in); // id
+        String text = readString(in);
+        int size = in.getInt();
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            byte type = in.get();
+            Object value = switch (type) {
+                case TYPE_STRING -> readString(in);
+                case TYPE_UUID -> new UUID(in.getLong(), in.getLong());
+                case TYPE_INTEGER -> in.getInt();
+                case TYPE_LONG -> in.getLong();
+                case TYPE_FLOAT -> in.getFloat();
+                case TYPE_DOUBLE -> in.getDouble();
+                default -> throw new IllegalStateException("Type de métadonnée inconnu : " + type);
+            };
+            metadata.put(key, value);
+        }
+        return TextSegment.from(text, Metadata.from(metadata));
+    }
+
+    static String readId(ByteBuffer buffer, int position) {
+        return readString(buffer.duplicate().position(position));
+    }
+
+    static byte[] encodeEntry(String id, TextSegment segment) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, id);
+        writeString(out, segment.text());
+        Map<String, Object> metadata = segment.metadata().toMap();
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            writeString(out, entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof String s) {
+                out.writeByte(TYPE_STRING);
+                writeString(out, s);
+            } else if (value instanceof UUID uuid) {
+                out.writeByte(TYPE_UUID);
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+            } else if (value instanceof Integer n) {
+                out.writeByte(TYPE_INTEGER);
+                out.writeInt(n);
+            } else if (value instanceof Long n) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong(n);
+            } else if (value instanceof Float n) {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat(n);
+            } else if (value instanceof Double n) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(n);
+            } else {
+                throw new IllegalArgumentException("Type de métadonnée non supporté : " + value.getClass());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Header readHeader(ByteBuffer buffer) {
+        String modelName = readString(buffer);
+        int dimension = buffer.getInt();
+        String splitterConfig = readString(buffer);
+        int sources = buffer.getInt();
+        Map<String, String> checksums = new LinkedHashMap<>();
+        for (int i = 0; i < sources; i++) {
+            checksums.put(readString(buffer), readString(buffer));
+        }
+        return new Header(modelName, dimension, splitterConfig, checksums);
+    }
+
+    private static void checkMagic(ByteBuffer buffer, Path snapshot) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IllegalStateException("Snapshot invalide ou de version incompatible : " + snapshot);
+        }
+    }
+
+    /**
+     * Décorateur qui transmet les ajouts à un store réel tout en gardant une copie
+     * des entrées, pour pouvoir écrire un snapshot à la fin d'une ingestion faite
+     * avec EmbeddingStoreIngestor.
+     */
+    public static class Recorder implements EmbeddingStore<TextSegment> {
+
+        private final EmbeddingStore<TextSegment> delegate;
+        private final List<String> ids = new ArrayList<>();
+        private final List<Embedding> embeddings = new ArrayList<>();
+        private final List<TextSegment> segments = new ArrayList<>();
+
+        public Recorder(EmbeddingStore<TextSegment> delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Écrit les entrées enregistrées ; la dimension de l'en-tête est déduite des vecteurs.
+         */
+        public synchronized void writeSnapshot(Path snapshot, Header header) {
+            int dimension = embeddings.isEmpty() ? header.dimension() : embeddings.get(0).dimension();
+            Header complete = new Header(header.modelName(), dimension, header.splitterConfig(), header.sourceChecksums());
+            EmbeddingStoreSnapshot.write(snapshot, complete, ids, embeddings, segments);
+        }
+
+        @Override
+        public String add(Embedding embedding) {
+            throw new UnsupportedOperationException("Le snapshot ne stocke que des segments");
+        }
+
+        @Override
+        public void add(String id, Embedding embedding) {
+            throw new UnsupportedOperationException("Le snapshot ne stocke que des segments");
+        }
+
+        @Override
+        public String add(Embedding embedding, TextSegment segment) {
+            String id = generateIds(1).get(0);
+            addAll(List.of(id), List.of(embedding), List.of(segment));
+            return id;
+        }
+
+        @Override
+        public List<String> addAll(List<Embedding> embeddings) {
+            throw new UnsupportedOperationException("Le snapshot ne stocke que des segments");
+        }
+
+        @Override
+        public synchronized void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+            delegate.addAll(ids, embeddings, segments);
+            this.ids.addAll(ids);
+            this.embeddings.addAll(embeddings);
+            this.segments.addAll(segments);
+        }
+
+        @Override
+        public void removeAll(Collection<String> ids) {
+            throw new UnsupportedOperationException("Suppression non supportée pendant l'enregistrement");
+        }
+
+        @Override
+        public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+            return delegate.search(request);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ContentRetriever composite qui interroge plusieurs retrievers en parallèle, chacun
+ * avec sa propre échéance : on renvoie ce qui est arrivé à temps, les appels en retard
+ * sont annulés et leurs résultats ignorés.
+ * <p>
+ * Mode « local d'abord » : un retriever de secours (typiquement la recherche web) n'est
+ * utilisé que si le meilleur score des retrievers principaux est inférieur à
+ * fallbackBelowScore. En mode spéculatif, il est lancé en même temps que les autres
+ * et annulé s'il s'avère inutile ; sinon (par défaut) il n'est lancé qu'après coup.
+ * <p>
+ * Chaque retriever a ses compteurs (appels, échéances dépassées, erreurs, ignorés) et
+ * envoie au MetricsSink, avec le label retriever :
+ * <ul>
+ *     <li>rag_fanout_calls{retriever,outcome} : une observation par appel, outcome = ok,
+ *     empty, timeout, error ou skipped (secours évité ou annulé) ;</li>
+ *     <li>rag_fanout_seconds : durée des appels terminés à temps.</li>
+ * </ul>
+ */
+public class FanOutContentRetriever implements ContentRetriever {
+
+    private final List<Target> primaries;
+    private final Target fallback;
+    private final double fallbackBelowScore;
+    private final boolean speculativeFallback;
+    private final MetricsSink sink;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private FanOutContentRetriever(Builder builder) {
+        this.primaries = List.copyOf(builder.primaries);
+        this.fallback = builder.fallback;
+        this.fallbackBelowScore = builder.fallbackBelowScore;
+        this.speculativeFallback = builder.speculativeFallback;
+        this.sink = builder.sink;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        List<Future<List<Content>>> futures = new ArrayList<>(primaries.size());
+        long start = System.nanoTime();
+        for (Target target : primaries) {
+            futures.add(executor.submit(() -> target.retriever.retrieve(query)));
+        }
+        Future<List<Content>> fallbackFuture = null;
+        long fallbackStart = 0;
+        if (fallback != null && speculativeFallback) {
+            fallbackStart = System.nanoTime();
+            fallbackFuture = executor.submit(() -> fallback.retriever.retrieve(query));
+        }
+
+        List<Content> contents = new ArrayList<>();
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < primaries.size(); i++) {
+            List<Content> result = await(primaries.get(i), futures.get(i), start);
+            for (Content content : result) {
+                Object score = content.metadata().get(ContentMetadata.SCORE);
+                // Un contenu sans score (ex. web) compte comme suffisamment pertinent.
+                bestScore = Math.max(bestScore, score instanceof Number n ? n.doubleValue() : 1.0);
+            }
+            contents.addAll(result);
+        }
+
+        if (fallback != null) {
+            if (bestScore < fallbackBelowScore) {
+                if (fallbackFuture == null) {
+                    fallbackStart = System.nanoTime();
+                    fallbackFuture = executor.submit(() -> fallback.retriever.retrieve(query));
+                }
+                contents.addAll(await(fallback, fallbackFuture, fallbackStart));
+            } else {
+                fallback.skipped.incrementAndGet();
+                sink.record("rag_fanout_calls", 1, "retriever", fallback.name, "outcome", "skipped");
+                if (fallbackFuture != null) {
+                    fallbackFuture.cancel(true);
+                }
+            }
+        }
+        return contents;
+    }
+
+    public List<Target> targets() {
+        List<Target> targets = new ArrayList<>(primaries);
+        if (fallback != null) {
+            targets.add(fallback);
+        }
+        return targets;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Target target : targets()) {
+            text.append(target).append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    private List<Content> await(Target target, Future<List<Content>> future, long start) {
+        target.calls.incrementAndGet();
+        long remaining = target.deadline.toNanos() - (System.nanoTime() - start);
+        try {
+            List<Content> result = future.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+            long nanos = System.nanoTime() - start;
+            target.totalNanos.addAndGet(nanos);
+            if (result.isEmpty()) {
+                target.empty.incrementAndGet();
+            }
+            sink.record("rag_fanout_calls", 1, "retriever", target.name, "outcome", result.isEmpty() ? "empty" : "ok");
+            sink.record("rag_fanout_seconds", nanos / 1e9, "retriever", target.name);
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            target.timeouts.incrementAndGet();
+            sink.record("rag_fanout_calls", 1, "retriever", target.name, "outcome", "timeout");
+        } catch (ExecutionException e) {
+            target.failures.incrementAndGet();
+            sink.record("rag_fanout_calls", 1, "retriever", target.name, "outcome", "error");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+        return List.of();
+    }
+
+    /**
+     * Un retriever, son échéance et ses compteurs.
+     */
+    public static final class Target {
+
+        private final String name;
+        private final ContentRetriever retriever;
+        private final Duration deadline;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong empty = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private Target(String name, ContentRetriever retriever, Duration deadline) {
+            this.name = name;
+            this.retriever = retriever;
+            this.deadline = deadline;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long calls() {
+            return calls.get();
+        }
+
+        public long timeouts() {
+            return timeouts.get();
+        }
+
+        public long failures() {
+            return failures.get();
+        }
+
+        /**
+         * Appels terminés à temps mais sans aucun contenu.
+         */
+        public long emptyResults() {
+            return empty.get();
+        }
+
+        /**
+         * Appels de secours évités (ou annulés) parce que les retrievers principaux suffisaient.
+         */
+        public long skipped() {
+            return skipped.get();
+        }
+
+        @Override
+        public String toString() {
+            long completed = calls.get() - timeouts.get() - failures.get();
+            return String.format("%s : %d appels, %d hors délai, %d erreurs, %d vides, %d évités, %.0f ms en moyenne",
+                    name, calls.get(), timeouts.get(), failures.get(), empty.get(), skipped.get(),
+                    completed == 0 ? 0.0 : totalNanos.get() / 1e6 / completed);
+        }
+    }
+
+    public static class Builder {
+
+        private final List<Target> primaries = new ArrayList<>();
+        private Target fallback;
+        private double fallbackBelowScore = 1.0;
+        private boolean speculativeFallback;
+        private MetricsSink sink = MetricsSink.NONE;
+
+        /**
+         * Ajoute un retriever interrogé à chaque requête, avec son échéance.
+         */
+        public Builder retriever(String name, ContentRetriever retriever, Duration deadline) {
+            primaries.add(new Target(name, retriever, deadline));
+            return this;
+        }
+
+        /**
+         * Retriever consulté seulement si le meilleur score des principaux est inférieur à belowScore
+         * (score au sens de ContentMetadata.SCORE, comme minScore).
+         */
+        public Builder fallbackRetriever(String name, ContentRetriever retriever, Duration deadline, double belowScore) {
+            this.fallback = new Target(name, retriever, deadline);
+            this.fallbackBelowScore = belowScore;
+            return this;
+        }
+
+        /**
+         * Lance le retriever de secours en parallèle des principaux plutôt qu'après eux :
+         * moins de latence quand il sert, un appel gaspillé (annulé) quand il ne sert pas.
+         */
+        public Builder speculativeFallback(boolean speculativeFallback) {
+            this.speculativeFallback = speculativeFallback;
+            return this;
+        }
+
+        public Builder metrics(MetricsSink sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        public FanOutContentRetriever build() {
+            if (primaries.isEmpty()) {
+                throw new IllegalStateException("Au moins un retriever principal est requis");
+            }
+            return new FanOutContentRetriever(this);
+        }
+    }
+}
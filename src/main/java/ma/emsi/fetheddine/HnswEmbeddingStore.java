@@ -0,0 +1,747 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EmbeddingStore approximatif basé sur un graphe HNSW (Hierarchical Navigable Small World).
+ * <p>
+ * Paramètres :
+ * <ul>
+ *     <li>m : nombre de voisins par nœud (2m sur la couche 0) ;</li>
+ *     <li>efConstruction : largeur de la recherche lors des insertions ;</li>
+ *     <li>efSearch : largeur de la recherche lors des requêtes, modifiable à chaud.</li>
+ * </ul>
+ * Les insertions sont incrémentales (on peut chercher pendant l'ingestion) ; les
+ * suppressions marquent le nœud comme supprimé sans toucher au graphe, et la recherche
+ * élargit son faisceau en proportion des nœuds supprimés pour rendre quand même maxResults
+ * résultats. Le graphe est reconstruit sans eux quand ils deviennent majoritaires, ou à la
+ * demande avec {@link #compact()}. Une recherche avec filtre de métadonnées fait un scan
+ * exact des entrées actives : filtrer après le faisceau perdrait les résultats que le
+ * graphe n'a pas visités.
+ * <p>
+ * Le graphe complet se sauvegarde avec {@link #save(Path)} et se recharge avec
+ * {@link #load(Path)}. Les scores suivent la convention d'InMemoryEmbeddingStore.
+ */
+public class HnswEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int COMPACTION_THRESHOLD = 1024;
+    // Tableaux de visite gardés entre deux recherches : un par recherche simultanée, dans la
+    // limite des cœurs, au lieu d'un par thread (virtuel) qui a cherché un jour.
+    private static final int POOLED_VISITED = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+    private volatile int efSearch;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> indexById = new HashMap<>();
+    private final BlockingQueue<Visited> visitedPool = new ArrayBlockingQueue<>(POOLED_VISITED);
+
+    private float[] vectors;
+    private float[] norms = new float[0];
+    private String[] ids = new String[0];
+    private TextSegment[] segments = new TextSegment[0];
+    private boolean[] deleted = new boolean[0];
+    // links[nœud][couche] = voisins, le premier élément étant leur nombre.
+    private int[][][] links = new int[0][][];
+    private int dimension;
+    private int size;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private HnswEmbeddingStore(Builder builder) {
+        this.m = builder.m;
+        this.maxM0 = 2 * builder.m;
+        this.efConstruction = builder.efConstruction;
+        this.efSearch = builder.efSearch;
+        this.levelMultiplier = 1 / Math.log(builder.m);
+        this.random = new Random(builder.seed);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    /**
+     * Nombre d'entrées actives (hors suppressions).
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return indexById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = generateIds(embeddings.size());
+        addAll(ids, embeddings, null);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < embeddings.size(); i++) {
+                insert(ids.get(i), embeddings.get(i).vector(), segments == null ? null : segments.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                Integer node = indexById.remove(id);
+                if (node != null) {
+                    markDeleted(node);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int node = 0; node < size; node++) {
+                if (!deleted[node] && segments[node] != null && filter.test(segments[node].metadata())) {
+                    indexById.remove(this.ids[node]);
+                    markDeleted(node);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            indexById.clear();
+            vectors = null;
+            norms = new float[0];
+            ids = new String[0];
+            segments = new TextSegment[0];
+            deleted = new boolean[0];
+            links = new int[0][][];
+            size = 0;
+            deletedCount = 0;
+            entryPoint = -1;
+            maxLevel = -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = request.queryEmbedding().vector().clone();
+        float queryNorm = EmbeddingStoreSnapshot.norm(query);
+        if (queryNorm == 0) {
+            return new EmbeddingSearchResult<>(List.of());
+        }
+        for (int d = 0; d < query.length; d++) {
+            query[d] /= queryNorm;
+        }
+        double minCosine = 2 * request.minScore() - 1;
+        Filter filter = request.filter();
+
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || indexById.isEmpty()) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            List<Candidate> candidates = filter == null
+                    ? approximate(query, request.maxResults())
+                    : exact(query, request.maxResults(), filter);
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(request.maxResults());
+            for (Candidate candidate : candidates) {
+                if (matches.size() == request.maxResults() || candidate.similarity() < minCosine) {
+                    break;
+                }
+                int node = candidate.node();
+                if (deleted[node]) {
+                    continue;
+                }
+                matches.add(new EmbeddingMatch<>(RelevanceScore.fromCosineSimilarity(candidate.similarity()),
+                        ids[node], embedding(node), segments[node]));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reconstruit le graphe avec les seules entrées actives, pour rendre la place et le temps
+     * de recherche pris par les nœuds supprimés.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            rebuild();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sauvegarde le graphe, les vecteurs et les segments de façon atomique.
+     */
+    public void save(Path file) {
+        lock.readLock().lock();
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(m);
+                out.writeInt(efConstruction);
+                out.writeInt(efSearch);
+                out.writeInt(dimension);
+                out.writeInt(size);
+                out.writeInt(entryPoint);
+                out.writeInt(maxLevel);
+                for (int node = 0; node < size; node++) {
+                    out.writeBoolean(deleted[node]);
+                    out.writeFloat(norms[node]);
+                    for (int d = 0; d < dimension; d++) {
+                        out.writeFloat(vectors[node * dimension + d]);
+                    }
+                    out.writeBoolean(segments[node] != null);
+                    if (segments[node] != null) {
+                        byte[] entry = EmbeddingStoreSnapshot.encodeEntry(ids[node], segments[node]);
+                        out.writeInt(entry.length);
+                        out.write(entry);
+                    } else {
+                        out.writeUTF(ids[node]);
+                    }
+                    out.writeInt(links[node].length);
+                    for (int[] level : links[node]) {
+                        out.writeInt(level[0]);
+                        for (int i = 1; i <= level[0]; i++) {
+                            out.writeInt(level[i]);
+                        }
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Sauvegarde de l'index HNSW impossible : " + file, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static HnswEmbeddingStore load(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException("Index HNSW invalide ou de version incompatible : " + file);
+            }
+            HnswEmbeddingStore store = builder()
+                    .m(in.readInt())
+                    .efConstruction(in.readInt())
+                    .efSearch(in.readInt())
+                    .build();
+            store.dimension = in.readInt();
+            int size = in.readInt();
+            store.entryPoint = in.readInt();
+            store.maxLevel = in.readInt();
+            // Un index vide garde vectors à null : la dimension sera celle du premier ajout.
+            if (size > 0) {
+                store.allocate(size);
+            }
+            for (int node = 0; node < size; node++) {
+                store.deleted[node] = in.readBoolean();
+                store.norms[node] = in.readFloat();
+                for (int d = 0; d < store.dimension; d++) {
+                    store.vectors[node * store.dimension + d] = in.readFloat();
+                }
+                if (in.readBoolean()) {
+                    byte[] entry = new byte[in.readInt()];
+                    in.readFully(entry);
+                    store.ids[node] = EmbeddingStoreSnapshot.readId(ByteBuffer.wrap(entry), 0);
+                    store.segments[node] = EmbeddingStoreSnapshot.readSegment(ByteBuffer.wrap(entry), 0);
+                } else {
+                    store.ids[node] = in.readUTF();
+                }
+                int levels = in.readInt();
+                store.links[node] = new int[levels][];
+                for (int level = 0; level < levels; level++) {
+                    int count = in.readInt();
+                    int[] neighbours = new int[(level == 0 ? store.maxM0 : store.m) + 1];
+                    neighbours[0] = count;
+                    for (int i = 1; i <= count; i++) {
+                        neighbours[i] = in.readInt();
+                    }
+                    store.links[node][level] = neighbours;
+                }
+                if (store.deleted[node]) {
+                    store.deletedCount++;
+                } else {
+                    store.indexById.put(store.ids[node], node);
+                }
+            }
+            store.size = size;
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Chargement de l'index HNSW impossible : " + file, e);
+        }
+    }
+
+    private void insert(String id, float[] vector, TextSegment segment) {
+        if (vectors == null) {
+            dimension = vector.length;
+            allocate(INITIAL_CAPACITY);
+        }
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Dimension " + vector.length + " != " + dimension);
+        }
+        // Un id déjà présent est remplacé : l'ancien nœud reste dans le graphe, marqué supprimé.
+        Integer previous = indexById.get(id);
+        if (previous != null) {
+            markDeleted(previous);
+        }
+        float norm = EmbeddingStoreSnapshot.norm(vector);
+        float inverse = norm == 0 ? 0 : 1 / norm;
+        float[] normalized = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            normalized[d] = vector[d] * inverse;
+        }
+        link(id, normalized, norm, segment);
+        compactIfNeeded();
+    }
+
+    // Ajoute au graphe un vecteur déjà normalisé.
+    private void link(String id, float[] query, float norm, TextSegment segment) {
+        if (size == ids.length) {
+            allocate(ids.length * 2);
+        }
+
+        int node = size++;
+        System.arraycopy(query, 0, vectors, node * dimension, dimension);
+        norms[node] = norm;
+        ids[node] = id;
+        segments[node] = segment;
+        indexById.put(id, node);
+
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[(l == 0 ? maxM0 : m) + 1];
+        }
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int current = greedyDescent(query, entryPoint, maxLevel, level + 1);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(query, current, efConstruction, l);
+            int[] selected = selectNeighbours(candidates, m);
+            for (int neighbour : selected) {
+                connect(node, neighbour, l);
+                connect(neighbour, node, l);
+            }
+            current = candidates.get(0).node();
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    private void markDeleted(int node) {
+        if (!deleted[node]) {
+            deleted[node] = true;
+            deletedCount++;
+        }
+    }
+
+    // Reconstruit le graphe une fois les nœuds supprimés majoritaires, comme Bm25Index.
+    private void compactIfNeeded() {
+        if (deletedCount >= COMPACTION_THRESHOLD && deletedCount >= indexById.size()) {
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        if (deletedCount == 0) {
+            return;
+        }
+        float[] oldVectors = vectors;
+        float[] oldNorms = norms;
+        String[] oldIds = ids;
+        TextSegment[] oldSegments = segments;
+        boolean[] oldDeleted = deleted;
+        int oldSize = size;
+        int live = indexById.size();
+
+        indexById.clear();
+        vectors = null;
+        norms = new float[0];
+        ids = new String[0];
+        segments = new TextSegment[0];
+        deleted = new boolean[0];
+        links = new int[0][][];
+        size = 0;
+        deletedCount = 0;
+        entryPoint = -1;
+        maxLevel = -1;
+        allocate(Math.max(live, 1));
+        for (int node = 0; node < oldSize; node++) {
+            if (!oldDeleted[node]) {
+                link(oldIds[node], Arrays.copyOfRange(oldVectors, node * dimension, (node + 1) * dimension),
+                        oldNorms[node], oldSegments[node]);
+            }
+        }
+    }
+
+    // Recherche dans le graphe ; le faisceau est élargi en proportion des nœuds supprimés,
+    // puis doublé tant qu'il ne rend pas assez d'entrées actives.
+    private List<Candidate> approximate(float[] query, int maxResults) {
+        int live = indexById.size();
+        int wanted = Math.min(maxResults, live);
+        int ef = Math.max(efSearch, maxResults);
+        if (deletedCount > 0) {
+            ef = (int) Math.min(size, (long) ef * size / live);
+        }
+        int current = greedyDescent(query, entryPoint, maxLevel, 0);
+        while (true) {
+            List<Candidate> candidates = searchLayer(query, current, ef, 0);
+            if (ef >= size || countLive(candidates) >= wanted) {
+                return candidates;
+            }
+            ef = (int) Math.min(size, 2L * ef);
+        }
+    }
+
+    // Scan exact des entrées actives qui passent le filtre.
+    private List<Candidate> exact(float[] query, int maxResults, Filter filter) {
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Comparator.comparingDouble(Candidate::similarity));
+        for (int node = 0; node < size; node++) {
+            if (deleted[node] || segments[node] == null || !filter.test(segments[node].metadata())) {
+                continue;
+            }
+            float similarity = similarity(query, node);
+            if (results.size() < maxResults) {
+                results.add(new Candidate(node, similarity));
+            } else if (maxResults > 0 && similarity > results.peek().similarity()) {
+                results.poll();
+                results.add(new Candidate(node, similarity));
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+        return sorted;
+    }
+
+    private int countLive(List<Candidate> candidates) {
+        int live = 0;
+        for (Candidate candidate : candidates) {
+            if (!deleted[candidate.node()]) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    // Descente gloutonne (ef = 1) de la couche 'from' jusqu'à la couche 'to' incluse.
+    private int greedyDescent(float[] query, int start, int from, int to) {
+        int current = start;
+        float best = similarity(query, current);
+        for (int l = from; l >= to; l--) {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                int[] neighbours = links[current][l];
+                for (int i = 1; i <= neighbours[0]; i++) {
+                    float similarity = similarity(query, neighbours[i]);
+                    if (similarity > best) {
+                        best = similarity;
+                        current = neighbours[i];
+                        improved = true;
+                    }
+                }
+            }
+        }
+        return current;
+    }
+
+    // Recherche en faisceau sur une couche ; renvoie les candidats triés par similarité décroissante.
+    private List<Candidate> searchLayer(float[] query, int entry, int ef, int level) {
+        Visited seen = visitedPool.poll();
+        if (seen == null) {
+            seen = new Visited();
+        }
+        seen.reset(size);
+        PriorityQueue<Candidate> toVisit = new PriorityQueue<>(Comparator.comparingDouble(Candidate::similarity).reversed());
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Comparator.comparingDouble(Candidate::similarity));
+
+        Candidate first = new Candidate(entry, similarity(query, entry));
+        seen.mark(entry);
+        toVisit.add(first);
+        results.add(first);
+        while (!toVisit.isEmpty()) {
+            Candidate candidate = toVisit.poll();
+            if (results.size() >= ef && candidate.similarity() < results.peek().similarity()) {
+                break;
+            }
+            int[] neighbours = links[candidate.node()][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if (!seen.mark(neighbour)) {
+                    continue;
+                }
+                float similarity = similarity(query, neighbour);
+                if (results.size() < ef || similarity > results.peek().similarity()) {
+                    Candidate next = new Candidate(neighbour, similarity);
+                    toVisit.add(next);
+                    results.add(next);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        visitedPool.offer(seen);
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+        return sorted;
+    }
+
+    // Heuristique de sélection de HNSW : on écarte un candidat plus proche d'un voisin déjà retenu
+    // que de la cible, pour garder des liens dans plusieurs directions ; on complète si besoin.
+    private int[] selectNeighbours(List<Candidate> candidates, int max) {
+        int[] selected = new int[Math.min(max, candidates.size())];
+        int count = 0;
+        List<Candidate> skipped = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (count == selected.length) {
+                break;
+            }
+            boolean diverse = true;
+            for (int i = 0; i < count; i++) {
+                if (similarity(candidate.node(), selected[i]) > candidate.similarity()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = candidate.node();
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        for (int i = 0; count < selected.length; i++) {
+            selected[count++] = skipped.get(i).node();
+        }
+        return selected;
+    }
+
+    private void connect(int from, int to, int level) {
+        int[] neighbours = links[from][level];
+        int capacity = neighbours.length - 1;
+        if (neighbours[0] < capacity) {
+            neighbours[++neighbours[0]] = to;
+            return;
+        }
+        // Liste pleine : on re-sélectionne parmi les voisins actuels plus le nouveau.
+        List<Candidate> candidates = new ArrayList<>(capacity + 1);
+        for (int i = 1; i <= neighbours[0]; i++) {
+            candidates.add(new Candidate(neighbours[i], similarity(from, neighbours[i])));
+        }
+        candidates.add(new Candidate(to, similarity(from, to)));
+        candidates.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+        int[] selected = selectNeighbours(candidates, capacity);
+        neighbours[0] = selected.length;
+        System.arraycopy(selected, 0, neighbours, 1, selected.length);
+    }
+
+    private float similarity(float[] query, int node) {
+        int base = node * dimension;
+        float dot = 0;
+        for (int d = 0; d < dimension; d++) {
+            dot += query[d] * vectors[base + d];
+        }
+        return dot;
+    }
+
+    private float similarity(int a, int b) {
+        int baseA = a * dimension;
+        int baseB = b * dimension;
+        float dot = 0;
+        for (int d = 0; d < dimension; d++) {
+            dot += vectors[baseA + d] * vectors[baseB + d];
+        }
+        return dot;
+    }
+
+    private Embedding embedding(int node) {
+        float[] vector = Arrays.copyOfRange(vectors, node * dimension, (node + 1) * dimension);
+        for (int d = 0; d < dimension; d++) {
+            vector[d] *= norms[node];
+        }
+        return Embedding.from(vector);
+    }
+
+    private void allocate(int capacity) {
+        vectors = vectors == null ? new float[capacity * dimension] : Arrays.copyOf(vectors, capacity * dimension);
+        norms = Arrays.copyOf(norms, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        segments = Arrays.copyOf(segments, capacity);
+        deleted = Arrays.copyOf(deleted, capacity);
+        links = Arrays.copyOf(links, capacity);
+    }
+
+    private record Candidate(int node, float similarity) {
+    }
+
+    /**
+     * Ensemble des nœuds visités, réinitialisé en O(1) par numéro de génération.
+     */
+    private static final class Visited {
+
+        private int[] marks = new int[0];
+        private int generation;
+
+        void reset(int size) {
+            if (marks.length < size) {
+                marks = new int[Math.max(size, marks.length * 2)];
+                generation = 0;
+            }
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        // Renvoie true si le nœud n'avait pas encore été visité.
+        boolean mark(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+
+    public static class Builder {
+
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 50;
+        private long seed = 42;
+
+        public Builder m(int m) {
+            this.m = m;
+            return this;
+        }
+
+        public Builder efConstruction(int efConstruction) {
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        public Builder efSearch(int efSearch) {
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /**
+         * Graine du tirage des niveaux, fixe par défaut pour des index reproductibles.
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public HnswEmbeddingStore build() {
+            if (m < 2) {
+                throw new IllegalArgumentException("m doit être >= 2");
+            }
+            return new HnswEmbeddingStore(this);
+        }
+    }
+}
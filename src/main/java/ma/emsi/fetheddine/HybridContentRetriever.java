@@ -0,0 +1,167 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ContentRetriever hybride : combine la recherche vectorielle (sens) et un index BM25
+ * (termes exacts : CVE, empreintes, adresses IP) par fusion des rangs réciproques (RRF).
+ * <p>
+ * Chaque source propose ses candidates meilleurs résultats ; un segment reçoit
+ * 1 / (rrfK + rang) pour chaque liste où il figure, et les maxResults meilleurs totaux sont
+ * renvoyés. La fusion ne compare que des rangs : les scores BM25 et cosinus, d'échelles
+ * différentes, n'ont pas à être calibrés. ContentMetadata.SCORE contient le score fusionné
+ * divisé par son maximum possible (premier dans les deux listes = 1.0).
+ * <p>
+ * Les deux index doivent partager les identifiants de segments : ingérer via
+ * {@link Bm25Index#indexing(EmbeddingStore)}.
+ */
+public class HybridContentRetriever implements ContentRetriever {
+
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final EmbeddingModel embeddingModel;
+    private final Bm25Index lexicalIndex;
+    private final int maxResults;
+    private final int candidates;
+    private final double minVectorScore;
+    private final int rrfK;
+
+    private HybridContentRetriever(Builder builder) {
+        this.embeddingStore = builder.embeddingStore;
+        this.embeddingModel = builder.embeddingModel;
+        this.lexicalIndex = builder.lexicalIndex;
+        this.maxResults = builder.maxResults;
+        this.candidates = builder.candidates;
+        this.minVectorScore = builder.minVectorScore;
+        this.rrfK = builder.rrfK;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static final class Fused {
+        final String id;
+        final TextSegment segment;
+        double score;
+
+        Fused(String id, TextSegment segment) {
+            this.id = id;
+            this.segment = segment;
+        }
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        Map<String, Fused> fused = new LinkedHashMap<>();
+
+        // Lexical d'abord : quelques microsecondes, contre un appel réseau pour l'embedding.
+        List<Bm25Index.Hit> lexicalHits = lexicalIndex.search(query.text(), candidates);
+        for (int rank = 0; rank < lexicalHits.size(); rank++) {
+            Bm25Index.Hit hit = lexicalHits.get(rank);
+            fused.computeIfAbsent(hit.id(), id -> new Fused(id, hit.segment())).score += 1.0 / (rrfK + rank + 1);
+        }
+
+        Embedding queryEmbedding = embeddingModel.embed(query.text()).content();
+        List<EmbeddingMatch<TextSegment>> vectorHits = embeddingStore.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(queryEmbedding)
+                .maxResults(candidates)
+                .minScore(minVectorScore)
+                .build()).matches();
+        for (int rank = 0; rank < vectorHits.size(); rank++) {
+            EmbeddingMatch<TextSegment> match = vectorHits.get(rank);
+            fused.computeIfAbsent(match.embeddingId(), id -> new Fused(id, match.embedded())).score += 1.0 / (rrfK + rank + 1);
+        }
+
+        List<Fused> ranked = new ArrayList<>(fused.values());
+        ranked.sort(Comparator.comparingDouble((Fused f) -> f.score).reversed());
+        double best = 2.0 / (rrfK + 1);
+        List<Content> contents = new ArrayList<>(Math.min(maxResults, ranked.size()));
+        for (Fused result : ranked.subList(0, Math.min(maxResults, ranked.size()))) {
+            contents.add(Content.from(result.segment, Map.of(
+                    ContentMetadata.SCORE, result.score / best,
+                    ContentMetadata.EMBEDDING_ID, result.id)));
+        }
+        return contents;
+    }
+
+    public static class Builder {
+
+        private EmbeddingStore<TextSegment> embeddingStore;
+        private EmbeddingModel embeddingModel;
+        private Bm25Index lexicalIndex;
+        private int maxResults = 3;
+        private int candidates = 20;
+        private double minVectorScore = 0.0;
+        private int rrfK = 60;
+
+        public Builder embeddingStore(EmbeddingStore<TextSegment> embeddingStore) {
+            this.embeddingStore = embeddingStore;
+            return this;
+        }
+
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        public Builder lexicalIndex(Bm25Index lexicalIndex) {
+            this.lexicalIndex = lexicalIndex;
+            return this;
+        }
+
+        /**
+         * Nombre de contenus renvoyés après fusion.
+         */
+        public Builder maxResults(int maxResults) {
+            this.maxResults = maxResults;
+            return this;
+        }
+
+        /**
+         * Nombre de résultats demandés à chaque source avant fusion.
+         */
+        public Builder candidates(int candidates) {
+            this.candidates = candidates;
+            return this;
+        }
+
+        /**
+         * minScore appliqué à la seule recherche vectorielle ; les résultats lexicaux n'en ont pas.
+         */
+        public Builder minVectorScore(double minVectorScore) {
+            this.minVectorScore = minVectorScore;
+            return this;
+        }
+
+        /**
+         * Constante k de la fusion RRF (60 dans l'article d'origine) : plus elle est grande,
+         * moins les premiers rangs dominent.
+         */
+        public Builder rrfK(int rrfK) {
+            this.rrfK = rrfK;
+            return this;
+        }
+
+        public HybridContentRetriever build() {
+            if (embeddingStore == null || embeddingModel == null || lexicalIndex == null) {
+                throw new IllegalStateException("embeddingStore, embeddingModel et lexicalIndex sont requis");
+            }
+            return new HybridContentRetriever(this);
+        }
+    }
+}
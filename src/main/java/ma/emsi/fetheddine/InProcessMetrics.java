@@ -0,0 +1,182 @@
+package ma.emsi.fetheddine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MetricsSink par défaut : un histogramme à seaux fixes par métrique et combinaison de
+ * labels, en mémoire. L'enregistrement ne prend aucun verrou (LongAdder par seau) et
+ * n'alloue que la clé de recherche.
+ * <p>
+ * Les seaux dépendent du suffixe du nom : _seconds (0,5 ms à 64 s), _score (pas de 0,05
+ * entre 0 et 1), sinon puissances de 2 jusqu'à 65 536 (tokens, nombres de résultats).
+ * Les quantiles sont estimés par interpolation dans le seau ; PrometheusExporter publie
+ * les seaux tels quels.
+ */
+public class InProcessMetrics implements MetricsSink {
+
+    private static final double[] SECONDS_BUCKETS = exponential(0.0005, 2, 18);
+    private static final double[] SCORE_BUCKETS = linear(0.05, 0.05, 20);
+    private static final double[] COUNT_BUCKETS = exponential(1, 2, 17);
+
+    private final ConcurrentMap<Key, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private record Key(String name, List<String> labels) {
+    }
+
+    @Override
+    public void record(String name, double value, String... labels) {
+        Key key = new Key(name, Arrays.asList(labels));
+        Histogram histogram = histograms.get(key);
+        if (histogram == null) {
+            if (labels.length % 2 != 0) {
+                throw new IllegalArgumentException("Les labels vont par paires clé, valeur : " + key.labels());
+            }
+            histogram = histograms.computeIfAbsent(new Key(name, List.of(labels)), k -> new Histogram(bucketsFor(name)));
+        }
+        histogram.record(value);
+    }
+
+    /**
+     * Copie cohérente seau par seau (mais pas globalement atomique) de tous les histogrammes,
+     * triés par nom puis labels.
+     */
+    public List<Series> snapshot() {
+        List<Series> series = new ArrayList<>(histograms.size());
+        histograms.forEach((key, histogram) -> series.add(histogram.snapshot(key.name(), key.labels())));
+        series.sort(Comparator.comparing(Series::name).thenComparing(s -> String.join(",", s.labels())));
+        return series;
+    }
+
+    public void clear() {
+        histograms.clear();
+    }
+
+    /**
+     * Résumé lisible : une ligne par série avec nombre, moyenne, p50, p99 et max.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Series series : snapshot()) {
+            text.append(String.format("%-32s %-36s n=%-6d moy=%-10.4g p50=%-10.4g p99=%-10.4g max=%.4g%n",
+                    series.name(), series.labelText(), series.count(), series.mean(),
+                    series.quantile(0.50), series.quantile(0.99), series.max()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * État d'un histogramme à un instant donné.
+     *
+     * @param upperBounds Bornes supérieures (incluses) des seaux, sans +Inf.
+     * @param counts      Observations par seau ; le dernier élément compte celles au-delà de la dernière borne.
+     */
+    public record Series(String name, List<String> labels, double[] upperBounds, long[] counts,
+                         long count, double sum, double min, double max) {
+
+        public double mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * Quantile estimé par interpolation linéaire dans le seau qui le contient.
+         */
+        public double quantile(double q) {
+            if (count == 0) {
+                return 0;
+            }
+            double rank = q * count;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0 && seen + counts[i] >= rank) {
+                    double lower = Math.max(i == 0 ? min : upperBounds[i - 1], min);
+                    double upper = i < upperBounds.length ? Math.min(upperBounds[i], max) : max;
+                    return lower + (upper - lower) * Math.max(0, rank - seen) / counts[i];
+                }
+                seen += counts[i];
+            }
+            return max;
+        }
+
+        String labelText() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < labels.size(); i += 2) {
+                text.append(i == 0 ? "" : ",").append(labels.get(i)).append('=').append(labels.get(i + 1));
+            }
+            return text.toString();
+        }
+    }
+
+    private static final class Histogram {
+
+        private final double[] upperBounds;
+        private final LongAdder[] counts;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+        private final DoubleAccumulator min = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+        private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+        Histogram(double[] upperBounds) {
+            this.upperBounds = upperBounds;
+            this.counts = new LongAdder[upperBounds.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void record(double value) {
+            int index = Arrays.binarySearch(upperBounds, value);
+            counts[index >= 0 ? index : -index - 1].increment();
+            count.increment();
+            sum.add(value);
+            min.accumulate(value);
+            max.accumulate(value);
+        }
+
+        Series snapshot(String name, List<String> labels) {
+            long[] values = new long[counts.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                values[i] = counts[i].sum();
+                total += values[i];
+            }
+            return new Series(name, labels, upperBounds, values, total, sum.sum(),
+                    total == 0 ? 0 : min.get(), total == 0 ? 0 : max.get());
+        }
+    }
+
+    private static double[] bucketsFor(String name) {
+        if (name.endsWith("_seconds")) {
+            return SECONDS_BUCKETS;
+        }
+        if (name.endsWith("_score")) {
+            return SCORE_BUCKETS;
+        }
+        return COUNT_BUCKETS;
+    }
+
+    private static double[] exponential(double start, double factor, int count) {
+        double[] bounds = new double[count];
+        for (int i = 0; i < count; i++) {
+            bounds[i] = start * Math.pow(factor, i);
+        }
+        return bounds;
+    }
+
+    private static double[] linear(double start, double width, int count) {
+        double[] bounds = new double[count];
+        for (int i = 0; i < count; i++) {
+            // Arrondi pour que les bornes s'affichent 0.05, 0.1... et non 0.15000000000000002.
+            bounds[i] = Math.round((start + width * i) * 1e6) / 1e6;
+        }
+        return bounds;
+    }
+}
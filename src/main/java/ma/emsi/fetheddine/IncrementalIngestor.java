@@ -0,0 +1,554 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+
+/**
+ * Ingestion incrémentale : garde pour chaque document la somme SHA-256 du fichier et celle
+ * de chacun de ses segments, pour que la mise à jour d'un document ne touche que ce qui a changé.
+ * <p>
+ * Un fichier dont la somme n'a pas changé n'est même pas relu. Sinon il est reparsé et
+ * redécoupé, puis comparé segment par segment à la version indexée : seuls les segments
+ * nouveaux ou modifiés sont envoyés au modèle d'embedding, les segments disparus sont
+ * supprimés du store et les autres restent en place. Un segment inchangé mais déplacé
+ * (métadonnée "index" différente, dont dépend la fusion des voisins de ContextPacker) est
+ * ré-ajouté avec ses nouvelles métadonnées, sans nouvel embedding. Les ajouts sont faits
+ * avant les suppressions : une recherche concurrente voit toujours au moins une version du
+ * document. Si un ajout échoue, les segments déjà ajoutés par cette mise à jour sont retirés
+ * et l'index garde la version précédente.
+ * <p>
+ * Seuls les ids, sommes et segments sont gardés sur le tas : les vecteurs sont relus dans le
+ * store (recherche filtrée sur file_name) quand il faut déplacer un segment ou écrire un
+ * snapshot (voir {@link #writeSnapshot}) dont on repartira au démarrage suivant
+ * ({@link #restore}). Un vecteur que le store ne rend pas (store sans filtres ou qui ne
+ * renvoie pas les embeddings) est recalculé par le modèle : avec CachingEmbeddingModel,
+ * sans appel à l'API. {@link #watch} surveille un répertoire et applique les mises à jour
+ * dès qu'un fichier déposé n'a plus bougé pendant quelques secondes.
+ */
+public class IncrementalIngestor {
+
+    private final Supplier<DocumentParser> parserFactory;
+    private final DocumentSplitter splitter;
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final int batchSize;
+    private final PathMatcher fileMatcher;
+    // Nom de fichier → état indexé. Toutes les mises à jour sont sérialisées sur cet objet.
+    private final Map<String, DocumentState> documents = new LinkedHashMap<>();
+    // Dimension des vecteurs indexés (0 tant qu'aucun n'a été vu), pour relire le store.
+    private int dimension;
+
+    private record Entry(String id, String hash, TextSegment segment) {
+    }
+
+    private record DocumentState(String checksum, List<Entry> entries) {
+    }
+
+    private IncrementalIngestor(Builder builder) {
+        this.parserFactory = builder.parserFactory;
+        this.splitter = builder.splitter;
+        this.embeddingModel = builder.embeddingModel;
+        this.embeddingStore = builder.embeddingStore;
+        this.batchSize = builder.batchSize;
+        this.fileMatcher = FileSystems.getDefault().getPathMatcher("glob:" + builder.fileGlob);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Résultat de la mise à jour d'un document.
+     *
+     * @param kept    Segments inchangés, sans nouvel embedding (ré-ajoutés s'ils ont changé de place).
+     * @param added   Segments nouveaux ou modifiés, embeddés et ajoutés.
+     * @param removed Segments disparus, supprimés du store.
+     */
+    public record Update(String document, boolean changed, int kept, int added, int removed, long nanos) {
+
+        @Override
+        public String toString() {
+            if (!changed) {
+                return document + " : inchangé";
+            }
+            return String.format("%s : %d segments conservés, %d ajoutés, %d supprimés en %.0f ms",
+                    document, kept, added, removed, nanos / 1e6);
+        }
+    }
+
+    /**
+     * Met à jour l'index pour ce fichier (ajout, modification ou rien si son contenu n'a pas changé).
+     */
+    public Update update(Path file) {
+        long start = System.nanoTime();
+        String name = file.getFileName().toString();
+        String checksum = EmbeddingStoreSnapshot.sha256(file);
+        synchronized (documents) {
+            DocumentState previous = documents.get(name);
+            if (previous != null && previous.checksum().equals(checksum)) {
+                return new Update(name, false, previous.entries().size(), 0, 0, System.nanoTime() - start);
+            }
+
+            Document document = FileSystemDocumentLoader.loadDocument(file, parserFactory.get());
+            List<TextSegment> segments = splitter.split(document);
+
+            // Segments indexés regroupés par somme : un même texte peut apparaître plusieurs fois.
+            Map<String, ArrayDeque<Entry>> reusable = new HashMap<>();
+            if (previous != null) {
+                for (Entry entry : previous.entries()) {
+                    reusable.computeIfAbsent(entry.hash(), h -> new ArrayDeque<>()).add(entry);
+                }
+            }
+            Entry[] entries = new Entry[segments.size()];
+            List<Integer> toEmbed = new ArrayList<>();
+            List<Integer> moved = new ArrayList<>();
+            List<String> obsolete = new ArrayList<>();
+            for (int i = 0; i < segments.size(); i++) {
+                TextSegment segment = segments.get(i);
+                String hash = sha256(segment.text());
+                ArrayDeque<Entry> candidates = reusable.get(hash);
+                Entry kept = candidates == null ? null : candidates.poll();
+                if (kept == null) {
+                    entries[i] = new Entry(null, hash, segment);
+                    toEmbed.add(i);
+                } else if (kept.segment().metadata().equals(segment.metadata())) {
+                    entries[i] = kept;
+                } else {
+                    // Même texte à une autre position : l'ancienne entrée garde son vecteur le
+                    // temps de le relire, puis est remplacée.
+                    entries[i] = kept;
+                    moved.add(i);
+                }
+            }
+
+            List<String> added = new ArrayList<>();
+            try {
+                if (!moved.isEmpty()) {
+                    List<Entry> stale = new ArrayList<>(moved.size());
+                    for (int i : moved) {
+                        stale.add(entries[i]);
+                    }
+                    List<Embedding> vectors = readVectors(stale, previous.entries().size());
+                    for (int k = 0; k < moved.size(); k += batchSize) {
+                        List<Integer> batch = moved.subList(k, Math.min(moved.size(), k + batchSize));
+                        List<String> ids = new ArrayList<>(batch.size());
+                        List<TextSegment> batchSegments = new ArrayList<>(batch.size());
+                        for (int i : batch) {
+                            ids.add(UUID.randomUUID().toString());
+                            batchSegments.add(segments.get(i));
+                        }
+                        added.addAll(ids);
+                        embeddingStore.addAll(ids, vectors.subList(k, k + batch.size()), batchSegments);
+                        for (int j = 0; j < batch.size(); j++) {
+                            int i = batch.get(j);
+                            obsolete.add(entries[i].id());
+                            entries[i] = new Entry(ids.get(j), entries[i].hash(), segments.get(i));
+                        }
+                    }
+                }
+
+                for (int from = 0; from < toEmbed.size(); from += batchSize) {
+                    List<Integer> batch = toEmbed.subList(from, Math.min(toEmbed.size(), from + batchSize));
+                    List<TextSegment> batchSegments = new ArrayList<>(batch.size());
+                    for (int i : batch) {
+                        batchSegments.add(entries[i].segment());
+                    }
+                    List<Embedding> embeddings = embed(batchSegments);
+                    List<String> ids = new ArrayList<>(batch.size());
+                    for (int k = 0; k < batch.size(); k++) {
+                        ids.add(UUID.randomUUID().toString());
+                    }
+                    // Les ids sont notés avant l'appel : un ajout partiel est aussi annulé.
+                    added.addAll(ids);
+                    embeddingStore.addAll(ids, embeddings, batchSegments);
+                    for (int k = 0; k < batch.size(); k++) {
+                        Entry pending = entries[batch.get(k)];
+                        entries[batch.get(k)] = new Entry(ids.get(k), pending.hash(), pending.segment());
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (!added.isEmpty()) {
+                    try {
+                        embeddingStore.removeAll(added);
+                    } catch (RuntimeException rollback) {
+                        e.addSuppressed(rollback);
+                    }
+                }
+                throw e;
+            }
+
+            for (ArrayDeque<Entry> leftovers : reusable.values()) {
+                for (Entry entry : leftovers) {
+                    obsolete.add(entry.id());
+                }
+            }
+            if (!obsolete.isEmpty()) {
+                embeddingStore.removeAll(obsolete);
+            }
+            documents.put(name, new DocumentState(checksum, List.of(entries)));
+            return new Update(name, true, segments.size() - toEmbed.size(), toEmbed.size(),
+                    obsolete.size() - moved.size(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Retire du store tous les segments d'un document.
+     */
+    public Update remove(String fileName) {
+        long start = System.nanoTime();
+        synchronized (documents) {
+            DocumentState previous = documents.remove(fileName);
+            if (previous == null) {
+                return new Update(fileName, false, 0, 0, 0, System.nanoTime() - start);
+            }
+            List<String> ids = new ArrayList<>(previous.entries().size());
+            for (Entry entry : previous.entries()) {
+                ids.add(entry.id());
+            }
+            embeddingStore.removeAll(ids);
+            return new Update(fileName, true, 0, 0, ids.size(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Aligne l'index sur le contenu du répertoire : met à jour chaque fichier correspondant
+     * au filtre et retire les documents indexés qui n'y sont plus.
+     */
+    public List<Update> syncDirectory(Path directory) {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(Files::isRegularFile)
+                    .filter(path -> fileMatcher.matches(path.getFileName()))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lecture du répertoire impossible : " + directory, e);
+        }
+        List<Update> updates = new ArrayList<>();
+        Set<String> present = new HashSet<>();
+        for (Path file : files) {
+            present.add(file.getFileName().toString());
+            updates.add(update(file));
+        }
+        List<String> gone;
+        synchronized (documents) {
+            gone = documents.keySet().stream().filter(name -> !present.contains(name)).toList();
+        }
+        for (String name : gone) {
+            updates.add(remove(name));
+        }
+        return updates;
+    }
+
+    /**
+     * Recharge l'état d'un snapshot écrit par {@link #writeSnapshot} (ou par
+     * EmbeddingStoreSnapshot.Recorder) : les entrées sont copiées dans le store et les
+     * sommes des fichiers reprises de l'en-tête, sans appel au modèle d'embedding.
+     */
+    public void restore(MappedEmbeddingStore snapshot) {
+        Map<String, List<Entry>> restored = new LinkedHashMap<>();
+        List<String> ids = new ArrayList<>(snapshot.size());
+        List<Embedding> embeddings = new ArrayList<>(snapshot.size());
+        List<TextSegment> segments = new ArrayList<>(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            TextSegment segment = snapshot.segment(i);
+            Embedding embedding = snapshot.embedding(i);
+            String id = snapshot.id(i);
+            String name = segment.metadata().getString("file_name");
+            restored.computeIfAbsent(name, n -> new ArrayList<>())
+                    .add(new Entry(id, sha256(segment.text()), segment));
+            ids.add(id);
+            embeddings.add(embedding);
+            segments.add(segment);
+        }
+        synchronized (documents) {
+            embeddingStore.addAll(ids, embeddings, segments);
+            if (!embeddings.isEmpty()) {
+                dimension = embeddings.get(0).dimension();
+            }
+            for (Map.Entry<String, String> source : snapshot.header().sourceChecksums().entrySet()) {
+                List<Entry> entries = restored.getOrDefault(source.getKey(), List.of());
+                documents.put(source.getKey(), new DocumentState(source.getValue(), List.copyOf(entries)));
+            }
+        }
+    }
+
+    /**
+     * Écrit l'état courant de l'index dans un snapshot rechargeable par {@link #restore}, avec
+     * les vecteurs relus dans le store.
+     */
+    public void writeSnapshot(Path snapshot, String modelName, String splitterConfig) {
+        List<String> ids = new ArrayList<>();
+        List<Embedding> embeddings = new ArrayList<>();
+        List<TextSegment> segments = new ArrayList<>();
+        Map<String, String> checksums = new LinkedHashMap<>();
+        synchronized (documents) {
+            for (Map.Entry<String, DocumentState> document : documents.entrySet()) {
+                checksums.put(document.getKey(), document.getValue().checksum());
+                List<Entry> entries = document.getValue().entries();
+                embeddings.addAll(readVectors(entries, entries.size()));
+                for (Entry entry : entries) {
+                    ids.add(entry.id());
+                    segments.add(entry.segment());
+                }
+            }
+        }
+        int dimension = embeddings.isEmpty() ? 0 : embeddings.get(0).dimension();
+        EmbeddingStoreSnapshot.write(snapshot,
+                new EmbeddingStoreSnapshot.Header(modelName, dimension, splitterConfig, checksums),
+                ids, embeddings, segments);
+    }
+
+    /**
+     * Nombre de segments actuellement indexés, tous documents confondus.
+     */
+    public int size() {
+        synchronized (documents) {
+            return documents.values().stream().mapToInt(state -> state.entries().size()).sum();
+        }
+    }
+
+    /**
+     * Surveille le répertoire (non récursif) sur un thread virtuel : un fichier correspondant
+     * au filtre est (ré)indexé une fois qu'il n'a plus été modifié pendant quietPeriod, un
+     * fichier supprimé est retiré de l'index. Chaque mise à jour est passée au listener.
+     * Fermer le Watcher arrête la surveillance.
+     */
+    public Watcher watch(Path directory, Duration quietPeriod, Consumer<Update> listener) {
+        WatchService watchService;
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Surveillance du répertoire impossible : " + directory, e);
+        }
+        Thread thread = Thread.ofVirtual().name("watch-" + directory.getFileName())
+                .start(() -> watchLoop(watchService, directory, quietPeriod, listener));
+        return new Watcher(watchService, thread);
+    }
+
+    private void watchLoop(WatchService watchService, Path directory, Duration quietPeriod,
+                           Consumer<Update> listener) {
+        // Fichier → instant du dernier événement ; traité quand il est resté stable assez longtemps.
+        Map<Path, Long> pending = new LinkedHashMap<>();
+        long quietNanos = quietPeriod.toNanos();
+        try {
+            while (true) {
+                WatchKey key = watchService.poll(Math.max(quietPeriod.toMillis() / 2, 10), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path name && fileMatcher.matches(name)) {
+                            pending.put(directory.resolve(name), System.nanoTime());
+                        }
+                    }
+                    key.reset();
+                }
+                long now = System.nanoTime();
+                Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Path, Long> stable = it.next();
+                    if (now - stable.getValue() < quietNanos) {
+                        continue;
+                    }
+                    it.remove();
+                    Path file = stable.getKey();
+                    try {
+                        listener.accept(Files.exists(file) ? update(file) : remove(file.getFileName().toString()));
+                    } catch (RuntimeException e) {
+                        // Fichier illisible (copie incomplète, PDF corrompu) : l'index garde la version précédente.
+                        System.err.println("Mise à jour de " + file.getFileName() + " impossible : " + e.getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watcher fermé.
+        }
+    }
+
+    private List<Embedding> embed(List<TextSegment> segments) {
+        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+        if (!embeddings.isEmpty()) {
+            dimension = embeddings.get(0).dimension();
+        }
+        return embeddings;
+    }
+
+    // Vecteurs des entrées d'un même document (documentSize entrées dans le store), dans l'ordre :
+    // relus par une recherche filtrée sur file_name, ou recalculés pour ceux que le store ne rend pas.
+    private List<Embedding> readVectors(List<Entry> entries, int documentSize) {
+        Map<String, Embedding> found = new HashMap<>();
+        String name = entries.isEmpty() ? null : entries.get(0).segment().metadata().getString("file_name");
+        if (name != null && dimension > 0) {
+            float[] query = new float[dimension];
+            query[0] = 1;
+            try {
+                // minScore 0 : toutes les entrées du document, quelle que soit leur similarité.
+                List<EmbeddingMatch<TextSegment>> matches = embeddingStore.search(EmbeddingSearchRequest.builder()
+                        .queryEmbedding(Embedding.from(query))
+                        .filter(metadataKey("file_name").isEqualTo(name))
+                        .maxResults(documentSize)
+                        .minScore(0.0)
+                        .build()).matches();
+                for (EmbeddingMatch<TextSegment> match : matches) {
+                    if (match.embedding() != null) {
+                        found.put(match.embeddingId(), match.embedding());
+                    }
+                }
+            } catch (UnsupportedOperationException e) {
+                // Store sans filtres : tout est recalculé.
+            }
+        }
+
+        List<TextSegment> missing = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (!found.containsKey(entry.id())) {
+                missing.add(entry.segment());
+            }
+        }
+        List<Embedding> recomputed = new ArrayList<>(missing.size());
+        for (int from = 0; from < missing.size(); from += batchSize) {
+            recomputed.addAll(embed(missing.subList(from, Math.min(missing.size(), from + batchSize))));
+        }
+
+        List<Embedding> vectors = new ArrayList<>(entries.size());
+        int next = 0;
+        for (Entry entry : entries) {
+            Embedding vector = found.get(entry.id());
+            vectors.add(vector != null ? vector : recomputed.get(next++));
+        }
+        return vectors;
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Surveillance en cours d'un répertoire.
+     */
+    public static final class Watcher implements AutoCloseable {
+
+        private final WatchService watchService;
+        private final Thread thread;
+
+        private Watcher(WatchService watchService, Thread thread) {
+            this.watchService = watchService;
+            this.thread = thread;
+        }
+
+        @Override
+        public void close() {
+            try {
+                watchService.close();
+                thread.join();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private Supplier<DocumentParser> parserFactory;
+        private DocumentSplitter splitter;
+        private EmbeddingModel embeddingModel;
+        private EmbeddingStore<TextSegment> embeddingStore;
+        private int batchSize = 100;
+        private String fileGlob = "*.pdf";
+
+        /**
+         * Fabrique de parseurs : un parseur neuf par document mis à jour.
+         */
+        public Builder documentParser(Supplier<DocumentParser> parserFactory) {
+            this.parserFactory = parserFactory;
+            return this;
+        }
+
+        public Builder documentSplitter(DocumentSplitter splitter) {
+            this.splitter = splitter;
+            return this;
+        }
+
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        /**
+         * Store mis à jour en place ; il doit supporter removeAll(ids) et les accès concurrents.
+         */
+        public Builder embeddingStore(EmbeddingStore<TextSegment> embeddingStore) {
+            this.embeddingStore = embeddingStore;
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Filtre des fichiers pris en compte par syncDirectory et watch (ex. "threat_report*.pdf").
+         */
+        public Builder fileGlob(String fileGlob) {
+            this.fileGlob = fileGlob;
+            return this;
+        }
+
+        public IncrementalIngestor build() {
+            if (parserFactory == null || splitter == null || embeddingModel == null || embeddingStore == null) {
+                throw new IllegalStateException("documentParser, documentSplitter, embeddingModel et embeddingStore sont requis");
+            }
+            return new IncrementalIngestor(this);
+        }
+    }
+}
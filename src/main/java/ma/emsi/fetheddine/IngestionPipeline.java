@@ -0,0 +1,386 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Pipeline d'ingestion parallèle pour un répertoire entier de documents.
+ * <p>
+ * Étapes :
+ * <ol>
+ *     <li>parsing + split : un thread virtuel par document, au plus parseConcurrency à la fois ;
+ *     avec streamPdfPages, les PDF sont lus et découpés page par page (voir PdfPageReader) :
+ *     les premiers segments partent à l'embedding avant la fin de l'extraction ;</li>
+ *     <li>file bornée de segments : quand l'embedding ne suit pas, les parseurs attendent (backpressure) ;</li>
+ *     <li>embedding : les segments sont regroupés en lots de batchSize (limite de requête du modèle)
+ *     et au plus embedConcurrency appels sont en vol, pendant que le parsing continue.</li>
+ * </ol>
+ * Un {@link Report} donne le débit de chaque étape.
+ * <p>
+ * En lecture page par page, la mémoire reste bornée quelle que soit la taille du document :
+ * une page en cours d'extraction plus au plus queueCapacity lots en attente. Les segments ne
+ * chevauchent pas deux pages, portent la métadonnée page_number et sont numérotés ("index")
+ * dans l'ordre du document, comme avec le Document complet.
+ * <p>
+ * Un document illisible est compté en échec sans arrêter l'ingestion. En revanche, le premier
+ * appel d'embedding en échec (ou une Error d'un parseur) l'arrête : plus aucun lot n'est
+ * envoyé, les parseurs s'arrêtent à leur prochain lot et ingest lève IllegalStateException.
+ */
+public class IngestionPipeline {
+
+    // Instance propre à la classe, comparée par identité : aucun lot réel ne peut lui être identique.
+    private static final List<TextSegment> END_OF_STREAM = Collections.unmodifiableList(new ArrayList<>());
+
+    private final Supplier<DocumentParser> parserFactory;
+    private final DocumentSplitter splitter;
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final int batchSize;
+    private final int parseConcurrency;
+    private final int embedConcurrency;
+    private final int queueCapacity;
+    private final PathMatcher fileMatcher;
+    private final boolean streamPdfPages;
+
+    private IngestionPipeline(Builder builder) {
+        this.parserFactory = builder.parserFactory;
+        this.splitter = builder.splitter;
+        this.embeddingModel = builder.embeddingModel;
+        this.embeddingStore = builder.embeddingStore;
+        this.batchSize = builder.batchSize;
+        this.parseConcurrency = builder.parseConcurrency;
+        this.embedConcurrency = builder.embedConcurrency;
+        this.queueCapacity = builder.queueCapacity;
+        this.fileMatcher = FileSystems.getDefault().getPathMatcher("glob:" + builder.fileGlob);
+        this.streamPdfPages = builder.streamPdfPages;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Statistiques d'une ingestion ; les durées sont cumulées sur tous les threads d'une étape.
+     */
+    public record Report(int documents, int failedDocuments, int segments, int embedCalls,
+                         long parseNanos, long embedNanos, long firstEmbedNanos, long wallNanos) {
+
+        public double documentsPerSecond() {
+            return documents / (wallNanos / 1e9);
+        }
+
+        public double segmentsPerSecond() {
+            return segments / (wallNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d documents (%d en échec), %d segments, %d appels d'embedding en %.2f s%n"
+                            + "  parsing+split : %.2f s cumulées, %.1f documents/s%n"
+                            + "  embedding     : %.2f s cumulées, %.1f segments/s, premier lot après %.2f s",
+                    documents, failedDocuments, segments, embedCalls, wallNanos / 1e9,
+                    parseNanos / 1e9, documentsPerSecond(),
+                    embedNanos / 1e9, segmentsPerSecond(), firstEmbedNanos / 1e9);
+        }
+    }
+
+    /**
+     * Ingère tous les fichiers du répertoire (récursivement) qui correspondent au filtre.
+     */
+    public Report ingestDirectory(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return ingest(files.filter(Files::isRegularFile)
+                    .filter(path -> fileMatcher.matches(path.getFileName()))
+                    .sorted()
+                    .toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lecture du répertoire impossible : " + directory, e);
+        }
+    }
+
+    public Report ingest(List<Path> files) {
+        long start = System.nanoTime();
+        BlockingQueue<List<TextSegment>> queue = new ArrayBlockingQueue<>(queueCapacity);
+        Semaphore parsePermits = new Semaphore(parseConcurrency);
+        Semaphore embedPermits = new Semaphore(embedConcurrency);
+        AtomicInteger documents = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger segments = new AtomicInteger();
+        AtomicInteger embedCalls = new AtomicInteger();
+        AtomicLong parseNanos = new AtomicLong();
+        AtomicLong embedNanos = new AtomicLong();
+        AtomicLong firstEmbedNanos = new AtomicLong(-1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> parsers = new ArrayList<>(files.size());
+            for (Path file : files) {
+                parsers.add(executor.submit(() -> {
+                    parsePermits.acquire();
+                    try {
+                        if (failure.get() != null) {
+                            return null;
+                        }
+                        if (streamPdfPages && file.getFileName().toString().toLowerCase().endsWith(".pdf")) {
+                            parseNanos.addAndGet(streamPages(file, queue, failure));
+                        } else {
+                            long parseStart = System.nanoTime();
+                            Document document = FileSystemDocumentLoader.loadDocument(file, parserFactory.get());
+                            List<TextSegment> split = splitter.split(document);
+                            parseNanos.addAndGet(System.nanoTime() - parseStart);
+                            for (int i = 0; i < split.size(); i += batchSize) {
+                                put(queue, split.subList(i, Math.min(split.size(), i + batchSize)), failure);
+                            }
+                        }
+                        documents.incrementAndGet();
+                    } catch (CancellationException e) {
+                        // Ingestion arrêtée par un échec ailleurs : ce document n'est pas en cause.
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        System.err.println("Échec de l'ingestion de " + file + " : " + e.getMessage());
+                    } finally {
+                        parsePermits.release();
+                    }
+                    return null;
+                }));
+            }
+
+            // Signale la fin du flux une fois tous les parseurs terminés, même si l'un d'eux a
+            // levé une Error : sans ce marqueur, le batcher attendrait indéfiniment sur la file.
+            executor.submit(() -> {
+                try {
+                    for (Future<?> parser : parsers) {
+                        try {
+                            parser.get();
+                        } catch (ExecutionException e) {
+                            failure.compareAndSet(null, e.getCause());
+                        }
+                    }
+                } finally {
+                    queue.put(END_OF_STREAM);
+                }
+                return null;
+            });
+
+            // Regroupe les segments en lots pleins et lance les embeddings au fil de l'eau. Après
+            // un échec, la file est vidée sans rien envoyer jusqu'au marqueur de fin, pour ne
+            // laisser aucun parseur bloqué dessus.
+            try {
+                List<TextSegment> batch = new ArrayList<>(batchSize);
+                while (true) {
+                    List<TextSegment> chunk = queue.take();
+                    if (chunk == END_OF_STREAM) {
+                        break;
+                    }
+                    if (failure.get() != null) {
+                        continue;
+                    }
+                    for (TextSegment segment : chunk) {
+                        batch.add(segment);
+                        if (batch.size() == batchSize) {
+                            firstEmbedNanos.compareAndSet(-1, System.nanoTime() - start);
+                            submitEmbed(executor, batch, embedPermits, embedCalls, embedNanos, segments, failure);
+                            batch = new ArrayList<>(batchSize);
+                        }
+                    }
+                }
+                if (!batch.isEmpty() && failure.get() == null) {
+                    firstEmbedNanos.compareAndSet(-1, System.nanoTime() - start);
+                    submitEmbed(executor, batch, embedPermits, embedCalls, embedNanos, segments, failure);
+                }
+            } catch (InterruptedException e) {
+                // Sans consommateur, les parseurs resteraient bloqués sur la file : on les interrompt
+                // avant que la fermeture de l'executor ne les attende.
+                executor.shutdownNow();
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ingestion interrompue", e);
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Échec de l'ingestion : " + failure.get().getMessage(), failure.get());
+        }
+
+        return new Report(documents.get(), failed.get(), segments.get(), embedCalls.get(),
+                parseNanos.get(), embedNanos.get(), Math.max(0, firstEmbedNanos.get()), System.nanoTime() - start);
+    }
+
+    // Extrait et découpe le PDF page par page ; renvoie la durée d'extraction et de découpage,
+    // hors attente sur la file pleine.
+    private long streamPages(Path file, BlockingQueue<List<TextSegment>> queue, AtomicReference<Throwable> failure)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long[] blocked = new long[1];
+        int[] index = new int[1];
+        PdfPageReader.read(file, (pageNumber, text) -> {
+            List<TextSegment> split = splitter.split(PdfPageReader.pageDocument(file, pageNumber, text));
+            for (TextSegment segment : split) {
+                segment.metadata().put("index", String.valueOf(index[0]++));
+            }
+            long putStart = System.nanoTime();
+            for (int i = 0; i < split.size(); i += batchSize) {
+                put(queue, split.subList(i, Math.min(split.size(), i + batchSize)), failure);
+            }
+            blocked[0] += System.nanoTime() - putStart;
+        });
+        return System.nanoTime() - start - blocked[0];
+    }
+
+    // Un parseur arrête son document dès que l'ingestion a échoué ailleurs.
+    private static void put(BlockingQueue<List<TextSegment>> queue, List<TextSegment> chunk,
+                            AtomicReference<Throwable> failure) throws InterruptedException {
+        if (failure.get() != null) {
+            throw new CancellationException("Ingestion arrêtée");
+        }
+        queue.put(chunk);
+    }
+
+    // L'acquisition du permis se fait dans le thread du batcher : s'il n'y en a plus, le batcher
+    // arrête de vider la file, qui se remplit et bloque à son tour les parseurs. Le premier
+    // échec est publié dès la fin de l'appel, sans attendre les autres lots.
+    private void submitEmbed(ExecutorService executor, List<TextSegment> batch, Semaphore permits,
+                             AtomicInteger calls, AtomicLong nanos, AtomicInteger segments,
+                             AtomicReference<Throwable> failure) throws InterruptedException {
+        permits.acquire();
+        executor.submit(() -> {
+            try {
+                long embedStart = System.nanoTime();
+                List<Embedding> embeddings = embeddingModel.embedAll(batch).content();
+                nanos.addAndGet(System.nanoTime() - embedStart);
+                embeddingStore.addAll(embeddings, batch);
+                calls.incrementAndGet();
+                segments.addAndGet(batch.size());
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                throw e;
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    public static class Builder {
+
+        private Supplier<DocumentParser> parserFactory;
+        private DocumentSplitter splitter;
+        private EmbeddingModel embeddingModel;
+        private EmbeddingStore<TextSegment> embeddingStore;
+        private int batchSize = 100;
+        private int parseConcurrency = Runtime.getRuntime().availableProcessors();
+        private int embedConcurrency = 4;
+        private int queueCapacity = 64;
+        private String fileGlob = "*";
+        private boolean streamPdfPages;
+
+        /**
+         * Fabrique de parseurs : un parseur neuf par document, les parseurs n'étant pas
+         * garantis thread-safe (ex. {@code ApacheTikaDocumentParser::new}).
+         */
+        public Builder documentParser(Supplier<DocumentParser> parserFactory) {
+            this.parserFactory = parserFactory;
+            return this;
+        }
+
+        public Builder documentSplitter(DocumentSplitter splitter) {
+            this.splitter = splitter;
+            return this;
+        }
+
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        public Builder embeddingStore(EmbeddingStore<TextSegment> embeddingStore) {
+            this.embeddingStore = embeddingStore;
+            return this;
+        }
+
+        /**
+         * Nombre maximal de segments par appel à embedAll (100 pour l'API Gemini).
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder parseConcurrency(int parseConcurrency) {
+            this.parseConcurrency = parseConcurrency;
+            return this;
+        }
+
+        /**
+         * Nombre maximal d'appels d'embedding simultanés, à régler selon les quotas du fournisseur.
+         */
+        public Builder embedConcurrency(int embedConcurrency) {
+            this.embedConcurrency = embedConcurrency;
+            return this;
+        }
+
+        /**
+         * Capacité de la file entre parsing et embedding, en lots d'au plus batchSize segments.
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Filtre sur le nom des fichiers du répertoire, par ex. "*.pdf".
+         */
+        public Builder fileGlob(String fileGlob) {
+            this.fileGlob = fileGlob;
+            return this;
+        }
+
+        /**
+         * Lit les PDF page par page au lieu de construire leur Document complet : mémoire
+         * bornée et embedding dès les premières pages, pour les très gros rapports. Le
+         * documentParser reste utilisé pour les autres formats.
+         */
+        public Builder streamPdfPages(boolean streamPdfPages) {
+            this.streamPdfPages = streamPdfPages;
+            return this;
+        }
+
+        public IngestionPipeline build() {
+            if (parserFactory == null || splitter == null || embeddingModel == null || embeddingStore == null) {
+                throw new IllegalStateException("documentParser, documentSplitter, embeddingModel et embeddingStore sont obligatoires");
+            }
+            if (batchSize < 1 || parseConcurrency < 1 || embedConcurrency < 1 || queueCapacity < 1) {
+                throw new IllegalArgumentException("Les tailles et niveaux de concurrence doivent être >= 1");
+            }
+            return new IngestionPipeline(this);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * EmbeddingStore en lecture seule servi directement depuis un snapshot mappé en
+ * mémoire (voir {@link EmbeddingStoreSnapshot}). Les vecteurs ne sont jamais copiés
+ * sur le tas ; le texte et les métadonnées ne sont décodés que pour les résultats.
+ * <p>
+ * Les scores suivent la même convention que InMemoryEmbeddingStore :
+ * RelevanceScore.fromCosineSimilarity, comparé à minScore.
+ */
+public class MappedEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private final EmbeddingStoreSnapshot.Header header;
+    private final ByteBuffer buffer;
+    private final FloatBuffer vectors;
+    private final FloatBuffer norms;
+    private final int count;
+    private final int dimension;
+    private final int offsetsOffset;
+
+    MappedEmbeddingStore(EmbeddingStoreSnapshot.Header header, ByteBuffer buffer, int count,
+                         int vectorsOffset, int normsOffset, int offsetsOffset) {
+        this.header = header;
+        this.buffer = buffer;
+        this.count = count;
+        this.dimension = header.dimension();
+        // load() a vérifié que le snapshot tient dans 2 Go : ces tailles tiennent dans un int.
+        this.vectors = buffer.slice(vectorsOffset, Math.toIntExact((long) count * dimension * Float.BYTES))
+                .asFloatBuffer();
+        this.norms = buffer.slice(normsOffset, Math.toIntExact((long) count * Float.BYTES)).asFloatBuffer();
+        this.offsetsOffset = offsetsOffset;
+    }
+
+    public EmbeddingStoreSnapshot.Header header() {
+        return header;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = request.queryEmbedding().vector();
+        float queryNorm = EmbeddingStoreSnapshot.norm(query);
+        Filter filter = request.filter();
+
+        PriorityQueue<ScoredIndex> best = new PriorityQueue<>(Comparator.comparingDouble(ScoredIndex::score));
+        for (int i = 0; i < count; i++) {
+            double dot = 0;
+            int base = i * dimension;
+            for (int d = 0; d < dimension; d++) {
+                dot += query[d] * vectors.get(base + d);
+            }
+            double cosine = dot / Math.max(queryNorm * norms.get(i), 1e-8f);
+            double score = RelevanceScore.fromCosineSimilarity(cosine);
+            if (score < request.minScore()) {
+                continue;
+            }
+            if (filter != null && !filter.test(segment(i).metadata())) {
+                continue;
+            }
+            best.add(new ScoredIndex(i, score));
+            if (best.size() > request.maxResults()) {
+                best.poll();
+            }
+        }
+
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            ScoredIndex hit = best.poll();
+            matches.add(new EmbeddingMatch<>(hit.score(), id(hit.index()), embedding(hit.index()), segment(hit.index())));
+        }
+        matches.sort(Comparator.comparingDouble((EmbeddingMatch<TextSegment> m) -> m.score()).reversed());
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    Embedding embedding(int index) {
+        float[] vector = new float[dimension];
+        vectors.get(index * dimension, vector);
+        return Embedding.from(vector);
+    }
+
+    String id(int index) {
+        return EmbeddingStoreSnapshot.readId(buffer, entryPosition(index));
+    }
+
+    TextSegment segment(int index) {
+        return EmbeddingStoreSnapshot.readSegment(buffer, entryPosition(index));
+    }
+
+    private int entryPosition(int index) {
+        return Math.toIntExact(buffer.getLong(offsetsOffset + index * Long.BYTES));
+    }
+
+    private record ScoredIndex(int index, double score) {
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        throw readOnly();
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        throw readOnly();
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        throw readOnly();
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Un store chargé depuis un snapshot est en lecture seule");
+    }
+}
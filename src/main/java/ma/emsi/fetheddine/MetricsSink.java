@@ -0,0 +1,26 @@
+package ma.emsi.fetheddine;
+
+/**
+ * Destination des mesures du pipeline RAG (voir PipelineMetrics). Chaque observation
+ * alimente l'histogramme nommé name pour la combinaison de labels donnée.
+ * <p>
+ * L'implémentation par défaut est InProcessMetrics ; une autre implémentation peut
+ * relayer vers un système existant (Micrometer, OpenTelemetry...). record est appelé sur
+ * le chemin de chaque requête : il doit être rapide et sûr entre threads.
+ */
+@FunctionalInterface
+public interface MetricsSink {
+
+    /**
+     * Sink qui ignore tout, quand l'instrumentation est désactivée.
+     */
+    MetricsSink NONE = (name, value, labels) -> {
+    };
+
+    /**
+     * @param name   Nom de la métrique, suffixé par son unité (_seconds, _tokens...).
+     * @param value  Valeur observée.
+     * @param labels Paires clé, valeur (ex. "retriever", "rag").
+     */
+    void record(String name, double value, String... labels);
+}
@@ -0,0 +1,602 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.exception.HttpException;
+import dev.langchain4j.exception.RateLimitException;
+import dev.langchain4j.exception.RetriableException;
+import dev.langchain4j.exception.TimeoutException;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Politique d'appel d'un modèle distant (Gemini) : limitation de débit, concurrence
+ * adaptative, reprises et requêtes de couverture (hedging), appliquées par les décorateurs
+ * {@link #chatModel(ChatModel)} et {@link #embeddingModel(EmbeddingModel)}.
+ * <p>
+ * Chaque tentative passe dans l'ordre par :
+ * <ol>
+ *     <li>un seau à jetons (permitsPerSecond, burst), qui respecte le quota de l'API ;</li>
+ *     <li>une limite de concurrence AIMD : +1/limite par succès quand la limite est utilisée,
+ *     x backoffRatio sur un signal de surcharge (429, 503, timeout, ou médiane récente au-delà
+ *     de latencyTolerance x la médiane de référence), au plus une fois par aller-retour : les
+ *     réponses de requêtes parties avant la dernière baisse ne la font pas baisser à nouveau.
+ *     Les appelants en attente d'une place sont servis dans l'ordre d'arrivée ;</li>
+ *     <li>si le hedging est actif, une seconde requête lancée quand la première dépasse le
+ *     quantile hedgeQuantile des latences récentes, dans la limite de hedgeBudget requêtes
+ *     supplémentaires par appel et seulement si un jeton et une place sont libres ; la
+ *     première réponse l'emporte et l'autre requête est interrompue.</li>
+ * </ol>
+ * Les erreurs transitoires (RetriableException, HTTP 429/5xx, IO) sont reprises jusqu'à
+ * maxAttempts avec un backoff exponentiel à gigue complète ; les autres sont propagées
+ * immédiatement. Les reprises internes des modèles Gemini (maxRetries) doivent être
+ * désactivées pour ne pas se cumuler à celles-ci.
+ * <p>
+ * Une instance par quota : les modèles de chat et d'embedding ont chacun la leur.
+ * Mesures envoyées au MetricsSink, avec le label operation (chat ou embedding) :
+ * model_call_seconds{outcome=success|failure}, model_call_attempts, model_call_queue_seconds
+ * (attente de jeton et de place), model_call_concurrency_limit et
+ * model_call_hedges{winner=primary|hedge}.
+ * <p>
+ * Les requêtes de couverture tournent dans un exécuteur propre à l'instance : {@link #close()}
+ * l'arrête, en attendant les requêtes en cours.
+ */
+public class ModelCallPolicy implements AutoCloseable {
+
+    private static final int WINDOW_SIZE = 512;
+    private static final int MIN_SAMPLES = 32;
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final boolean hedging;
+    private final double hedgeQuantile;
+    private final double hedgeBudget;
+    private final MetricsSink sink;
+
+    // Un ReentrantLock plutôt que synchronized : les appelants sont des threads virtuels qui
+    // attendent une place, et Object.wait épinglerait leur thread porteur.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private final LatencyWindow window = new LatencyWindow();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private double limit;
+    private int inFlight;
+    private long decreasedAt = System.nanoTime();
+    private final ArrayDeque<Object> waiters = new ArrayDeque<>();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+
+    private ModelCallPolicy(Builder builder) {
+        this.permitsPerSecond = builder.permitsPerSecond;
+        this.burst = Math.max(1, builder.burst);
+        this.minConcurrency = builder.minConcurrency;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.latencyTolerance = builder.latencyTolerance;
+        this.backoffRatio = builder.backoffRatio;
+        this.maxAttempts = builder.maxAttempts;
+        this.baseBackoffNanos = builder.baseBackoff.toNanos();
+        this.maxBackoffNanos = builder.maxBackoff.toNanos();
+        this.hedging = builder.hedging;
+        this.hedgeQuantile = builder.hedgeQuantile;
+        this.hedgeBudget = builder.hedgeBudget;
+        this.sink = builder.sink;
+        this.tokens = this.burst;
+        this.limit = Math.max(minConcurrency, Math.min(maxConcurrency, builder.initialConcurrency));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Modèle de chat dont chaque appel suit cette politique ; les listeners du modèle
+     * délégué voient chaque tentative, reprises et requêtes de couverture comprises.
+     */
+    public ChatModel chatModel(ChatModel delegate) {
+        return new ChatModel() {
+            @Override
+            public ChatResponse doChat(ChatRequest chatRequest) {
+                return call("chat", () -> delegate.chat(chatRequest));
+            }
+
+            @Override
+            public ChatRequestParameters defaultRequestParameters() {
+                return delegate.defaultRequestParameters();
+            }
+
+            @Override
+            public ModelProvider provider() {
+                return delegate.provider();
+            }
+
+            @Override
+            public Set<Capability> supportedCapabilities() {
+                return delegate.supportedCapabilities();
+            }
+        };
+    }
+
+    /**
+     * Modèle d'embedding dont chaque lot suit cette politique.
+     */
+    public EmbeddingModel embeddingModel(EmbeddingModel delegate) {
+        return new EmbeddingModel() {
+            @Override
+            public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+                return call("embedding", () -> delegate.embedAll(segments));
+            }
+
+            @Override
+            public int dimension() {
+                return delegate.dimension();
+            }
+        };
+    }
+
+    /**
+     * Exécute call selon la politique ; operation sert de label aux mesures.
+     */
+    public <T> T call(String operation, Supplier<T> call) {
+        calls.increment();
+        long start = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            long queued = System.nanoTime();
+            try {
+                acquirePermit();
+                acquireSlot();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Appel au modèle interrompu", e);
+            }
+            long waited = System.nanoTime() - queued;
+            queueNanos.add(waited);
+            sink.record("model_call_queue_seconds", waited / 1e9, "operation", operation);
+
+            long attemptStart = System.nanoTime();
+            boolean overloaded = false;
+            try {
+                T result = hedging ? hedged(operation, call) : call.get();
+                window.add(System.nanoTime() - attemptStart);
+                overloaded = window.congested(latencyTolerance);
+                sink.record("model_call_seconds", (System.nanoTime() - start) / 1e9,
+                        "operation", operation, "outcome", "success");
+                sink.record("model_call_attempts", attempt, "operation", operation);
+                return result;
+            } catch (RuntimeException e) {
+                overloaded = isOverload(e);
+                if (!isRetryable(e) || attempt >= maxAttempts) {
+                    failures.increment();
+                    sink.record("model_call_seconds", (System.nanoTime() - start) / 1e9,
+                            "operation", operation, "outcome", "failure");
+                    sink.record("model_call_attempts", attempt, "operation", operation);
+                    throw e;
+                }
+                retries.increment();
+            } finally {
+                releaseSlot(overloaded, attemptStart);
+                sink.record("model_call_concurrency_limit", concurrencyLimit(), "operation", operation);
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(backoffNanos(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Appel au modèle interrompu", e);
+            }
+        }
+    }
+
+    public long calls() {
+        return calls.sum();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    public long retries() {
+        return retries.sum();
+    }
+
+    public long hedges() {
+        return hedges.sum();
+    }
+
+    public long hedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    public int concurrencyLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d appels, %d échecs, %d reprises, %d requêtes de couverture (%d gagnantes), "
+                        + "limite de concurrence %d, attente cumulée %.2f s", calls.sum(), failures.sum(),
+                retries.sum(), hedges.sum(), hedgeWins.sum(), concurrencyLimit(), queueNanos.sum() / 1e9);
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    // Requête principale dans un thread virtuel ; au-delà du délai de couverture, seconde
+    // requête si le budget, un jeton et une place le permettent. La place de la requête de
+    // couverture est rendue ici, sans nourrir l'AIMD : seul l'appel compte comme observation.
+    private <T> T hedged(String operation, Supplier<T> call) {
+        long delay = window.quantile(hedgeQuantile);
+        if (delay == 0) {
+            return call.get();
+        }
+        ExecutorCompletionService<T> completion = new ExecutorCompletionService<>(executor);
+        Future<T> primary = completion.submit(call::get);
+        Future<T> hedge = null;
+        try {
+            Future<T> done = completion.poll(delay, TimeUnit.NANOSECONDS);
+            if (done != null) {
+                return result(done);
+            }
+            if (hedges.sum() >= hedgeBudget * calls.sum() || !tryAcquirePermit()) {
+                return result(primary);
+            }
+            if (!tryAcquireSlot()) {
+                return result(primary);
+            }
+            hedges.increment();
+            try {
+                hedge = completion.submit(call::get);
+                Future<T> first = completion.take();
+                T value;
+                try {
+                    value = result(first);
+                } catch (RuntimeException e) {
+                    first = completion.take();
+                    value = result(first);
+                }
+                boolean hedgeWon = first == hedge;
+                if (hedgeWon) {
+                    hedgeWins.increment();
+                }
+                sink.record("model_call_hedges", 1, "operation", operation, "winner", hedgeWon ? "hedge" : "primary");
+                return value;
+            } finally {
+                returnSlot();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Appel au modèle interrompu", e);
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    private static <T> T result(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Échec de l'appel au modèle", e.getCause());
+        }
+    }
+
+    // Les erreurs serveur isolées (500) sont reprises sans réduire la concurrence.
+    private static boolean isOverload(RuntimeException e) {
+        if (e instanceof RateLimitException || e instanceof TimeoutException) {
+            return true;
+        }
+        return e instanceof HttpException http && (http.statusCode() == 429 || http.statusCode() == 503);
+    }
+
+    private static boolean isRetryable(RuntimeException e) {
+        if (e instanceof RetriableException || e instanceof UncheckedIOException) {
+            return true;
+        }
+        if (e instanceof HttpException http) {
+            return http.statusCode() == 429 || http.statusCode() >= 500;
+        }
+        return false;
+    }
+
+    // Backoff exponentiel à gigue complète : uniforme dans [0, min(max, base x 2^(tentative-1))].
+    private long backoffNanos(int attempt) {
+        long ceiling = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    // Le seau peut passer en négatif : chaque appelant réserve son jeton puis attend son tour,
+    // ce qui sert les appelants dans l'ordre sans les réveiller tous à chaque jeton.
+    private void acquirePermit() throws InterruptedException {
+        if (permitsPerSecond <= 0) {
+            return;
+        }
+        long waitNanos;
+        lock.lock();
+        try {
+            refill();
+            tokens -= 1;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / permitsPerSecond * 1e9);
+        } finally {
+            lock.unlock();
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private boolean tryAcquirePermit() {
+        if (permitsPerSecond <= 0) {
+            return true;
+        }
+        lock.lock();
+        try {
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * permitsPerSecond);
+        refilledAt = now;
+    }
+
+    // File d'attente explicite : sans elle, un client qui vient de finir reprendrait la place
+    // libérée avant ceux qui attendent déjà, qui pourraient attendre indéfiniment.
+    private void acquireSlot() throws InterruptedException {
+        Object ticket = new Object();
+        lock.lock();
+        try {
+            waiters.addLast(ticket);
+            try {
+                while (waiters.peekFirst() != ticket || inFlight >= (int) limit) {
+                    slotFreed.await();
+                }
+            } catch (InterruptedException e) {
+                waiters.remove(ticket);
+                slotFreed.signalAll();
+                throw e;
+            }
+            waiters.removeFirst();
+            inFlight++;
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Pour la requête de couverture : jamais devant un appelant qui attend.
+    private boolean tryAcquireSlot() {
+        lock.lock();
+        try {
+            if (!waiters.isEmpty() || inFlight >= (int) limit) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Augmentation additive seulement si la limite était au moins à moitié utilisée,
+    // pour qu'un trafic faible ne la fasse pas croître sans preuve de capacité.
+    private void releaseSlot(boolean overloaded, long attemptStart) {
+        lock.lock();
+        try {
+            if (overloaded) {
+                if (attemptStart - decreasedAt > 0) {
+                    limit = Math.max(minConcurrency, limit * backoffRatio);
+                    decreasedAt = System.nanoTime();
+                }
+            } else if (inFlight * 2 >= (int) limit) {
+                limit = Math.min(maxConcurrency, limit + 1 / limit);
+            }
+            inFlight--;
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Libère une place sans toucher à la limite.
+    private void returnSlot() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Dernières latences réussies, pour la détection de surcharge et le délai de couverture ;
+    // les quantiles sont recalculés toutes les 16 observations. La médiane de référence est la
+    // plus petite médiane observée, relevée de 1 % par recalcul pour suivre une hausse durable.
+    private static final class LatencyWindow {
+
+        private final long[] samples = new long[WINDOW_SIZE];
+        private final long[] sorted = new long[WINDOW_SIZE];
+        private int count;
+        private int next;
+        private int unsorted;
+        private double baseline;
+
+        synchronized void add(long latency) {
+            samples[next] = latency;
+            next = (next + 1) % WINDOW_SIZE;
+            count = Math.min(WINDOW_SIZE, count + 1);
+            unsorted++;
+        }
+
+        // 0 tant que la fenêtre compte moins de MIN_SAMPLES observations.
+        synchronized long quantile(double q) {
+            if (count < MIN_SAMPLES) {
+                return 0;
+            }
+            if (unsorted >= 16 || count == MIN_SAMPLES && unsorted > 0) {
+                System.arraycopy(samples, 0, sorted, 0, count);
+                Arrays.sort(sorted, 0, count);
+                unsorted = 0;
+                long median = sorted[(count - 1) / 2];
+                baseline = baseline == 0 ? median : Math.min(median, baseline * 1.01);
+            }
+            return sorted[Math.min(count - 1, (int) Math.ceil(q * count) - 1)];
+        }
+
+        synchronized boolean congested(double tolerance) {
+            long median = quantile(0.5);
+            return median > 0 && median > tolerance * baseline;
+        }
+    }
+
+    public static class Builder {
+
+        private double permitsPerSecond;
+        private double burst = 1;
+        private int initialConcurrency = 8;
+        private int minConcurrency = 1;
+        private int maxConcurrency = 64;
+        private double latencyTolerance = 2.0;
+        private double backoffRatio = 0.7;
+        private int maxAttempts = 3;
+        private Duration baseBackoff = Duration.ofMillis(200);
+        private Duration maxBackoff = Duration.ofSeconds(5);
+        private boolean hedging;
+        private double hedgeQuantile = 0.95;
+        private double hedgeBudget = 0.1;
+        private MetricsSink sink = MetricsSink.NONE;
+
+        /**
+         * Débit maximal en requêtes par seconde (0, par défaut : illimité), et nombre de
+         * requêtes pouvant partir d'un coup après une période calme.
+         */
+        public Builder rateLimit(double permitsPerSecond, int burst) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+            return this;
+        }
+
+        /**
+         * Limite de concurrence initiale (8) et ses bornes (1 à 64).
+         */
+        public Builder concurrency(int initial, int min, int max) {
+            this.initialConcurrency = initial;
+            this.minConcurrency = min;
+            this.maxConcurrency = max;
+            return this;
+        }
+
+        /**
+         * Rapport entre la médiane récente des latences et la médiane de référence au-delà
+         * duquel les succès comptent comme un signal de surcharge (2.0).
+         */
+        public Builder latencyTolerance(double latencyTolerance) {
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        /**
+         * Facteur appliqué à la limite de concurrence sur un signal de surcharge (0.7).
+         */
+        public Builder backoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * Nombre total de tentatives par appel (3) ; 1 désactive les reprises.
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Bornes du backoff avant une reprise (200 ms, doublé à chaque tentative, plafonné à 5 s).
+         */
+        public Builder backoff(Duration base, Duration max) {
+            this.baseBackoff = base;
+            this.maxBackoff = max;
+            return this;
+        }
+
+        /**
+         * Active les requêtes de couverture, lancées après le quantile donné (0.95) des
+         * latences récentes, dans la limite de budget requêtes supplémentaires par appel (0.1).
+         */
+        public Builder hedging(double quantile, double budget) {
+            this.hedging = true;
+            this.hedgeQuantile = quantile;
+            this.hedgeBudget = budget;
+            return this;
+        }
+
+        public Builder metrics(MetricsSink sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        public ModelCallPolicy build() {
+            if (maxAttempts < 1 || minConcurrency < 1 || maxConcurrency < minConcurrency) {
+                throw new IllegalArgumentException("Politique d'appel invalide");
+            }
+            return new ModelCallPolicy(this);
+        }
+    }
+}
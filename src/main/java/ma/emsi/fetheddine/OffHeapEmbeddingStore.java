@@ -0,0 +1,365 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EmbeddingStore qui garde tous les vecteurs dans des buffers float hors du tas, par blocs
+ * de 1024 vecteurs : un ByteBuffer est limité à 2 Go (moins de 700 000 vecteurs de 768
+ * dimensions), et agrandir le store ajoute des blocs sans recopier les précédents.
+ * <p>
+ * Les vecteurs sont normalisés à l'insertion : le produit scalaire donne directement
+ * la similarité cosinus, convertie en score comme InMemoryEmbeddingStore
+ * (RelevanceScore.fromCosineSimilarity), donc maxResults et minScore gardent le même sens.
+ * La sélection du top-k passe par un tas de primitives de taille maxResults, propre à
+ * chaque recherche : rien n'est alloué en proportion du corpus, y compris quand chaque
+ * requête arrive sur un nouveau thread virtuel.
+ */
+public class OffHeapEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_VECTORS = 1 << CHUNK_SHIFT;
+    // Limite des tableaux Java, pour les métadonnées indexées par vecteur.
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> indexById = new HashMap<>();
+
+    // Vecteurs normalisés, par blocs de CHUNK_VECTORS.
+    private FloatBuffer[] chunks = new FloatBuffer[0];
+    private float[] norms = new float[0];
+    private String[] ids = new String[0];
+    private TextSegment[] segments = new TextSegment[0];
+    private int dimension;
+    private int size;
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = generateIds(embeddings.size());
+        addAll(ids, embeddings, null);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (chunks.length == 0) {
+                int first = embeddings.get(0).dimension();
+                if ((long) CHUNK_VECTORS * first * Float.BYTES > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Dimension " + first + " trop grande pour un bloc de "
+                            + CHUNK_VECTORS + " vecteurs (2 Go au plus)");
+                }
+                dimension = first;
+            }
+            if ((long) size + embeddings.size() > MAX_SIZE) {
+                throw new IllegalStateException("Store plein : " + size + " + " + embeddings.size()
+                        + " vecteurs dépasse " + MAX_SIZE);
+            }
+            ensureCapacity(size + embeddings.size());
+            for (int i = 0; i < embeddings.size(); i++) {
+                float[] vector = embeddings.get(i).vector();
+                if (vector.length != dimension) {
+                    throw new IllegalArgumentException("Dimension " + vector.length + " != " + dimension);
+                }
+                Integer existing = indexById.get(ids.get(i));
+                int index = existing != null ? existing : size++;
+                float norm = EmbeddingStoreSnapshot.norm(vector);
+                float inverse = norm == 0 ? 0 : 1 / norm;
+                FloatBuffer chunk = chunk(index);
+                int base = offset(index);
+                for (int d = 0; d < dimension; d++) {
+                    chunk.put(base + d, vector[d] * inverse);
+                }
+                norms[index] = norm;
+                this.ids[index] = ids.get(i);
+                this.segments[index] = segments == null ? null : segments.get(i);
+                indexById.put(ids.get(i), index);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                Integer index = indexById.remove(id);
+                if (index != null) {
+                    removeAt(index);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int i = size - 1; i >= 0; i--) {
+                if (segments[i] != null && filter.test(segments[i].metadata())) {
+                    indexById.remove(ids[i]);
+                    removeAt(i);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            indexById.clear();
+            Arrays.fill(ids, 0, size, null);
+            Arrays.fill(segments, 0, size, null);
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = request.queryEmbedding().vector();
+        float queryNorm = EmbeddingStoreSnapshot.norm(query);
+        if (queryNorm == 0) {
+            return new EmbeddingSearchResult<>(List.of());
+        }
+        // score >= minScore  <=>  cosinus >= 2 * minScore - 1 : on compare directement le produit scalaire.
+        float minDot = (float) (2 * request.minScore() - 1) * queryNorm;
+        Filter filter = request.filter();
+        TopK top = new TopK(request.maxResults());
+
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                FloatBuffer chunk = chunk(i);
+                int base = offset(i);
+                float dot = 0;
+                for (int d = 0; d < dimension; d++) {
+                    dot += query[d] * chunk.get(base + d);
+                }
+                if (dot < minDot || !top.accepts(dot)) {
+                    continue;
+                }
+                if (filter != null && (segments[i] == null || !filter.test(segments[i].metadata()))) {
+                    continue;
+                }
+                top.offer(i, dot);
+            }
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(top.size);
+            top.sortDescending();
+            for (int k = 0; k < top.size; k++) {
+                int index = top.indexes[k];
+                double cosine = top.scores[k] / queryNorm;
+                matches.add(new EmbeddingMatch<>(RelevanceScore.fromCosineSimilarity(cosine),
+                        ids[index], embedding(index), segments[index]));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Reconstruit le vecteur d'origine (non normalisé) pour l'EmbeddingMatch.
+    private Embedding embedding(int index) {
+        float[] vector = new float[dimension];
+        chunk(index).get(offset(index), vector);
+        float norm = norms[index];
+        for (int d = 0; d < dimension; d++) {
+            vector[d] *= norm;
+        }
+        return Embedding.from(vector);
+    }
+
+    // Supprime en déplaçant la dernière entrée dans le trou, pour garder le buffer compact.
+    private void removeAt(int index) {
+        int last = --size;
+        if (index != last) {
+            chunk(index).put(offset(index), chunk(last), offset(last), dimension);
+            norms[index] = norms[last];
+            ids[index] = ids[last];
+            segments[index] = segments[last];
+            indexById.put(ids[index], index);
+        }
+        ids[last] = null;
+        segments[last] = null;
+    }
+
+    private FloatBuffer chunk(int index) {
+        return chunks[index >>> CHUNK_SHIFT];
+    }
+
+    private int offset(int index) {
+        return (index & (CHUNK_VECTORS - 1)) * dimension;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > ids.length) {
+            int capacity = (int) Math.min(MAX_SIZE, Math.max(required, Math.max(INITIAL_CAPACITY, 2L * ids.length)));
+            norms = Arrays.copyOf(norms, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+        }
+        int requiredChunks = (int) (((long) required + CHUNK_VECTORS - 1) >>> CHUNK_SHIFT);
+        if (requiredChunks > chunks.length) {
+            int chunkBytes = CHUNK_VECTORS * dimension * Float.BYTES;
+            FloatBuffer[] grown = Arrays.copyOf(chunks, requiredChunks);
+            for (int c = chunks.length; c < requiredChunks; c++) {
+                grown[c] = ByteBuffer.allocateDirect(chunkBytes)
+                        .order(ByteOrder.nativeOrder())
+                        .asFloatBuffer();
+            }
+            chunks = grown;
+        }
+    }
+
+    /**
+     * Tas-min de taille k sur tableaux de primitives (aussi utilisé par Bm25Index et
+     * QuantizedEmbeddingStore, qui le réutilisent via reset).
+     */
+    static final class TopK {
+
+        int[] indexes;
+        float[] scores;
+        int capacity;
+        int size;
+
+        TopK() {
+            this(16);
+        }
+
+        TopK(int k) {
+            indexes = new int[k];
+            scores = new float[k];
+            capacity = k;
+        }
+
+        void reset(int k) {
+            if (indexes.length < k) {
+                indexes = new int[k];
+                scores = new float[k];
+            }
+            capacity = k;
+            size = 0;
+        }
+
+        // Avec k = 0, le tas reste vide : scores[0] n'est jamais lu.
+        boolean accepts(float score) {
+            return size < capacity || (size > 0 && score > scores[0]);
+        }
+
+        void offer(int index, float score) {
+            if (size < capacity) {
+                indexes[size] = index;
+                scores[size] = score;
+                siftUp(size++);
+            } else {
+                indexes[0] = index;
+                scores[0] = score;
+                siftDown(0, size);
+            }
+        }
+
+        // Tri en place par extraction successive du minimum (heapsort) : ordre décroissant.
+        void sortDescending() {
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= scores[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i, int limit) {
+            while (true) {
+                int left = 2 * i + 1;
+                if (left >= limit) {
+                    return;
+                }
+                int smallest = left + 1 < limit && scores[left + 1] < scores[left] ? left + 1 : left;
+                if (scores[i] <= scores[smallest]) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int index = indexes[a];
+            indexes[a] = indexes[b];
+            indexes[b] = index;
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Lecture d'un PDF page par page, sans construire le Document complet.
+ * <p>
+ * Tika produit le texte d'un PDF sous forme d'événements SAX, une {@code <div class="page">}
+ * par page, au fur et à mesure que PDFBox les extrait : chaque page est remise au
+ * PageConsumer dès sa fin. Le texte en mémoire est borné par la plus grande page (plus ce que
+ * le consommateur retient) ; seule la structure du PDF reste chargée par PDFBox.
+ * Si le consommateur bloque (file pleine), l'extraction attend avec lui.
+ */
+public final class PdfPageReader {
+
+    /**
+     * Métadonnée des segments : numéro de la page d'origine, à partir de 1.
+     */
+    public static final String PAGE_NUMBER = "page_number";
+
+    @FunctionalInterface
+    public interface PageConsumer {
+
+        void accept(int pageNumber, String text) throws InterruptedException;
+    }
+
+    private PdfPageReader() {
+    }
+
+    /**
+     * Remet chaque page non vide de file à consumer, dans l'ordre ; renvoie le nombre de pages.
+     */
+    public static int read(Path file, PageConsumer consumer) throws InterruptedException {
+        PageHandler handler = new PageHandler(consumer);
+        try (InputStream in = Files.newInputStream(file)) {
+            new AutoDetectParser().parse(in, handler, new org.apache.tika.metadata.Metadata(), new ParseContext());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lecture impossible : " + file, e);
+        } catch (SAXException e) {
+            if (e.getCause() instanceof InterruptedException interrupted) {
+                throw interrupted;
+            }
+            throw new IllegalStateException("Extraction du texte impossible : " + file, e);
+        } catch (TikaException e) {
+            throw new IllegalStateException("Extraction du texte impossible : " + file, e);
+        }
+        return handler.pages;
+    }
+
+    /**
+     * Document d'une seule page, avec les métadonnées de FileSystemDocumentLoader et le numéro
+     * de page, que le splitter recopie dans chaque segment.
+     */
+    public static Document pageDocument(Path file, int pageNumber, String text) {
+        Metadata metadata = new Metadata()
+                .put(Document.FILE_NAME, file.getFileName().toString())
+                .put(Document.ABSOLUTE_DIRECTORY_PATH, file.toAbsolutePath().getParent().toString())
+                .put(PAGE_NUMBER, pageNumber);
+        return Document.from(text, metadata);
+    }
+
+    private static final class PageHandler extends DefaultHandler {
+
+        private final PageConsumer consumer;
+        private final StringBuilder text = new StringBuilder();
+        // Profondeur des <div> ouvertes dans la page courante (0 : hors page).
+        private int depth;
+        private int pages;
+
+        PageHandler(PageConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if ("div".equals(localName)) {
+                if (depth > 0) {
+                    depth++;
+                } else if ("page".equals(attributes.getValue("class"))) {
+                    depth = 1;
+                    text.setLength(0);
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (depth == 0) {
+                return;
+            }
+            if ("p".equals(localName)) {
+                text.append('\n');
+            } else if ("div".equals(localName) && --depth == 0) {
+                pages++;
+                String page = text.toString().strip();
+                if (!page.isEmpty()) {
+                    try {
+                        consumer.accept(pages, page);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SAXException(e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (depth > 0) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) {
+            characters(ch, start, length);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.chat.listener.ChatModelErrorContext;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelRequestContext;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Instrumentation de chaque étape d'un tour RAG, par décorateurs qui envoient leurs
+ * mesures à un MetricsSink :
+ * <ul>
+ *     <li>{@link #embeddingModel} : rag_embedding_seconds, rag_embedding_segments</li>
+ *     <li>{@link #queryRouter} : rag_routing_seconds{route} (route = retrievers choisis, ou "none")</li>
+ *     <li>{@link #contentRetriever} : rag_retrieval_seconds, rag_retrieval_results et
+ *     rag_retrieval_score (un point par contenu renvoyé), par retriever</li>
+ *     <li>{@link #chatModelListener} : llm_request_seconds{model,outcome}, llm_input_tokens
+ *     (taille du prompt) et llm_output_tokens, d'après le TokenUsage renvoyé par le fournisseur</li>
+ * </ul>
+ * Rien n'est journalisé : on peut couper le niveau FINE de dev.langchain4j sans perdre
+ * la visibilité sur les latences.
+ */
+public final class PipelineMetrics {
+
+    private static final Object START_NANOS = new Object();
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Mesure chaque appel au modèle d'embedding (embedding de la question côté retriever).
+     */
+    public static EmbeddingModel embeddingModel(EmbeddingModel delegate, MetricsSink sink) {
+        return new EmbeddingModel() {
+            @Override
+            public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+                long start = System.nanoTime();
+                Response<List<Embedding>> response = delegate.embedAll(segments);
+                sink.record("rag_embedding_seconds", (System.nanoTime() - start) / 1e9);
+                sink.record("rag_embedding_segments", segments.size());
+                return response;
+            }
+
+            @Override
+            public int dimension() {
+                return delegate.dimension();
+            }
+        };
+    }
+
+    /**
+     * Mesure la décision de routage ; names donne le nom de chaque retriever pour le label route.
+     */
+    public static QueryRouter queryRouter(QueryRouter delegate, Map<ContentRetriever, String> names,
+                                          MetricsSink sink) {
+        return query -> {
+            long start = System.nanoTime();
+            Collection<ContentRetriever> routed = delegate.route(query);
+            StringJoiner route = new StringJoiner("+");
+            for (ContentRetriever retriever : routed) {
+                route.add(names.getOrDefault(retriever, "autre"));
+            }
+            sink.record("rag_routing_seconds", (System.nanoTime() - start) / 1e9,
+                    "route", routed.isEmpty() ? "none" : route.toString());
+            return routed;
+        };
+    }
+
+    /**
+     * Mesure la durée de recherche, le nombre de résultats et le score de chaque résultat.
+     */
+    public static ContentRetriever contentRetriever(String name, ContentRetriever delegate, MetricsSink sink) {
+        return new ContentRetriever() {
+            @Override
+            public List<Content> retrieve(Query query) {
+                long start = System.nanoTime();
+                List<Content> contents = delegate.retrieve(query);
+                sink.record("rag_retrieval_seconds", (System.nanoTime() - start) / 1e9, "retriever", name);
+                sink.record("rag_retrieval_results", contents.size(), "retriever", name);
+                for (Content content : contents) {
+                    if (content.metadata().get(ContentMetadata.SCORE) instanceof Number score) {
+                        sink.record("rag_retrieval_score", score.doubleValue(), "retriever", name);
+                    }
+                }
+                return contents;
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+
+    /**
+     * Listener à passer au builder du modèle de chat (listeners(...)), bloquant ou en streaming.
+     */
+    public static ChatModelListener chatModelListener(MetricsSink sink) {
+        return new ChatModelListener() {
+            @Override
+            public void onRequest(ChatModelRequestContext requestContext) {
+                requestContext.attributes().put(START_NANOS, System.nanoTime());
+            }
+
+            @Override
+            public void onResponse(ChatModelResponseContext responseContext) {
+                ChatResponse response = responseContext.chatResponse();
+                String model = response.modelName() != null ? response.modelName() : "inconnu";
+                if (responseContext.attributes().get(START_NANOS) instanceof Long start) {
+                    sink.record("llm_request_seconds", (System.nanoTime() - start) / 1e9,
+                            "model", model, "outcome", "ok");
+                }
+                TokenUsage usage = response.tokenUsage();
+                if (usage != null && usage.inputTokenCount() != null) {
+                    sink.record("llm_input_tokens", usage.inputTokenCount(), "model", model);
+                }
+                if (usage != null && usage.outputTokenCount() != null) {
+                    sink.record("llm_output_tokens", usage.outputTokenCount(), "model", model);
+                }
+            }
+
+            @Override
+            public void onError(ChatModelErrorContext errorContext) {
+                String model = errorContext.chatRequest() != null && errorContext.chatRequest().modelName() != null
+                        ? errorContext.chatRequest().modelName() : "inconnu";
+                if (errorContext.attributes().get(START_NANOS) instanceof Long start) {
+                    sink.record("llm_request_seconds", (System.nanoTime() - start) / 1e9,
+                            "model", model, "outcome", "error");
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,115 @@
+package ma.emsi.fetheddine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+
+/**
+ * Publie les histogrammes d'InProcessMetrics au format texte de Prometheus (version 0.0.4) :
+ * pour chaque série, les seaux cumulés _bucket{le="..."}, puis _sum et _count.
+ * <p>
+ * {@link #format} produit le texte ; {@link #start} l'expose sur GET /metrics avec le
+ * serveur HTTP du JDK, et {@link #handle} permet de l'ajouter à un serveur existant.
+ */
+public class PrometheusExporter implements AutoCloseable {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    private PrometheusExporter(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Démarre un serveur dédié exposant GET /metrics (port 0 : port libre, voir port()).
+     */
+    public static PrometheusExporter start(int port, InProcessMetrics metrics) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> handle(exchange, metrics));
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return new PrometheusExporter(server);
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    /**
+     * Répond à une requête de scrape avec l'état courant des métriques.
+     */
+    public static void handle(HttpExchange exchange, InProcessMetrics metrics) throws IOException {
+        try (exchange) {
+            byte[] body = format(metrics).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    public static String format(InProcessMetrics metrics) {
+        StringBuilder text = new StringBuilder();
+        String previousName = null;
+        for (InProcessMetrics.Series series : metrics.snapshot()) {
+            if (!series.name().equals(previousName)) {
+                text.append("# TYPE ").append(series.name()).append(" histogram\n");
+                previousName = series.name();
+            }
+            long cumulative = 0;
+            for (int i = 0; i < series.counts().length; i++) {
+                cumulative += series.counts()[i];
+                String le = i < series.upperBounds().length ? number(series.upperBounds()[i]) : "+Inf";
+                text.append(series.name()).append("_bucket");
+                labels(text, series.labels(), le);
+                text.append(' ').append(cumulative).append('\n');
+            }
+            text.append(series.name()).append("_sum");
+            labels(text, series.labels(), null);
+            text.append(' ').append(number(series.sum())).append('\n');
+            text.append(series.name()).append("_count");
+            labels(text, series.labels(), null);
+            text.append(' ').append(series.count()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void labels(StringBuilder text, List<String> labels, String le) {
+        if (labels.isEmpty() && le == null) {
+            return;
+        }
+        text.append('{');
+        for (int i = 0; i < labels.size(); i += 2) {
+            text.append(i == 0 ? "" : ",").append(labels.get(i)).append("=\"").append(escape(labels.get(i + 1))).append('"');
+        }
+        if (le != null) {
+            text.append(labels.isEmpty() ? "" : ",").append("le=\"").append(le).append('"');
+        }
+        text.append('}');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String number(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%.6g", value).replaceAll("\\.?0+(e|$)", "$1");
+    }
+}
@@ -0,0 +1,717 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * EmbeddingStore quantifié : seul un code compact de chaque vecteur reste sur le tas, les
+ * vecteurs float32 complets vont dans un fichier mappé en mémoire (le cache de pages du
+ * système, pas le tas) et ne sont relus que pour reclasser les meilleurs candidats.
+ * <ul>
+ *     <li>INT8 : quantification scalaire, un octet par dimension et un facteur d'échelle par
+ *     vecteur (768 + 4 octets au lieu de 3 072, soit x4). La question est quantifiée de même :
+ *     le balayage est un produit scalaire d'entiers. Il n'est vectorisé (VectorInt8Dot, AVX2
+ *     ou AVX-512) que si la JVM est lancée avec {@code --add-modules jdk.incubator.vector} ;
+ *     sinon la boucle scalaire reste à peu près au niveau du scan float32.</li>
+ *     <li>PQ : quantification par produit, le vecteur est découpé en pqSubspaces sous-vecteurs,
+ *     chacun remplacé par le numéro (un octet) de son centroïde le plus proche parmi 256
+ *     (x16 avec le défaut d'un sous-espace pour 4 dimensions). Le score approché est une
+ *     somme de pqSubspaces lectures dans une table calculée une fois par question.</li>
+ * </ul>
+ * Les dictionnaires PQ sont appris (k-means) automatiquement dès que le store atteint
+ * pqTrainingSize vecteurs, ou sur appel de {@link #train()} ; avant cela la recherche
+ * parcourt les vecteurs complets.
+ * <p>
+ * Une recherche sélectionne maxResults x rerankFactor candidats sur le score approché
+ * (filtre compris), puis calcule leur score exact : maxResults et minScore gardent le sens
+ * d'InMemoryEmbeddingStore, seul le rappel peut baisser si un résultat exact n'est pas
+ * parmi les candidats (voir QuantizationBenchmark).
+ */
+public class QuantizedEmbeddingStore implements EmbeddingStore<TextSegment>, Closeable {
+
+    public enum Encoding {
+        INT8, PQ
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_VECTORS = 1 << CHUNK_SHIFT;
+    private static final int CENTROIDS = 256;
+    private static final int KMEANS_ITERATIONS = 6;
+    private static final int POOLED_SCRATCH = 2 * Runtime.getRuntime().availableProcessors();
+    // Vérifié avant tout accès à VectorInt8Dot : sans le module, la classe n'est jamais chargée.
+    private static final boolean VECTOR_API = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && VectorInt8Dot.available();
+
+    private final Encoding encoding;
+    private final int rerankFactor;
+    private final int requestedSubspaces;
+    private final int pqTrainingSize;
+    private final Path file;
+    private final boolean deleteOnClose;
+    private final FileChannel channel;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> indexById = new HashMap<>();
+    // Tampons de recherche réutilisés ; un pool borné plutôt qu'un ThreadLocal, qui en
+    // allouerait un par thread virtuel (un par requête sous ChatServer).
+    private final BlockingQueue<Scratch> scratchPool = new ArrayBlockingQueue<>(POOLED_SCRATCH);
+
+    // Vecteurs normalisés complets, par blocs de CHUNK_VECTORS (un mapping est limité à 2 Go).
+    private FloatBuffer[] chunks = new FloatBuffer[0];
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[0];
+    private float[] norms = new float[0];
+    private String[] ids = new String[0];
+    private TextSegment[] segments = new TextSegment[0];
+    private int dimension;
+    private int codeSize;
+    private int subspaces;
+    private int subDimension;
+    // codebooks[(sous-espace * 256 + centroïde) * subDimension + d]
+    private float[] codebooks;
+    private int centroids;
+    private int size;
+
+    private QuantizedEmbeddingStore(Builder builder) {
+        this.encoding = builder.encoding;
+        this.rerankFactor = builder.rerankFactor > 0 ? builder.rerankFactor : (encoding == Encoding.INT8 ? 4 : 16);
+        this.requestedSubspaces = builder.pqSubspaces;
+        this.pqTrainingSize = builder.pqTrainingSize;
+        try {
+            this.deleteOnClose = builder.fullPrecisionFile == null;
+            this.file = deleteOnClose ? Files.createTempFile("quantized", ".vectors") : builder.fullPrecisionFile;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de créer le fichier des vecteurs complets", e);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Octets occupés sur le tas par les vecteurs quantifiés (codes, échelles, normes,
+     * dictionnaires PQ), hors identifiants et segments.
+     */
+    public long quantizedBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = (long) size * codeSize + (long) size * Float.BYTES;
+            if (encoding == Encoding.INT8) {
+                bytes += (long) size * Float.BYTES;
+            }
+            if (codebooks != null) {
+                bytes += (long) codebooks.length * Float.BYTES;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Octets des vecteurs complets dans le fichier mappé (hors tas).
+     */
+    public long fullPrecisionBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) size * dimension * Float.BYTES;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isTrained() {
+        lock.readLock().lock();
+        try {
+            return encoding == Encoding.INT8 || codebooks != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = generateIds(embeddings.size());
+        addAll(ids, embeddings, null);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        lock.writeLock().lock();
+        try {
+            if (dimension == 0 && !embeddings.isEmpty()) {
+                initialize(embeddings.get(0).dimension());
+            }
+            ensureCapacity(size + embeddings.size());
+            float[] normalized = new float[dimension];
+            for (int i = 0; i < embeddings.size(); i++) {
+                float[] vector = embeddings.get(i).vector();
+                if (vector.length != dimension) {
+                    throw new IllegalArgumentException("Dimension " + vector.length + " != " + dimension);
+                }
+                Integer existing = indexById.get(ids.get(i));
+                int index = existing != null ? existing : size++;
+                float norm = EmbeddingStoreSnapshot.norm(vector);
+                float inverse = norm == 0 ? 0 : 1 / norm;
+                for (int d = 0; d < dimension; d++) {
+                    normalized[d] = vector[d] * inverse;
+                }
+                chunk(index).put(offset(index), normalized);
+                encode(index, normalized);
+                norms[index] = norm;
+                this.ids[index] = ids.get(i);
+                this.segments[index] = segments == null ? null : segments.get(i);
+                indexById.put(ids.get(i), index);
+            }
+            if (encoding == Encoding.PQ && codebooks == null && size >= pqTrainingSize) {
+                trainLocked();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Apprend les dictionnaires PQ sur les vecteurs présents (au plus pqTrainingSize tirés
+     * au hasard) et encode tout le store ; sans effet en INT8. À appeler après l'ingestion
+     * d'un corpus plus petit que pqTrainingSize.
+     */
+    public void train() {
+        lock.writeLock().lock();
+        try {
+            if (encoding == Encoding.PQ && size > 0) {
+                trainLocked();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                Integer index = indexById.remove(id);
+                if (index != null) {
+                    removeAt(index);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int i = size - 1; i >= 0; i--) {
+                if (segments[i] != null && filter.test(segments[i].metadata())) {
+                    indexById.remove(ids[i]);
+                    removeAt(i);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            indexById.clear();
+            Arrays.fill(ids, 0, size, null);
+            Arrays.fill(segments, 0, size, null);
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = request.queryEmbedding().vector();
+        float queryNorm = EmbeddingStoreSnapshot.norm(query);
+        if (queryNorm == 0) {
+            return new EmbeddingSearchResult<>(List.of());
+        }
+        // score >= minScore  <=>  cosinus >= 2 * minScore - 1 (vecteurs du store normalisés).
+        float minDot = (float) (2 * request.minScore() - 1) * queryNorm;
+        Filter filter = request.filter();
+        Scratch scratch = scratchPool.poll();
+        if (scratch == null) {
+            scratch = new Scratch();
+        }
+
+        lock.readLock().lock();
+        try {
+            OffHeapEmbeddingStore.TopK exact = scratch.exact;
+            exact.reset(request.maxResults());
+            if (encoding == Encoding.PQ && codebooks == null) {
+                // Dictionnaires pas encore appris : parcours des vecteurs complets.
+                for (int i = 0; i < size; i++) {
+                    offerExact(exact, i, query, minDot, filter, scratch);
+                }
+            } else {
+                OffHeapEmbeddingStore.TopK approximate = scratch.approximate;
+                approximate.reset(Math.min(size, request.maxResults() * rerankFactor));
+                if (encoding == Encoding.INT8) {
+                    scanInt8(query, filter, scratch, approximate);
+                } else {
+                    scanPq(query, filter, scratch, approximate);
+                }
+                for (int k = 0; k < approximate.size; k++) {
+                    offerExact(exact, approximate.indexes[k], query, minDot, null, scratch);
+                }
+            }
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(exact.size);
+            exact.sortDescending();
+            for (int k = 0; k < exact.size; k++) {
+                int index = exact.indexes[k];
+                double cosine = exact.scores[k] / queryNorm;
+                matches.add(new EmbeddingMatch<>(RelevanceScore.fromCosineSimilarity(cosine),
+                        ids[index], embedding(index), segments[index]));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+            scratchPool.offer(scratch);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (encoding == Encoding.INT8 ? "INT8" : "PQ " + requestedSubspacesLabel()) + " rerank x" + rerankFactor;
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            chunks = new FloatBuffer[0];
+            channel.close();
+            if (deleteOnClose) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Produit scalaire entier question int8 x code int8, ramené à l'échelle du vecteur.
+    private void scanInt8(float[] query, Filter filter, Scratch scratch, OffHeapEmbeddingStore.TopK top) {
+        byte[] quantizedQuery = scratch.quantizedQuery(dimension);
+        quantize(query, quantizedQuery, 0);
+        for (int i = 0; i < size; i++) {
+            float score = dot(quantizedQuery, codes, i * dimension) * scales[i];
+            if (!top.accepts(score)) {
+                continue;
+            }
+            if (filter != null && (segments[i] == null || !filter.test(segments[i].metadata()))) {
+                continue;
+            }
+            top.offer(i, score);
+        }
+    }
+
+    private static int dot(byte[] query, byte[] codes, int base) {
+        if (VECTOR_API) {
+            return VectorInt8Dot.dot(query, codes, base);
+        }
+        int dot = 0;
+        for (int d = 0; d < query.length; d++) {
+            dot += query[d] * codes[base + d];
+        }
+        return dot;
+    }
+
+    // Distance asymétrique : la question reste en float, une table par sous-espace donne
+    // son produit scalaire avec chacun des 256 centroïdes.
+    private void scanPq(float[] query, Filter filter, Scratch scratch, OffHeapEmbeddingStore.TopK top) {
+        float[] table = scratch.table(subspaces * CENTROIDS);
+        for (int s = 0; s < subspaces; s++) {
+            for (int c = 0; c < CENTROIDS; c++) {
+                int centroid = (s * CENTROIDS + c) * subDimension;
+                float dot = 0;
+                for (int d = 0; d < subDimension; d++) {
+                    dot += query[s * subDimension + d] * codebooks[centroid + d];
+                }
+                table[s * CENTROIDS + c] = dot;
+            }
+        }
+        byte[] codes = this.codes;
+        for (int i = 0; i < size; i++) {
+            int base = i * subspaces;
+            float score = 0;
+            for (int s = 0; s < subspaces; s++) {
+                score += table[(s << 8) + (codes[base + s] & 0xFF)];
+            }
+            if (!top.accepts(score)) {
+                continue;
+            }
+            if (filter != null && (segments[i] == null || !filter.test(segments[i].metadata()))) {
+                continue;
+            }
+            top.offer(i, score);
+        }
+    }
+
+    private void offerExact(OffHeapEmbeddingStore.TopK top, int index, float[] query, float minDot, Filter filter,
+                            Scratch scratch) {
+        float[] vector = scratch.vector(dimension);
+        chunk(index).get(offset(index), vector);
+        float dot = 0;
+        for (int d = 0; d < dimension; d++) {
+            dot += query[d] * vector[d];
+        }
+        if (dot < minDot || !top.accepts(dot)) {
+            return;
+        }
+        if (filter != null && (segments[index] == null || !filter.test(segments[index].metadata()))) {
+            return;
+        }
+        top.offer(index, dot);
+    }
+
+    private String requestedSubspacesLabel() {
+        return subspaces > 0 ? "m=" + subspaces : requestedSubspaces > 0 ? "m=" + requestedSubspaces : "m=dim/4";
+    }
+
+    private void initialize(int dimension) {
+        this.dimension = dimension;
+        if (encoding == Encoding.INT8) {
+            codeSize = dimension;
+            return;
+        }
+        subspaces = requestedSubspaces > 0 ? requestedSubspaces : dimension / Math.min(4, dimension);
+        if (subspaces > dimension || dimension % subspaces != 0) {
+            throw new IllegalArgumentException("pqSubspaces (" + subspaces + ") doit diviser la dimension " + dimension);
+        }
+        subDimension = dimension / subspaces;
+        codeSize = subspaces;
+    }
+
+    private void encode(int index, float[] normalized) {
+        if (encoding == Encoding.INT8) {
+            scales[index] = quantize(normalized, codes, index * codeSize);
+        } else if (codebooks != null) {
+            encodePq(normalized, index * codeSize);
+        }
+    }
+
+    // Quantification symétrique sur [-127, 127] ; renvoie le pas (valeur d'une unité).
+    private static float quantize(float[] vector, byte[] target, int offset) {
+        float max = 0;
+        for (float value : vector) {
+            max = Math.max(max, Math.abs(value));
+        }
+        float scale = max == 0 ? 0 : max / 127;
+        float inverse = max == 0 ? 0 : 127 / max;
+        for (int d = 0; d < vector.length; d++) {
+            target[offset + d] = (byte) Math.round(vector[d] * inverse);
+        }
+        return scale;
+    }
+
+    private void encodePq(float[] normalized, int offset) {
+        for (int s = 0; s < subspaces; s++) {
+            codes[offset + s] = (byte) nearest(codebooks, centroids, normalized, s * subDimension, s);
+        }
+    }
+
+    private int nearest(float[] codebooks, int centroids, float[] vector, int from, int subspace) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < centroids; c++) {
+            int centroid = (subspace * CENTROIDS + c) * subDimension;
+            float distance = 0;
+            for (int d = 0; d < subDimension; d++) {
+                float delta = vector[from + d] - codebooks[centroid + d];
+                distance += delta * delta;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    // k-means par sous-espace (en parallèle, les sous-espaces sont indépendants),
+    // initialisé sur des vecteurs tirés au hasard.
+    private void trainLocked() {
+        int sampleSize = Math.min(size, pqTrainingSize);
+        int[] sample = new Random(42).ints(0, size).distinct().limit(sampleSize).toArray();
+        float[][] vectors = new float[sampleSize][dimension];
+        for (int n = 0; n < sampleSize; n++) {
+            chunk(sample[n]).get(offset(sample[n]), vectors[n]);
+        }
+        int centroids = Math.min(CENTROIDS, sampleSize);
+        float[] trained = new float[subspaces * CENTROIDS * subDimension];
+        IntStream.range(0, subspaces).parallel().forEach(s -> {
+            Random random = new Random(42 + s);
+            int from = s * subDimension;
+            int[] assignment = new int[sampleSize];
+            int[] counts = new int[centroids];
+            for (int c = 0; c < centroids; c++) {
+                System.arraycopy(vectors[c], from, trained, (s * CENTROIDS + c) * subDimension, subDimension);
+            }
+            for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+                for (int n = 0; n < sampleSize; n++) {
+                    assignment[n] = nearest(trained, centroids, vectors[n], from, s);
+                }
+                Arrays.fill(counts, 0);
+                Arrays.fill(trained, s * CENTROIDS * subDimension, (s * CENTROIDS + centroids) * subDimension, 0);
+                for (int n = 0; n < sampleSize; n++) {
+                    int centroid = (s * CENTROIDS + assignment[n]) * subDimension;
+                    counts[assignment[n]]++;
+                    for (int d = 0; d < subDimension; d++) {
+                        trained[centroid + d] += vectors[n][from + d];
+                    }
+                }
+                for (int c = 0; c < centroids; c++) {
+                    int centroid = (s * CENTROIDS + c) * subDimension;
+                    if (counts[c] == 0) {
+                        // Centroïde vide : repris sur un vecteur au hasard.
+                        System.arraycopy(vectors[random.nextInt(sampleSize)], from, trained, centroid, subDimension);
+                        continue;
+                    }
+                    for (int d = 0; d < subDimension; d++) {
+                        trained[centroid + d] /= counts[c];
+                    }
+                }
+            }
+        });
+        this.codebooks = trained;
+        this.centroids = centroids;
+        float[] vector = new float[dimension];
+        for (int i = 0; i < size; i++) {
+            chunk(i).get(offset(i), vector);
+            encodePq(vector, i * codeSize);
+        }
+    }
+
+    // Reconstruit le vecteur d'origine (non normalisé) pour l'EmbeddingMatch.
+    private Embedding embedding(int index) {
+        float[] vector = new float[dimension];
+        chunk(index).get(offset(index), vector);
+        float norm = norms[index];
+        for (int d = 0; d < dimension; d++) {
+            vector[d] *= norm;
+        }
+        return Embedding.from(vector);
+    }
+
+    // Supprime en déplaçant la dernière entrée dans le trou, pour garder les tableaux compacts.
+    private void removeAt(int index) {
+        int last = --size;
+        if (index != last) {
+            float[] vector = new float[dimension];
+            chunk(last).get(offset(last), vector);
+            chunk(index).put(offset(index), vector);
+            System.arraycopy(codes, last * codeSize, codes, index * codeSize, codeSize);
+            if (encoding == Encoding.INT8) {
+                scales[index] = scales[last];
+            }
+            norms[index] = norms[last];
+            ids[index] = ids[last];
+            segments[index] = segments[last];
+            indexById.put(ids[index], index);
+        }
+        ids[last] = null;
+        segments[last] = null;
+    }
+
+    private FloatBuffer chunk(int index) {
+        return chunks[index >>> CHUNK_SHIFT];
+    }
+
+    private int offset(int index) {
+        return (index & (CHUNK_VECTORS - 1)) * dimension;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > ids.length) {
+            int capacity = Math.max(required, Math.max(INITIAL_CAPACITY, ids.length * 2));
+            if ((long) capacity * codeSize > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Store quantifié trop volumineux (> 2 Go de codes)");
+            }
+            codes = Arrays.copyOf(codes, capacity * codeSize);
+            scales = Arrays.copyOf(scales, encoding == Encoding.INT8 ? capacity : 0);
+            norms = Arrays.copyOf(norms, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+        }
+        int requiredChunks = (required + CHUNK_VECTORS - 1) >>> CHUNK_SHIFT;
+        if (requiredChunks > chunks.length) {
+            long chunkBytes = (long) CHUNK_VECTORS * dimension * Float.BYTES;
+            FloatBuffer[] grown = Arrays.copyOf(chunks, requiredChunks);
+            try {
+                for (int c = chunks.length; c < requiredChunks; c++) {
+                    grown[c] = channel.map(FileChannel.MapMode.READ_WRITE, c * chunkBytes, chunkBytes)
+                            .order(ByteOrder.nativeOrder())
+                            .asFloatBuffer();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Impossible d'agrandir le fichier des vecteurs complets", e);
+            }
+            chunks = grown;
+        }
+    }
+
+    private static final class Scratch {
+
+        final OffHeapEmbeddingStore.TopK approximate = new OffHeapEmbeddingStore.TopK();
+        final OffHeapEmbeddingStore.TopK exact = new OffHeapEmbeddingStore.TopK();
+        private byte[] quantizedQuery = new byte[0];
+        private float[] table = new float[0];
+        private float[] vector = new float[0];
+
+        byte[] quantizedQuery(int length) {
+            if (quantizedQuery.length != length) {
+                quantizedQuery = new byte[length];
+            }
+            return quantizedQuery;
+        }
+
+        float[] table(int length) {
+            if (table.length != length) {
+                table = new float[length];
+            }
+            return table;
+        }
+
+        float[] vector(int length) {
+            if (vector.length != length) {
+                vector = new float[length];
+            }
+            return vector;
+        }
+    }
+
+    public static class Builder {
+
+        private Encoding encoding = Encoding.INT8;
+        private int rerankFactor;
+        private int pqSubspaces;
+        private int pqTrainingSize = 4096;
+        private Path fullPrecisionFile;
+
+        public Builder encoding(Encoding encoding) {
+            this.encoding = encoding;
+            return this;
+        }
+
+        /**
+         * Candidats reclassés en pleine précision, en multiple de maxResults
+         * (défaut : 4 en INT8, 16 en PQ).
+         */
+        public Builder rerankFactor(int rerankFactor) {
+            this.rerankFactor = rerankFactor;
+            return this;
+        }
+
+        /**
+         * Nombre de sous-vecteurs PQ, diviseur de la dimension (défaut : dimension / 4).
+         * Chaque vecteur occupe pqSubspaces octets.
+         */
+        public Builder pqSubspaces(int pqSubspaces) {
+            this.pqSubspaces = pqSubspaces;
+            return this;
+        }
+
+        /**
+         * Nombre de vecteurs au-delà duquel les dictionnaires PQ sont appris (et taille de
+         * l'échantillon d'apprentissage).
+         */
+        public Builder pqTrainingSize(int pqTrainingSize) {
+            this.pqTrainingSize = pqTrainingSize;
+            return this;
+        }
+
+        /**
+         * Fichier des vecteurs complets ; par défaut un fichier temporaire supprimé par close().
+         */
+        public Builder fullPrecisionFile(Path fullPrecisionFile) {
+            this.fullPrecisionFile = fullPrecisionFile;
+            return this;
+        }
+
+        public QuantizedEmbeddingStore build() {
+            if (encoding == null) {
+                throw new IllegalStateException("encoding est requis");
+            }
+            if (pqTrainingSize < 1) {
+                throw new IllegalArgumentException("pqTrainingSize doit être >= 1");
+            }
+            return new QuantizedEmbeddingStore(this);
+        }
+    }
+}
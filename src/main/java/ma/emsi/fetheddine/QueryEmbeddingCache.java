@@ -0,0 +1,182 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Décorateur d'EmbeddingModel pour les questions : un texte déjà embeddé n'est pas renvoyé
+ * au modèle. À partager entre tous les retrievers et routeurs d'un même pipeline, pour
+ * qu'une question soit embeddée une seule fois par tour, puis réutilisée aux tours suivants.
+ * <p>
+ * Borné en nombre d'entrées (éviction LRU), en mémoire seulement : contrairement à
+ * CachingEmbeddingModel, pensé pour les segments à ingérer, rien n'est écrit sur disque.
+ * Les demandes simultanées d'un même texte (retrievers interrogés en parallèle par
+ * DefaultRetrievalAugmentor) sont fusionnées : un seul appel au modèle, les autres
+ * threads attendent son résultat. Un échec du modèle n'est pas mis en cache.
+ * <p>
+ * Chaque texte demandé est compté dans query_embedding_cache_lookups{result} avec
+ * result = hit, miss ou coalesced (attente d'un appel déjà en cours).
+ */
+public class QueryEmbeddingCache implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final int maxEntries;
+    private final MetricsSink sink;
+    private final LinkedHashMap<String, Embedding> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Embedding>> inFlight = new HashMap<>();
+
+    private long hits;
+    private long misses;
+    private long coalesced;
+    private long evictions;
+
+    /**
+     * @param delegate   Le modèle réellement appelé pour les textes inconnus.
+     * @param maxEntries Nombre maximal de textes gardés avant éviction du moins récemment utilisé.
+     */
+    public QueryEmbeddingCache(EmbeddingModel delegate, int maxEntries) {
+        this(delegate, maxEntries, MetricsSink.NONE);
+    }
+
+    public QueryEmbeddingCache(EmbeddingModel delegate, int maxEntries, MetricsSink sink) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.sink = sink;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        Embedding[] embeddings = new Embedding[segments.size()];
+        Map<Integer, CompletableFuture<Embedding>> waiting = new HashMap<>();
+        Map<String, CompletableFuture<Embedding>> owned = new LinkedHashMap<>();
+        List<TextSegment> missing = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+
+        synchronized (this) {
+            for (int i = 0; i < segments.size(); i++) {
+                String text = segments.get(i).text();
+                Embedding cached = entries.get(text);
+                if (cached != null) {
+                    embeddings[i] = cached;
+                    hits++;
+                    sink.record("query_embedding_cache_lookups", 1, "result", "hit");
+                    continue;
+                }
+                CompletableFuture<Embedding> pending = inFlight.get(text);
+                if (pending == null) {
+                    pending = owned.get(text);
+                }
+                if (pending != null) {
+                    waiting.put(i, pending);
+                    coalesced++;
+                    sink.record("query_embedding_cache_lookups", 1, "result", "coalesced");
+                    continue;
+                }
+                CompletableFuture<Embedding> future = new CompletableFuture<>();
+                inFlight.put(text, future);
+                owned.put(text, future);
+                missing.add(segments.get(i));
+                missingIndexes.add(i);
+                misses++;
+                sink.record("query_embedding_cache_lookups", 1, "result", "miss");
+            }
+        }
+
+        // L'appel au modèle se fait hors du verrou : les autres textes restent servis pendant ce temps.
+        if (!missing.isEmpty()) {
+            List<Embedding> computed;
+            try {
+                computed = delegate.embedAll(missing).content();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    owned.keySet().forEach(inFlight::remove);
+                }
+                owned.values().forEach(future -> future.completeExceptionally(e));
+                throw e;
+            }
+            synchronized (this) {
+                for (int i = 0; i < computed.size(); i++) {
+                    String text = missing.get(i).text();
+                    embeddings[missingIndexes.get(i)] = computed.get(i);
+                    entries.put(text, computed.get(i));
+                    inFlight.remove(text);
+                }
+                Iterator<String> eldest = entries.keySet().iterator();
+                while (entries.size() > maxEntries) {
+                    eldest.next();
+                    eldest.remove();
+                    evictions++;
+                }
+            }
+            for (int i = 0; i < computed.size(); i++) {
+                owned.get(missing.get(i).text()).complete(computed.get(i));
+            }
+        }
+
+        for (Map.Entry<Integer, CompletableFuture<Embedding>> entry : waiting.entrySet()) {
+            try {
+                embeddings[entry.getKey()] = entry.getValue().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+        return Response.from(List.of(embeddings));
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long coalesced() {
+        return coalesced;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Part des textes servis sans appel au modèle (cache ou appel déjà en cours).
+     */
+    public synchronized double hitRate() {
+        long lookups = hits + coalesced + misses;
+        return lookups == 0 ? 0 : (double) (hits + coalesced) / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entrées, %d hits, %d fusionnés, %d misses (%.0f %%), %d évictions",
+                entries.size(), hits, coalesced, misses, 100 * hitRate(), evictions);
+    }
+}
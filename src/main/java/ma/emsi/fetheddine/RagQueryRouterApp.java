@@ -6,13 +6,15 @@ import dev.langchain4j.data.document.DocumentSplitter;
 import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
 import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
 import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 // Imports pour le modèle Google AI Embedding
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiEmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiStreamingChatModel;
 import dev.langchain4j.model.input.PromptTemplate;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
@@ -24,14 +26,16 @@ import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 // Import pour EmbeddingStoreIngestor
 import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.logging.ConsoleHandler;
@@ -83,7 +87,7 @@ public class RagQueryRouterApp {
         Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
 
         DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
+        EmbeddingStore<TextSegment> embeddingStore = new OffHeapEmbeddingStore();
 
         // Utilisation de EmbeddingStoreIngestor (cohérent avec TestRoutage.java)
         EmbeddingStoreIngestor ingestor = EmbeddingStoreIngestor.builder()
@@ -100,11 +104,15 @@ public class RagQueryRouterApp {
 
     /**
      * Inner class implementing the custom QueryRouter.
+     * When built with an embedding model and a {@link SemanticCache}, a query close enough
+     * to a previously routed one reuses that decision instead of calling the LLM.
      */
     static class TopicBasedQueryRouter implements QueryRouter {
 
         private final ChatModel chatModel;
         private final ContentRetriever documentRetriever;
+        private final EmbeddingModel embeddingModel;
+        private final SemanticCache<Boolean> decisionCache;
 
         // Prompt Template en français (cohérent avec TestPasDeRag.java)
         private final PromptTemplate routingPromptTemplate = PromptTemplate.from(
@@ -113,17 +121,39 @@ public class RagQueryRouterApp {
         );
 
         public TopicBasedQueryRouter(ChatModel chatModel, ContentRetriever documentRetriever) {
+            this(chatModel, documentRetriever, null, null);
+        }
+
+        public TopicBasedQueryRouter(ChatModel chatModel, ContentRetriever documentRetriever,
+                                     EmbeddingModel embeddingModel, SemanticCache<Boolean> decisionCache) {
             this.chatModel = chatModel;
             this.documentRetriever = documentRetriever;
+            this.embeddingModel = embeddingModel;
+            this.decisionCache = decisionCache;
         }
 
         @Override
         public Collection<ContentRetriever> route(Query query) {
+            Embedding queryEmbedding = null;
+            if (decisionCache != null) {
+                queryEmbedding = embeddingModel.embed(query.text()).content();
+                Boolean cached = decisionCache.get(queryEmbedding);
+                if (cached != null) {
+                    System.out.println("Routage : " + (cached ? "[RAG] activé" : "Pas de RAG activé")
+                            + ". (Décision en cache : " + decisionCache + ")");
+                    return cached ? Collections.singletonList(documentRetriever) : Collections.emptyList();
+                }
+            }
+
             String prompt = routingPromptTemplate.apply(Map.of("query", query.text())).text();
             String decision = chatModel.chat(prompt);
+            boolean useRag = decision.toLowerCase().trim().contains("oui");
+            if (decisionCache != null) {
+                decisionCache.put(queryEmbedding, useRag);
+            }
 
             // Logs en français (cohérent avec TestPasDeRag.java)
-            if (decision.toLowerCase().trim().contains("oui")) {
+            if (useRag) {
                 System.out.println("Routage : [RAG] activé. (Réponse LLM: " + decision + ")");
                 return Collections.singletonList(documentRetriever);
             } else {
@@ -142,43 +172,106 @@ public class RagQueryRouterApp {
             return;
         }
 
+        // Per-stage latency, score and token histograms, printed at the end and served on /metrics
+        InProcessMetrics metrics = new InProcessMetrics();
+
         // --- PHASE 1: MODEL INITIALIZATION ---
-        ChatModel chatLlm = GoogleAiGeminiChatModel.builder()
+        // Rate limit, adaptive concurrency and retries are handled by ModelCallPolicy, so the
+        // Gemini clients do not retry on their own. The routing call is short and cheap: a slow
+        // one is hedged with a second request after the p95 latency.
+        ModelCallPolicy chatPolicy = ModelCallPolicy.builder()
+                .rateLimit(5, 5)
+                .concurrency(4, 1, 16)
+                .hedging(0.95, 0.1)
+                .metrics(metrics)
+                .build();
+        ModelCallPolicy embeddingPolicy = ModelCallPolicy.builder()
+                .rateLimit(25, 10)
+                .metrics(metrics)
+                .build();
+        ChatModel chatLlm = chatPolicy.chatModel(GoogleAiGeminiChatModel.builder()
+                .apiKey(llmKey)
+                .modelName("gemini-2.5-flash")
+                .temperature(0.3)
+                .maxRetries(0)
+                .logRequests(true)
+                .logResponses(true)
+                .listeners(List.of(PipelineMetrics.chatModelListener(metrics)))
+                .build());
+
+        // Streaming model for the answers; the routing decision above stays a blocking call.
+        StreamingChatModel streamingLlm = GoogleAiGeminiStreamingChatModel.builder()
                 .apiKey(llmKey)
                 .modelName("gemini-2.5-flash")
                 .temperature(0.3)
                 .logRequests(true)
                 .logResponses(true)
+                .listeners(List.of(PipelineMetrics.chatModelListener(metrics)))
                 .build();
 
         // **Modèle d'embedding "revert" vers GoogleAiEmbeddingModel**
-        EmbeddingModel docEmbeddingModel = GoogleAiEmbeddingModel.builder()
+        EmbeddingModel docEmbeddingModel = embeddingPolicy.embeddingModel(GoogleAiEmbeddingModel.builder()
                 .apiKey(llmKey)
                 .modelName("text-embedding-004")
-                .build();
+                .maxRetries(0)
+                .build());
 
         // --- PHASE 2: INGESTION ---
-        EmbeddingStore<TextSegment> ragDocumentStore = ingestDocument("rag.pdf", docEmbeddingModel);
+        // The on-disk cache means only new or modified segments are sent to the embedding API.
+        CachingEmbeddingModel cachedEmbeddingModel = new CachingEmbeddingModel(docEmbeddingModel,
+                Paths.get(".cache", "embeddings.bin"),
+                CachingEmbeddingModel.namespace("text-embedding-004", 300, 30));
+        // Flushes the last cached vectors to disk on exit, including Ctrl-C
+        Runtime.getRuntime().addShutdownHook(new Thread(cachedEmbeddingModel::close));
+        EmbeddingStore<TextSegment> ragDocumentStore = ingestDocument("rag.pdf", cachedEmbeddingModel);
 
         // --- PHASE 3: RAG PIPELINE SETUP ---
-        ContentRetriever documentContentRetriever = EmbeddingStoreContentRetriever.builder()
-                .embeddingStore(ragDocumentStore)
-                .embeddingModel(docEmbeddingModel)
-                .maxResults(2)
-                .build();
+        // The router and the retriever share one embedding per question; repeated questions are not re-embedded.
+        QueryEmbeddingCache queryEmbeddingModel = new QueryEmbeddingCache(
+                PipelineMetrics.embeddingModel(docEmbeddingModel, metrics), 1000, metrics);
+        ContentRetriever documentContentRetriever = PipelineMetrics.contentRetriever("rag",
+                EmbeddingStoreContentRetriever.builder()
+                        .embeddingStore(ragDocumentStore)
+                        .embeddingModel(queryEmbeddingModel)
+                        .maxResults(2)
+                        .build(),
+                metrics);
 
-        QueryRouter topicRouter = new TopicBasedQueryRouter(chatLlm, documentContentRetriever);
+        // Near-duplicate questions (cosine >= 0.92) reuse the previous routing decision for up to an hour.
+        SemanticCache<Boolean> routingCache = new SemanticCache<>(0.92, 1000, Duration.ofHours(1));
+        // The document search starts while the LLM decides; it is cancelled when the answer is "non".
+        SpeculativeQueryRouter topicRouter = new SpeculativeQueryRouter(PipelineMetrics.queryRouter(
+                new TopicBasedQueryRouter(chatLlm, documentContentRetriever, queryEmbeddingModel, routingCache),
+                Map.of(documentContentRetriever, "rag"), metrics),
+                Map.of(documentContentRetriever, "rag"), metrics);
 
         RetrievalAugmentor ragAugmentor = DefaultRetrievalAugmentor.builder()
                 .queryRouter(topicRouter)
                 .build();
 
-        Assistant assistant = AiServices.builder(Assistant.class)
-                .chatModel(chatLlm)
-                .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+        // Token-bounded memory; older turns are summarized by the blocking LLM, off the request path
+        CompactingChatMemory chatMemory = CompactingChatMemory.builder()
+                .maxTokens(3000)
+                .summarizer(chatLlm)
+                .metrics(metrics)
+                .build();
+        StreamingAssistant assistant = AiServices.builder(StreamingAssistant.class)
+                .streamingChatModel(streamingLlm)
+                .chatMemory(chatMemory)
                 .retrievalAugmentor(ragAugmentor)
                 .build();
 
+        // Optional Prometheus scrape endpoint, e.g. METRICS_PORT=9464
+        String metricsPort = System.getenv("METRICS_PORT");
+        PrometheusExporter exporter = null;
+        if (metricsPort != null && !metricsPort.isEmpty()) {
+            try {
+                exporter = PrometheusExporter.start(Integer.parseInt(metricsPort), metrics);
+                System.out.println("Métriques Prometheus : http://localhost:" + exporter.port() + "/metrics");
+            } catch (IOException e) {
+                System.err.println("Exporteur Prometheus non démarré : " + e.getMessage());
+            }
+        }
 
         System.out.println("\nBonjour ! Je réponds aux questions sur le RAG (et ignore le reste).");
         Scanner scanner = new Scanner(System.in);
@@ -190,9 +283,20 @@ public class RagQueryRouterApp {
                 break;
             }
 
-            String reponse = assistant.chat(question);
-            System.out.println("Assistant : " + reponse);
+            StreamingConsole.chat(assistant, question, metrics);
         }
         scanner.close();
+        System.out.println("Cache de routage : " + routingCache);
+        System.out.println("Recherche anticipée : " + topicRouter);
+        System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel);
+        System.out.println("Appels au LLM : " + chatPolicy);
+        System.out.println("Appels au modèle d'embedding : " + embeddingPolicy);
+        System.out.println("Mémoire de conversation : " + chatMemory);
+        System.out.print("Métriques :\n" + metrics);
+        if (exporter != null) {
+            exporter.close();
+        }
+        chatPolicy.close();
+        embeddingPolicy.close();
     }
 }
\ No newline at end of file
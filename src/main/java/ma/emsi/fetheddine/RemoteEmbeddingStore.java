@@ -0,0 +1,517 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.ContainsString;
+import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsGreaterThan;
+import dev.langchain4j.store.embedding.filter.comparison.IsGreaterThanOrEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsIn;
+import dev.langchain4j.store.embedding.filter.comparison.IsLessThan;
+import dev.langchain4j.store.embedding.filter.comparison.IsLessThanOrEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsNotEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsNotIn;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import dev.langchain4j.store.embedding.filter.logical.Not;
+import dev.langchain4j.store.embedding.filter.logical.Or;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Client d'un EmbeddingStore servi par {@link ShardServer} dans un autre processus ou sur
+ * une autre machine, pour servir de shard distant à ShardedEmbeddingStore.
+ * <p>
+ * Protocole binaire (big-endian, une requête puis une réponse par connexion à la fois) :
+ * <pre>
+ * requête  : opération (octet), puis
+ *   ADD           count, count x (entrée, dimension, dimension x float32)
+ *   SEARCH        maxResults, minScore (float64), dimension, dimension x float32, 0 ou 1 + filtre
+ *   REMOVE        count, count x chaîne
+ *   REMOVE_ALL
+ *   REMOVE_FILTER filtre
+ * réponse  : statut (octet) ; OK puis, pour SEARCH, count x (score float64, entrée,
+ *            dimension, dimension x float32, dimension 0 sans vecteur) ; ERROR puis un message
+ * entrée   : 1 + entrée de la table annexe d'EmbeddingStoreSnapshot (id, texte, métadonnées)
+ *            ou 0 + id pour un vecteur sans segment
+ * chaîne   : longueur int32 + UTF-8
+ * filtre   : type (octet) puis, selon le type, clé + valeur (comparaisons, ContainsString),
+ *            clé + count + count x valeur (IsIn, IsNotIn), deux filtres (And, Or), un filtre (Not)
+ * valeur   : type (octet) + chaîne (String, UUID), int32, int64, float32 ou float64
+ * </pre>
+ * Les deux côtés refusent (IOException) une longueur ou un nombre négatif ou au-delà des
+ * bornes MAX_* avant d'allouer quoi que ce soit ; addAll découpe les gros lots en conséquence.
+ * Les connexions sont réutilisées d'un appel à l'autre ; une connexion en erreur est fermée.
+ * Les filtres de métadonnées de langchain4j (comparaisons, IsIn, IsNotIn, ContainsString,
+ * And, Or, Not) sont transmis et appliqués par le store distant ; un autre type de filtre
+ * lève IllegalArgumentException avant tout envoi. La profondeur d'un filtre reçu est bornée
+ * par MAX_FILTER_DEPTH.
+ */
+public class RemoteEmbeddingStore implements EmbeddingStore<TextSegment>, AutoCloseable {
+
+    static final byte ADD = 1;
+    static final byte SEARCH = 2;
+    static final byte REMOVE = 3;
+    static final byte REMOVE_ALL = 4;
+    static final byte REMOVE_FILTER = 5;
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    static final int MAX_COUNT = 1 << 16;
+    static final int MAX_DIMENSION = 1 << 16;
+    static final int MAX_STRING_BYTES = 1 << 16;
+    static final int MAX_ENTRY_BYTES = 16 << 20;
+    static final int MAX_FILTER_DEPTH = 64;
+
+    private static final byte EQUAL = 1;
+    private static final byte NOT_EQUAL = 2;
+    private static final byte GREATER = 3;
+    private static final byte GREATER_OR_EQUAL = 4;
+    private static final byte LESS = 5;
+    private static final byte LESS_OR_EQUAL = 6;
+    private static final byte IN = 7;
+    private static final byte NOT_IN = 8;
+    private static final byte CONTAINS = 9;
+    private static final byte AND = 10;
+    private static final byte OR = 11;
+    private static final byte NOT = 12;
+
+    private static final byte STRING = 1;
+    private static final byte UUID_VALUE = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte FLOAT = 5;
+    private static final byte DOUBLE = 6;
+
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+    private final InetSocketAddress address;
+    private final int timeoutMillis;
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+    public RemoteEmbeddingStore(String host, int port) {
+        this(host, port, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param timeout Délai maximal de connexion et d'attente de chaque réponse.
+     */
+    public RemoteEmbeddingStore(String host, int port, Duration timeout) {
+        this.address = new InetSocketAddress(host, port);
+        this.timeoutMillis = (int) timeout.toMillis();
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = generateIds(embeddings.size());
+        addAll(ids, embeddings, null);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        for (int from = 0; from < embeddings.size(); from += MAX_COUNT) {
+            int start = from;
+            int end = Math.min(embeddings.size(), from + MAX_COUNT);
+            call(ADD, out -> {
+                out.writeInt(end - start);
+                for (int i = start; i < end; i++) {
+                    writeEntry(out, ids.get(i), segments == null ? null : segments.get(i));
+                    writeVector(out, embeddings.get(i).vector());
+                }
+            }, in -> null);
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        List<String> list = List.copyOf(ids);
+        for (int from = 0; from < list.size(); from += MAX_COUNT) {
+            List<String> batch = list.subList(from, Math.min(list.size(), from + MAX_COUNT));
+            call(REMOVE, out -> {
+                out.writeInt(batch.size());
+                for (String id : batch) {
+                    writeString(out, id);
+                }
+            }, in -> null);
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("filter est obligatoire");
+        }
+        byte[] encoded = encodeFilter(filter);
+        call(REMOVE_FILTER, out -> out.write(encoded), in -> null);
+    }
+
+    @Override
+    public void removeAll() {
+        call(REMOVE_ALL, out -> {
+        }, in -> null);
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        if (request.maxResults() > MAX_COUNT) {
+            throw new IllegalArgumentException("maxResults au-delà de " + MAX_COUNT + " : " + request.maxResults());
+        }
+        byte[] filter = request.filter() == null ? null : encodeFilter(request.filter());
+        return call(SEARCH, out -> {
+            out.writeInt(request.maxResults());
+            out.writeDouble(request.minScore());
+            writeVector(out, request.queryEmbedding().vector());
+            out.writeByte(filter == null ? 0 : 1);
+            if (filter != null) {
+                out.write(filter);
+            }
+        }, in -> {
+            int count = readCount(in);
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                double score = in.readDouble();
+                Entry entry = readEntry(in);
+                float[] vector = readVector(in);
+                matches.add(new EmbeddingMatch<>(score, entry.id(),
+                        vector.length == 0 ? null : Embedding.from(vector), entry.segment()));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        });
+    }
+
+    @Override
+    public void close() {
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "shard distant " + address.getHostString() + ":" + address.getPort();
+    }
+
+    private <T> T call(byte operation, Writer request, Reader<T> response) {
+        Connection connection = idle.poll();
+        // Réutilisable seulement si l'échange est allé à son terme : une requête à moitié
+        // écrite ou une réponse à moitié lue désynchroniserait l'appel suivant.
+        boolean reusable = false;
+        try {
+            if (connection == null) {
+                connection = open();
+            }
+            connection.out.writeByte(operation);
+            request.write(connection.out);
+            connection.out.flush();
+            byte status = connection.in.readByte();
+            if (status != OK) {
+                String message = readString(connection.in);
+                reusable = true;
+                throw new IllegalStateException("Erreur du " + this + " : " + message);
+            }
+            T result = response.read(connection.in);
+            reusable = true;
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Appel au " + this + " impossible", e);
+        } finally {
+            if (connection != null) {
+                if (reusable) {
+                    idle.push(connection);
+                } else {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private Connection open() throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(address, timeoutMillis);
+        socket.setSoTimeout(timeoutMillis);
+        return new Connection(socket,
+                new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+    }
+
+    // Encodage partagé avec ShardServer.
+
+    static void writeEntry(DataOutputStream out, String id, TextSegment segment) throws IOException {
+        if (segment == null) {
+            out.writeByte(0);
+            writeString(out, id);
+        } else {
+            byte[] entry = EmbeddingStoreSnapshot.encodeEntry(id, segment);
+            out.writeByte(1);
+            out.writeInt(entry.length);
+            out.write(entry);
+        }
+    }
+
+    static Entry readEntry(DataInputStream in) throws IOException {
+        if (in.readByte() == 0) {
+            return new Entry(readString(in), null);
+        }
+        byte[] entry = new byte[readLength(in, MAX_ENTRY_BYTES, "entrée")];
+        in.readFully(entry);
+        ByteBuffer buffer = ByteBuffer.wrap(entry);
+        return new Entry(EmbeddingStoreSnapshot.readId(buffer, 0), EmbeddingStoreSnapshot.readSegment(buffer, 0));
+    }
+
+    static void writeVector(DataOutputStream out, float[] vector) throws IOException {
+        out.writeInt(vector.length);
+        for (float value : vector) {
+            out.writeFloat(value);
+        }
+    }
+
+    static float[] readVector(DataInputStream in) throws IOException {
+        float[] vector = new float[readLength(in, MAX_DIMENSION, "dimension")];
+        for (int d = 0; d < vector.length; d++) {
+            vector[d] = in.readFloat();
+        }
+        return vector;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in, MAX_STRING_BYTES, "chaîne")];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encode filter ; IllegalArgumentException pour un type de filtre ou de valeur non transmis.
+     */
+    static byte[] encodeFilter(Filter filter) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeFilter(new DataOutputStream(bytes), filter, 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeFilter(DataOutputStream out, Filter filter, int depth) throws IOException {
+        if (depth > MAX_FILTER_DEPTH) {
+            throw new IllegalArgumentException("Filtre trop profond (max " + MAX_FILTER_DEPTH + ")");
+        }
+        switch (filter) {
+            case IsEqualTo f -> writeComparison(out, EQUAL, f.key(), f.comparisonValue());
+            case IsNotEqualTo f -> writeComparison(out, NOT_EQUAL, f.key(), f.comparisonValue());
+            case IsGreaterThan f -> writeComparison(out, GREATER, f.key(), f.comparisonValue());
+            case IsGreaterThanOrEqualTo f -> writeComparison(out, GREATER_OR_EQUAL, f.key(), f.comparisonValue());
+            case IsLessThan f -> writeComparison(out, LESS, f.key(), f.comparisonValue());
+            case IsLessThanOrEqualTo f -> writeComparison(out, LESS_OR_EQUAL, f.key(), f.comparisonValue());
+            case IsIn f -> writeValues(out, IN, f.key(), f.comparisonValues());
+            case IsNotIn f -> writeValues(out, NOT_IN, f.key(), f.comparisonValues());
+            case ContainsString f -> writeComparison(out, CONTAINS, f.key(), f.comparisonValue());
+            case And f -> {
+                out.writeByte(AND);
+                writeFilter(out, f.left(), depth + 1);
+                writeFilter(out, f.right(), depth + 1);
+            }
+            case Or f -> {
+                out.writeByte(OR);
+                writeFilter(out, f.left(), depth + 1);
+                writeFilter(out, f.right(), depth + 1);
+            }
+            case Not f -> {
+                out.writeByte(NOT);
+                writeFilter(out, f.expression(), depth + 1);
+            }
+            default -> throw new IllegalArgumentException("Filtre non transmis au shard distant : "
+                    + filter.getClass().getName());
+        }
+    }
+
+    private static void writeComparison(DataOutputStream out, byte type, String key, Object value) throws IOException {
+        out.writeByte(type);
+        writeString(out, key);
+        writeValue(out, value);
+    }
+
+    private static void writeValues(DataOutputStream out, byte type, String key, Collection<?> values)
+            throws IOException {
+        if (values.size() > MAX_COUNT) {
+            throw new IllegalArgumentException("Plus de " + MAX_COUNT + " valeurs dans le filtre : " + values.size());
+        }
+        out.writeByte(type);
+        writeString(out, key);
+        out.writeInt(values.size());
+        for (Object value : values) {
+            writeValue(out, value);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        switch (value) {
+            case String v -> {
+                out.writeByte(STRING);
+                writeString(out, v);
+            }
+            case UUID v -> {
+                out.writeByte(UUID_VALUE);
+                writeString(out, v.toString());
+            }
+            case Integer v -> {
+                out.writeByte(INTEGER);
+                out.writeInt(v);
+            }
+            case Long v -> {
+                out.writeByte(LONG);
+                out.writeLong(v);
+            }
+            case Float v -> {
+                out.writeByte(FLOAT);
+                out.writeFloat(v);
+            }
+            case Double v -> {
+                out.writeByte(DOUBLE);
+                out.writeDouble(v);
+            }
+            case null, default -> throw new IllegalArgumentException("Valeur de filtre non transmise : " + value);
+        }
+    }
+
+    static Filter readFilter(DataInputStream in) throws IOException {
+        return readFilter(in, 1);
+    }
+
+    private static Filter readFilter(DataInputStream in, int depth) throws IOException {
+        if (depth > MAX_FILTER_DEPTH) {
+            throw new IOException("Filtre trop profond (max " + MAX_FILTER_DEPTH + ")");
+        }
+        byte type = in.readByte();
+        return switch (type) {
+            case EQUAL -> new IsEqualTo(readString(in), readValue(in));
+            case NOT_EQUAL -> new IsNotEqualTo(readString(in), readValue(in));
+            case GREATER -> new IsGreaterThan(readString(in), readValue(in));
+            case GREATER_OR_EQUAL -> new IsGreaterThanOrEqualTo(readString(in), readValue(in));
+            case LESS -> new IsLessThan(readString(in), readValue(in));
+            case LESS_OR_EQUAL -> new IsLessThanOrEqualTo(readString(in), readValue(in));
+            case IN -> new IsIn(readString(in), readValues(in));
+            case NOT_IN -> new IsNotIn(readString(in), readValues(in));
+            case CONTAINS -> {
+                String key = readString(in);
+                if (!(readValue(in) instanceof String value)) {
+                    throw new IOException("ContainsString attend une chaîne");
+                }
+                yield new ContainsString(key, value);
+            }
+            case AND -> new And(readFilter(in, depth + 1), readFilter(in, depth + 1));
+            case OR -> new Or(readFilter(in, depth + 1), readFilter(in, depth + 1));
+            case NOT -> new Not(readFilter(in, depth + 1));
+            default -> throw new IOException("Type de filtre inconnu : " + type);
+        };
+    }
+
+    private static List<Comparable<?>> readValues(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        List<Comparable<?>> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readValue(in));
+        }
+        return values;
+    }
+
+    private static Comparable<?> readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        return switch (type) {
+            case STRING -> readString(in);
+            case UUID_VALUE -> {
+                try {
+                    yield UUID.fromString(readString(in));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("UUID invalide dans le filtre", e);
+                }
+            }
+            case INTEGER -> in.readInt();
+            case LONG -> in.readLong();
+            case FLOAT -> in.readFloat();
+            case DOUBLE -> in.readDouble();
+            default -> throw new IOException("Type de valeur de filtre inconnu : " + type);
+        };
+    }
+
+    static int readCount(DataInputStream in) throws IOException {
+        return readLength(in, MAX_COUNT, "nombre d'éléments");
+    }
+
+    private static int readLength(DataInputStream in, int max, String what) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > max) {
+            throw new IOException("Longueur de " + what + " hors limites : " + length + " (max " + max + ")");
+        }
+        return length;
+    }
+
+    record Entry(String id, TextSegment segment) {
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private record Connection(Socket socket, DataInputStream in, DataOutputStream out) {
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Connexion déjà inutilisable.
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache sémantique : associe une valeur à l'embedding d'une requête et la renvoie
+ * pour toute requête dont la similarité cosinus dépasse un seuil.
+ * <p>
+ * Borné en nombre d'entrées (éviction LRU) et en âge (TTL). La recherche est un scan
+ * linéaire des entrées normalisées, ce qui reste négligeable pour quelques milliers
+ * d'entrées face à un appel LLM. Les compteurs hits/misses/evictions sont exposés
+ * pour le suivi du taux de succès.
+ * <p>
+ * Une entrée peut porter une portée (scope) : elle ne répond alors qu'aux recherches de
+ * même portée, par exemple le même contexte récupéré pour deux questions voisines.
+ *
+ * @param <V> Le type de la valeur mise en cache (décision de routage, réponse, ...).
+ */
+public class SemanticCache<V> {
+
+    private final double minSimilarity;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<Long, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long nextKey;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param minSimilarity Similarité cosinus minimale pour réutiliser une entrée (ex. 0.92).
+     * @param maxEntries    Nombre maximal d'entrées avant éviction de la moins récemment utilisée.
+     * @param ttl           Durée de vie d'une entrée.
+     */
+    public SemanticCache(double minSimilarity, int maxEntries, Duration ttl) {
+        this.minSimilarity = minSimilarity;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * Renvoie la valeur de l'entrée la plus similaire au-dessus du seuil, ou null.
+     */
+    public V get(Embedding query) {
+        return get(query, "");
+    }
+
+    /**
+     * Comme {@link #get(Embedding)}, parmi les seules entrées de portée scope.
+     */
+    public synchronized V get(Embedding query, String scope) {
+        float[] vector = normalized(query);
+        long now = System.nanoTime();
+        Long bestKey = null;
+        double bestSimilarity = minSimilarity;
+
+        Iterator<Map.Entry<Long, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Entry<V>> entry = iterator.next();
+            if (now - entry.getValue().createdAt() > ttlNanos) {
+                iterator.remove();
+                evictions++;
+                continue;
+            }
+            if (!entry.getValue().scope().equals(scope)) {
+                continue;
+            }
+            double similarity = dot(vector, entry.getValue().vector());
+            if (similarity >= bestSimilarity) {
+                bestSimilarity = similarity;
+                bestKey = entry.getKey();
+            }
+        }
+
+        if (bestKey == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entries.get(bestKey).value(); // get() met à jour l'ordre LRU
+    }
+
+    public void put(Embedding query, V value) {
+        put(query, "", value);
+    }
+
+    public synchronized void put(Embedding query, String scope, V value) {
+        entries.put(nextKey++, new Entry<>(normalized(query), scope, value, System.nanoTime()));
+        while (entries.size() > maxEntries) {
+            Iterator<Long> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entrées, %d hits, %d misses (%.0f %%), %d évictions",
+                entries.size(), hits, misses, 100 * hitRate(), evictions);
+    }
+
+    private static float[] normalized(Embedding embedding) {
+        float[] vector = embedding.vector().clone();
+        float norm = EmbeddingStoreSnapshot.norm(vector);
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= norm;
+            }
+        }
+        return vector;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1;
+        }
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+
+    private record Entry<V>(float[] vector, String scope, V value, long createdAt) {
+    }
+}
@@ -0,0 +1,13 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.service.MemoryId;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.service.memory.ChatMemoryAccess;
+
+/**
+ * Assistant partagé entre plusieurs utilisateurs : chaque appel porte l'identifiant de
+ * session, qui sélectionne la mémoire de conversation à utiliser.
+ */
+public interface SessionAssistant extends ChatMemoryAccess {
+    String chat(@MemoryId String sessionId, @UserMessage String userMessage);
+}
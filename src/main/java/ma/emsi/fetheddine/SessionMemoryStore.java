@@ -0,0 +1,153 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Mémoires de conversation de toutes les sessions, bornées en nombre de sessions et en
+ * inactivité : au-delà de maxSessions la session la moins récemment utilisée est évincée,
+ * et une session sans activité depuis idleTimeout l'est aussi. Chaque session garde au plus
+ * maxMessages messages (fenêtre glissante de MessageWindowChatMemory).
+ * <p>
+ * Sert à la fois de ChatMemoryStore et de ChatMemoryProvider pour AiServices. Le listener
+ * d'éviction permet de libérer aussi la ChatMemory que l'AiService garde pour chaque session.
+ */
+public class SessionMemoryStore implements ChatMemoryStore, ChatMemoryProvider {
+
+    private final int maxSessions;
+    private final long idleTimeoutNanos;
+    private final int maxMessages;
+    // Ordre d'accès : la première entrée est la session la moins récemment utilisée.
+    private final LinkedHashMap<Object, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile Consumer<Object> evictionListener = id -> { };
+
+    private static final class Session {
+        List<ChatMessage> messages = List.of();
+        long lastAccess;
+    }
+
+    /**
+     * @param maxSessions Nombre maximal de sessions gardées en mémoire.
+     * @param idleTimeout Durée d'inactivité après laquelle une session est oubliée.
+     * @param maxMessages Taille de la fenêtre de messages de chaque session.
+     */
+    public SessionMemoryStore(int maxSessions, Duration idleTimeout, int maxMessages) {
+        if (maxSessions <= 0 || maxMessages <= 0) {
+            throw new IllegalArgumentException("maxSessions et maxMessages doivent être positifs");
+        }
+        this.maxSessions = maxSessions;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * Appelé (hors verrou) avec l'identifiant de chaque session évincée.
+     */
+    public void onEviction(Consumer<Object> listener) {
+        this.evictionListener = listener;
+    }
+
+    @Override
+    public ChatMemory get(Object memoryId) {
+        return MessageWindowChatMemory.builder()
+                .id(memoryId)
+                .maxMessages(maxMessages)
+                .chatMemoryStore(this)
+                .build();
+    }
+
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId) {
+        List<Object> evicted = new ArrayList<>();
+        List<ChatMessage> messages;
+        synchronized (sessions) {
+            long now = System.nanoTime();
+            evictIdle(now, evicted);
+            Session session = sessions.get(memoryId);
+            if (session == null) {
+                messages = List.of();
+            } else {
+                session.lastAccess = now;
+                messages = session.messages;
+            }
+        }
+        notifyEvicted(evicted);
+        return messages;
+    }
+
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+        List<Object> evicted = new ArrayList<>();
+        synchronized (sessions) {
+            long now = System.nanoTime();
+            evictIdle(now, evicted);
+            Session session = sessions.computeIfAbsent(memoryId, id -> new Session());
+            session.messages = List.copyOf(messages);
+            session.lastAccess = now;
+            Iterator<Map.Entry<Object, Session>> it = sessions.entrySet().iterator();
+            while (sessions.size() > maxSessions && it.hasNext()) {
+                Object id = it.next().getKey();
+                if (!id.equals(memoryId)) {
+                    it.remove();
+                    evicted.add(id);
+                }
+            }
+        }
+        notifyEvicted(evicted);
+    }
+
+    @Override
+    public void deleteMessages(Object memoryId) {
+        synchronized (sessions) {
+            sessions.remove(memoryId);
+        }
+    }
+
+    public int size() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d sessions actives (max %d), %d évincées", size(), maxSessions, evictions());
+    }
+
+    private void evictIdle(long now, List<Object> evicted) {
+        Iterator<Map.Entry<Object, Session>> it = sessions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, Session> eldest = it.next();
+            if (now - eldest.getValue().lastAccess < idleTimeoutNanos) {
+                // Ordre d'accès : toutes les suivantes sont plus récentes.
+                break;
+            }
+            it.remove();
+            evicted.add(eldest.getKey());
+        }
+    }
+
+    private void notifyEvicted(List<Object> evicted) {
+        for (Object id : evicted) {
+            evictions.incrementAndGet();
+            evictionListener.accept(id);
+        }
+    }
+}
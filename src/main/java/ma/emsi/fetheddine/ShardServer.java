@@ -0,0 +1,180 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sert un EmbeddingStore aux {@link RemoteEmbeddingStore} d'autres processus, avec le
+ * protocole binaire décrit dans RemoteEmbeddingStore : un thread virtuel par connexion,
+ * les requêtes d'une connexion sont traitées l'une après l'autre.
+ * <p>
+ * Lancé seul, c'est un nœud de shard avec un OffHeapEmbeddingStore vide :
+ * {@code ShardServer [port [adresse]]} (port 0 par défaut : port libre), qui affiche
+ * « Shard prêt sur le port N » une fois en écoute.
+ * <p>
+ * Le protocole n'a ni authentification ni chiffrement : par défaut le serveur n'écoute que
+ * sur l'interface de bouclage. L'ouvrir à d'autres machines (adresse explicite, 0.0.0.0 pour
+ * toutes les interfaces) suppose un réseau de confiance. Les longueurs et nombres reçus sont
+ * bornés (voir RemoteEmbeddingStore) : une requête hors limites ferme la connexion.
+ */
+public class ShardServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final EmbeddingStore<TextSegment> store;
+
+    private ShardServer(ServerSocket serverSocket, EmbeddingStore<TextSegment> store) {
+        this.serverSocket = serverSocket;
+        this.store = store;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        InetAddress address = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        try (ShardServer server = start(address, port, new OffHeapEmbeddingStore())) {
+            System.out.println("Shard prêt sur le port " + server.port());
+            System.out.flush();
+            Thread.currentThread().join();
+        }
+    }
+
+    /**
+     * Commence à servir store sur l'interface de bouclage, au port donné (0 : port libre,
+     * voir port()).
+     */
+    public static ShardServer start(int port, EmbeddingStore<TextSegment> store) throws IOException {
+        return start(InetAddress.getLoopbackAddress(), port, store);
+    }
+
+    /**
+     * Commence à servir store sur l'adresse locale donnée.
+     */
+    public static ShardServer start(InetAddress address, int port, EmbeddingStore<TextSegment> store)
+            throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(address, port));
+        ShardServer server = new ShardServer(serverSocket, store);
+        Thread.ofVirtual().name("shard-accept-" + server.port()).start(server::accept);
+        return server;
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().start(() -> serve(socket));
+            } catch (IOException e) {
+                // Fermeture du serveur.
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                byte operation;
+                try {
+                    operation = in.readByte();
+                } catch (EOFException | SocketException e) {
+                    return;
+                }
+                handle(operation, in, out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Client parti en cours de requête : rien à répondre.
+        }
+    }
+
+    // La requête est lue en entier avant d'appeler le store et la réponse préparée dans un
+    // tampon : une erreur du store est renvoyée au client sans désynchroniser la connexion.
+    private void handle(byte operation, DataInputStream in, DataOutputStream out) throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(response);
+        try {
+            switch (operation) {
+                case RemoteEmbeddingStore.ADD -> {
+                    int count = RemoteEmbeddingStore.readCount(in);
+                    List<String> ids = new ArrayList<>(count);
+                    List<Embedding> embeddings = new ArrayList<>(count);
+                    List<TextSegment> segments = new ArrayList<>(count);
+                    boolean anySegment = false;
+                    for (int i = 0; i < count; i++) {
+                        RemoteEmbeddingStore.Entry entry = RemoteEmbeddingStore.readEntry(in);
+                        ids.add(entry.id());
+                        segments.add(entry.segment());
+                        anySegment |= entry.segment() != null;
+                        embeddings.add(Embedding.from(RemoteEmbeddingStore.readVector(in)));
+                    }
+                    // Chaque entrée garde son segment tel qu'envoyé, null compris (vecteur seul).
+                    store.addAll(ids, embeddings, anySegment ? segments : null);
+                }
+                case RemoteEmbeddingStore.SEARCH -> {
+                    int maxResults = RemoteEmbeddingStore.readCount(in);
+                    double minScore = in.readDouble();
+                    float[] query = RemoteEmbeddingStore.readVector(in);
+                    Filter filter = in.readByte() == 0 ? null : RemoteEmbeddingStore.readFilter(in);
+                    List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+                            .queryEmbedding(Embedding.from(query))
+                            .maxResults(maxResults)
+                            .minScore(minScore)
+                            .filter(filter)
+                            .build()).matches();
+                    body.writeInt(matches.size());
+                    for (EmbeddingMatch<TextSegment> match : matches) {
+                        body.writeDouble(match.score());
+                        RemoteEmbeddingStore.writeEntry(body, match.embeddingId(), match.embedded());
+                        RemoteEmbeddingStore.writeVector(body,
+                                match.embedding() == null ? new float[0] : match.embedding().vector());
+                    }
+                }
+                case RemoteEmbeddingStore.REMOVE -> {
+                    int count = RemoteEmbeddingStore.readCount(in);
+                    List<String> ids = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        ids.add(RemoteEmbeddingStore.readString(in));
+                    }
+                    store.removeAll(ids);
+                }
+                case RemoteEmbeddingStore.REMOVE_ALL -> store.removeAll();
+                case RemoteEmbeddingStore.REMOVE_FILTER -> store.removeAll(RemoteEmbeddingStore.readFilter(in));
+                default -> throw new IOException("Opération inconnue : " + operation);
+            }
+            out.writeByte(RemoteEmbeddingStore.OK);
+            response.writeTo(out);
+        } catch (RuntimeException e) {
+            out.writeByte(RemoteEmbeddingStore.ERROR);
+            RemoteEmbeddingStore.writeString(out, String.valueOf(e.getMessage()));
+        }
+    }
+}
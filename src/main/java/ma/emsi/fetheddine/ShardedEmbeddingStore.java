@@ -0,0 +1,434 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * EmbeddingStore réparti sur plusieurs shards, locaux (OffHeapEmbeddingStore, HNSW...) ou
+ * distants ({@link RemoteEmbeddingStore}) : chaque segment va dans un seul shard, choisi par
+ * le hachage de sa clé de partition ; une recherche interroge tous les shards en parallèle
+ * sur un ForkJoinPool et fusionne leurs top-k (scatter-gather).
+ * <p>
+ * Partition par défaut : l'identifiant ({@link #byId}), qui équilibre les shards. Avec
+ * {@link #bySource}, tous les segments d'un document vont dans le même shard : l'ajout d'un
+ * document ré-ingéré n'écrit que dans ce shard. Un identifiant ré-ajouté avec une autre
+ * source garderait alors l'ancienne version dans l'ancien shard : supprimer avant.
+ * Les suppressions (par identifiants, par filtre ou totales) sont envoyées à tous les shards,
+ * quelle que soit la partition : le store ne garde pas la correspondance identifiant -> shard,
+ * et la partition par source dépend du segment, que removeAll ne reçoit pas.
+ * <p>
+ * Chaque shard applique maxResults, minScore et le filtre (transmis aux shards distants) : la
+ * fusion des top-k locaux donne exactement le top-k global. Un shard en erreur est ignoré
+ * (compté dans shardFailures) : la recherche renvoie ce que les autres ont trouvé, et n'échoue
+ * que si tous échouent. Une requête refusée par un shard (IllegalArgumentException ou
+ * UnsupportedOperationException, par exemple un filtre qu'un shard distant ne sait pas
+ * transmettre) n'est pas une panne : elle est relancée, plutôt que de renvoyer en silence les
+ * résultats des seuls autres shards. Les appels aux shards distants passent par
+ * ForkJoinPool.managedBlock, pour que le pool compense les threads bloqués sur le réseau.
+ * <p>
+ * Le parallélisme n'aide qu'avec plusieurs cœurs ou plusieurs nœuds ; le passage à l'échelle
+ * n'a été mesuré que sur un cœur, où il n'y a rien à gagner (voir ShardingBenchmark).
+ * <p>
+ * Mesures : sharded_store_search_seconds et sharded_store_shard_seconds{shard}.
+ */
+public class ShardedEmbeddingStore implements EmbeddingStore<TextSegment>, AutoCloseable {
+
+    private static final String URL = "url";
+
+    private final List<EmbeddingStore<TextSegment>> shards;
+    private final BiFunction<String, TextSegment, Object> partitionKey;
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+    private final MetricsSink sink;
+    private final String[] shardLabels;
+
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private final LongAdder shardFailures = new LongAdder();
+
+    private ShardedEmbeddingStore(Builder builder) {
+        this.shards = List.copyOf(builder.shards);
+        this.partitionKey = builder.partitionKey;
+        this.ownsPool = builder.pool == null;
+        this.pool = ownsPool
+                ? new ForkJoinPool(Math.min(shards.size(), Runtime.getRuntime().availableProcessors()))
+                : builder.pool;
+        this.sink = builder.sink;
+        this.shardLabels = new String[shards.size()];
+        for (int i = 0; i < shardLabels.length; i++) {
+            shardLabels[i] = String.valueOf(i);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Clé de partition par identifiant : répartition uniforme.
+     */
+    public static Object byId(String id, TextSegment segment) {
+        return id;
+    }
+
+    /**
+     * Clé de partition par document source (url, ou répertoire et nom du fichier), ou
+     * l'identifiant pour un segment sans source.
+     */
+    public static Object bySource(String id, TextSegment segment) {
+        if (segment == null) {
+            return id;
+        }
+        Object url = segment.metadata().toMap().get(URL);
+        if (url != null) {
+            return String.valueOf(url);
+        }
+        String file = segment.metadata().getString(Document.FILE_NAME);
+        if (file == null) {
+            return id;
+        }
+        return segment.metadata().getString(Document.ABSOLUTE_DIRECTORY_PATH) + "/" + file;
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Indice du shard qui reçoit ce segment.
+     */
+    public int shardOf(String id, TextSegment segment) {
+        Object key = partitionKey.apply(id, segment);
+        int hash = (key == null ? id : key).hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.size());
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = generateIds(embeddings.size());
+        addAll(ids, embeddings, null);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        int n = shards.size();
+        List<List<String>> shardIds = new ArrayList<>(n);
+        List<List<Embedding>> shardEmbeddings = new ArrayList<>(n);
+        List<List<TextSegment>> shardSegments = new ArrayList<>(n);
+        for (int s = 0; s < n; s++) {
+            shardIds.add(new ArrayList<>());
+            shardEmbeddings.add(new ArrayList<>());
+            shardSegments.add(segments == null ? null : new ArrayList<>());
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            TextSegment segment = segments == null ? null : segments.get(i);
+            int s = shardOf(ids.get(i), segment);
+            shardIds.get(s).add(ids.get(i));
+            shardEmbeddings.get(s).add(embeddings.get(i));
+            if (segments != null) {
+                shardSegments.get(s).add(segment);
+            }
+        }
+        broadcast(s -> {
+            if (!shardIds.get(s).isEmpty()) {
+                shards.get(s).addAll(shardIds.get(s), shardEmbeddings.get(s), shardSegments.get(s));
+            }
+        });
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        broadcast(s -> shards.get(s).removeAll(ids));
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        broadcast(s -> shards.get(s).removeAll(filter));
+    }
+
+    @Override
+    public void removeAll() {
+        broadcast(s -> shards.get(s).removeAll());
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        long start = System.nanoTime();
+        List<EmbeddingMatch<TextSegment>> matches = pool.invoke(new Gather(request));
+        long elapsed = System.nanoTime() - start;
+        searches.increment();
+        searchNanos.add(elapsed);
+        sink.record("sharded_store_search_seconds", elapsed / 1e9);
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    public long searches() {
+        return searches.sum();
+    }
+
+    public long shardFailures() {
+        return shardFailures.sum();
+    }
+
+    /**
+     * Ferme le pool s'il a été créé par le builder, et les shards qui se ferment (connexions
+     * des shards distants). Tous les shards sont fermés même si l'un échoue ; la première
+     * erreur est relancée, les suivantes lui sont attachées.
+     */
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+        RuntimeException failure = null;
+        for (EmbeddingStore<TextSegment> shard : shards) {
+            if (shard instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    RuntimeException error = e instanceof RuntimeException runtime
+                            ? runtime
+                            : new IllegalStateException("Fermeture du shard " + shard + " impossible", e);
+                    if (failure == null) {
+                        failure = error;
+                    } else {
+                        failure.addSuppressed(error);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        long count = searches.sum();
+        return String.format("%d shards, %d recherches (moyenne %.0f µs), %d échecs de shard",
+                shards.size(), count, count == 0 ? 0.0 : searchNanos.sum() / 1e3 / count, shardFailures.sum());
+    }
+
+    // Écritures : un appel par shard, en parallèle ; la première erreur est relancée.
+    private void broadcast(IntConsumer operation) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(shards.size());
+        for (int s = 0; s < shards.size(); s++) {
+            int shard = s;
+            tasks.add(ForkJoinTask.adapt(() -> blocking(shard, () -> {
+                operation.accept(shard);
+                return null;
+            })));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    private <T> T blocking(int shard, Supplier<T> call) {
+        if (!(shards.get(shard) instanceof RemoteEmbeddingStore) || ForkJoinTask.getPool() == null) {
+            return call.get();
+        }
+        Blocker<T> blocker = new Blocker<>(call);
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Appel au shard " + shard + " interrompu", e);
+        }
+        return blocker.result;
+    }
+
+    /**
+     * Lance la recherche sur chaque shard (le premier dans le thread courant), puis fusionne
+     * les résultats par score décroissant. Les tâches ne sont jamais sérialisées : RecursiveTask
+     * n'est Serializable que par héritage.
+     */
+    @SuppressWarnings("serial")
+    private final class Gather extends RecursiveTask<List<EmbeddingMatch<TextSegment>>> {
+
+        private final EmbeddingSearchRequest request;
+
+        Gather(EmbeddingSearchRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        protected List<EmbeddingMatch<TextSegment>> compute() {
+            List<ShardSearch> tasks = new ArrayList<>(shards.size());
+            for (int s = 0; s < shards.size(); s++) {
+                tasks.add(new ShardSearch(s, request));
+            }
+            for (int s = tasks.size() - 1; s > 0; s--) {
+                tasks.get(s).fork();
+            }
+            tasks.get(0).invoke();
+
+            List<EmbeddingMatch<TextSegment>> merged = new ArrayList<>();
+            RuntimeException failure = null;
+            RuntimeException rejected = null;
+            int failed = 0;
+            for (int s = 0; s < tasks.size(); s++) {
+                ShardSearch task = tasks.get(s);
+                if (s > 0) {
+                    task.join();
+                }
+                if (task.rejected != null) {
+                    rejected = task.rejected;
+                } else if (task.error != null) {
+                    failed++;
+                    failure = task.error;
+                } else {
+                    merged.addAll(task.matches);
+                }
+            }
+            if (rejected != null) {
+                throw rejected;
+            }
+            if (failed == tasks.size()) {
+                throw failure;
+            }
+            merged.sort(Comparator.comparingDouble((EmbeddingMatch<TextSegment> match) -> match.score()).reversed());
+            return merged.size() > request.maxResults()
+                    ? new ArrayList<>(merged.subList(0, request.maxResults()))
+                    : merged;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class ShardSearch extends RecursiveTask<Void> {
+
+        private final int shard;
+        private final EmbeddingSearchRequest request;
+        private List<EmbeddingMatch<TextSegment>> matches;
+        private RuntimeException error;
+        private RuntimeException rejected;
+
+        ShardSearch(int shard, EmbeddingSearchRequest request) {
+            this.shard = shard;
+            this.request = request;
+        }
+
+        @Override
+        protected Void compute() {
+            long start = System.nanoTime();
+            try {
+                matches = blocking(shard, () -> shards.get(shard).search(request).matches());
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                rejected = e;
+            } catch (RuntimeException e) {
+                error = e;
+                shardFailures.increment();
+            }
+            sink.record("sharded_store_shard_seconds", (System.nanoTime() - start) / 1e9, "shard", shardLabels[shard]);
+            return null;
+        }
+    }
+
+    private static final class Blocker<T> implements ForkJoinPool.ManagedBlocker {
+
+        private final Supplier<T> call;
+        private T result;
+        private boolean done;
+
+        Blocker(Supplier<T> call) {
+            this.call = call;
+        }
+
+        @Override
+        public boolean block() {
+            result = call.get();
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+
+    public static class Builder {
+
+        private final List<EmbeddingStore<TextSegment>> shards = new ArrayList<>();
+        private BiFunction<String, TextSegment, Object> partitionKey = ShardedEmbeddingStore::byId;
+        private ForkJoinPool pool;
+        private MetricsSink sink = MetricsSink.NONE;
+
+        public Builder shard(EmbeddingStore<TextSegment> shard) {
+            this.shards.add(shard);
+            return this;
+        }
+
+        public Builder shards(List<? extends EmbeddingStore<TextSegment>> shards) {
+            this.shards.addAll(shards);
+            return this;
+        }
+
+        /**
+         * Clé de partition d'un segment (identifiant, segment ou null) : {@link #byId} par
+         * défaut, {@link #bySource}, ou une clé propre à l'application.
+         */
+        public Builder partitionKey(BiFunction<String, TextSegment, Object> partitionKey) {
+            this.partitionKey = partitionKey;
+            return this;
+        }
+
+        /**
+         * Pool des recherches ; par défaut un pool propre au store, d'autant de threads que
+         * de shards (au plus un par cœur), fermé par close().
+         */
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public Builder metrics(MetricsSink sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        public ShardedEmbeddingStore build() {
+            if (shards.isEmpty()) {
+                throw new IllegalStateException("Au moins un shard est obligatoire");
+            }
+            return new ShardedEmbeddingStore(this);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Décorateur de QueryRouter qui lance la recherche (embedding de la question compris) dans
+ * tous les retrievers candidats pendant que le routeur délégué décide, typiquement par un
+ * appel LLM bloquant. Les retrievers choisis renvoient le résultat déjà calculé ou en
+ * cours ; les autres recherches sont annulées. Un tour coûte ainsi max(routage, recherche)
+ * au lieu de leur somme, au prix de recherches inutiles quand le routeur écarte un retriever.
+ * <p>
+ * Mesures envoyées au MetricsSink, par retriever :
+ * <ul>
+ *     <li>rag_speculation_retrievals{retriever,outcome} : une observation par recherche
+ *     lancée, outcome = used ou cancelled ;</li>
+ *     <li>rag_speculation_saved_seconds : part de la recherche recouverte par le routage ;</li>
+ *     <li>rag_speculation_wasted_seconds : durée de la recherche annulée ou ignorée.</li>
+ * </ul>
+ * Les retrievers candidats restent appelés par leur propre instrumentation (PipelineMetrics)
+ * même quand leur résultat est écarté. Pour nommer les routes, PipelineMetrics.queryRouter
+ * doit envelopper le routeur délégué, pas ce décorateur.
+ */
+public class SpeculativeQueryRouter implements QueryRouter {
+
+    private final QueryRouter delegate;
+    private final Map<ContentRetriever, String> candidates;
+    private final MetricsSink sink;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final LongAdder turns = new LongAdder();
+    private final LongAdder used = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+    private final LongAdder wastedNanos = new LongAdder();
+
+    /**
+     * @param delegate   Le routeur qui décide.
+     * @param candidates Les retrievers à interroger par anticipation, avec leur nom pour les mesures.
+     */
+    public SpeculativeQueryRouter(QueryRouter delegate, Map<ContentRetriever, String> candidates) {
+        this(delegate, candidates, MetricsSink.NONE);
+    }
+
+    public SpeculativeQueryRouter(QueryRouter delegate, Map<ContentRetriever, String> candidates, MetricsSink sink) {
+        this.delegate = delegate;
+        this.candidates = new LinkedHashMap<>(candidates);
+        this.sink = sink;
+    }
+
+    @Override
+    public Collection<ContentRetriever> route(Query query) {
+        turns.increment();
+        Map<ContentRetriever, Speculation> speculations = new LinkedHashMap<>();
+        for (Map.Entry<ContentRetriever, String> candidate : candidates.entrySet()) {
+            speculations.put(candidate.getKey(), new Speculation(candidate.getKey(), candidate.getValue(), query));
+        }
+
+        Collection<ContentRetriever> routed;
+        try {
+            routed = delegate.route(query);
+        } catch (RuntimeException e) {
+            long now = System.nanoTime();
+            speculations.values().forEach(speculation -> speculation.cancel(now));
+            throw e;
+        }
+        long routedAt = System.nanoTime();
+
+        List<ContentRetriever> retrievers = new ArrayList<>(routed.size());
+        for (ContentRetriever retriever : routed) {
+            Speculation speculation = speculations.remove(retriever);
+            retrievers.add(speculation == null ? retriever : speculation.retriever(routedAt));
+        }
+        for (Speculation speculation : speculations.values()) {
+            speculation.cancel(routedAt);
+        }
+        return retrievers;
+    }
+
+    public long turns() {
+        return turns.sum();
+    }
+
+    public long used() {
+        return used.sum();
+    }
+
+    public long cancelled() {
+        return cancelled.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d tours, %d recherches anticipées utilisées (%.2f s gagnées), %d annulées (%.2f s perdues)",
+                turns.sum(), used.sum(), savedNanos.sum() / 1e9, cancelled.sum(), wastedNanos.sum() / 1e9);
+    }
+
+    private final class Speculation {
+
+        private final ContentRetriever retriever;
+        private final String name;
+        private final Query query;
+        private final long start = System.nanoTime();
+        private final Future<List<Content>> result;
+        private volatile long end;
+
+        Speculation(ContentRetriever retriever, String name, Query query) {
+            this.retriever = retriever;
+            this.name = name;
+            this.query = query;
+            this.result = executor.submit(() -> {
+                try {
+                    return retriever.retrieve(query);
+                } finally {
+                    end = System.nanoTime();
+                }
+            });
+        }
+
+        // Vue du résultat anticipé, pour DefaultRetrievalAugmentor ; une autre requête que celle
+        // du routage est traitée normalement.
+        ContentRetriever retriever(long routedAt) {
+            used.increment();
+            sink.record("rag_speculation_retrievals", 1, "retriever", name, "outcome", "used");
+            return target -> {
+                if (target != query) {
+                    return retriever.retrieve(target);
+                }
+                List<Content> contents = await();
+                long saved = Math.min(end, routedAt) - start;
+                savedNanos.add(saved);
+                sink.record("rag_speculation_saved_seconds", saved / 1e9, "retriever", name);
+                return contents;
+            };
+        }
+
+        void cancel(long routedAt) {
+            result.cancel(true);
+            long finished = end;
+            long wasted = (finished != 0 ? Math.min(finished, routedAt) : routedAt) - start;
+            cancelled.increment();
+            wastedNanos.add(wasted);
+            sink.record("rag_speculation_retrievals", 1, "retriever", name, "outcome", "cancelled");
+            sink.record("rag_speculation_wasted_seconds", wasted / 1e9, "retriever", name);
+        }
+
+        private List<Content> await() {
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Recherche interrompue", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new IllegalStateException("Échec de la recherche anticipée", e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.service.TokenStream;
+
+public interface StreamingAssistant {
+    TokenStream chat(String userMessage);
+}
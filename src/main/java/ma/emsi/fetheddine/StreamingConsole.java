@@ -0,0 +1,86 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.service.TokenStream;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Affiche la réponse d'un StreamingAssistant au fil de l'eau dans la console et mesure
+ * séparément le temps jusqu'au premier token (latence perçue) et la latence totale.
+ * <p>
+ * Les deux mesures vont au MetricsSink : llm_first_token_seconds (seulement si un token est
+ * arrivé) et chat_turn_seconds{outcome}, qui couvre tout le tour (récupération comprise),
+ * là où llm_request_seconds (PipelineMetrics) ne mesure que l'appel au modèle.
+ */
+public final class StreamingConsole {
+
+    private StreamingConsole() {
+    }
+
+    /**
+     * Mesures d'un tour de conversation.
+     *
+     * @param firstTokenNanos Temps entre l'envoi de la question et le premier token, -1 si aucun.
+     * @param totalNanos      Temps jusqu'à la fin de la réponse.
+     * @param retrieved       Nombre de contenus récupérés et injectés dans le prompt.
+     */
+    public record Turn(String answer, long firstTokenNanos, long totalNanos, int retrieved) {
+
+        @Override
+        public String toString() {
+            String firstToken = firstTokenNanos < 0 ? "n/a" : String.format("%.0f ms", firstTokenNanos / 1e6);
+            return String.format("[premier token : %s, total : %.0f ms, %d contenus injectés]",
+                    firstToken, totalNanos / 1e6, retrieved);
+        }
+    }
+
+    /**
+     * Pose la question, imprime les tokens dès leur arrivée et bloque jusqu'à la fin de la réponse.
+     */
+    public static Turn chat(StreamingAssistant assistant, String question, MetricsSink metrics) {
+        long start = System.nanoTime();
+        AtomicLong firstToken = new AtomicLong(-1);
+        AtomicInteger retrieved = new AtomicInteger();
+        CompletableFuture<ChatResponse> done = new CompletableFuture<>();
+
+        System.out.print("Assistant : ");
+        TokenStream stream = assistant.chat(question);
+        stream.onRetrieved(contents -> retrieved.set(contents.size()))
+                .onPartialResponse(token -> {
+                    firstToken.compareAndSet(-1, System.nanoTime() - start);
+                    System.out.print(token);
+                    System.out.flush();
+                })
+                .onCompleteResponse(done::complete)
+                .onError(done::completeExceptionally)
+                .start();
+
+        try {
+            ChatResponse response = done.get();
+            Turn turn = record(metrics, "success", new Turn(response.aiMessage().text(), firstToken.get(),
+                    System.nanoTime() - start, retrieved.get()));
+            System.out.println();
+            System.out.println(turn);
+            return turn;
+        } catch (ExecutionException e) {
+            System.out.println();
+            System.err.println("Erreur pendant la génération : " + e.getCause().getMessage());
+            return record(metrics, "error", new Turn("", firstToken.get(), System.nanoTime() - start, retrieved.get()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Conversation interrompue", e);
+        }
+    }
+
+    private static Turn record(MetricsSink metrics, String outcome, Turn turn) {
+        if (turn.firstTokenNanos() >= 0) {
+            metrics.record("llm_first_token_seconds", turn.firstTokenNanos() / 1e9);
+        }
+        metrics.record("chat_turn_seconds", turn.totalNanos() / 1e9, "outcome", outcome);
+        return turn;
+    }
+}
@@ -8,11 +8,12 @@ import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser
 import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiEmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiStreamingChatModel;
 import dev.langchain4j.model.output.Response;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
@@ -23,14 +24,13 @@ import dev.langchain4j.rag.query.router.DefaultQueryRouter; // NOUVEL IMPORT
 import dev.langchain4j.rag.query.router.QueryRouter; // NOUVEL IMPORT
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
-import dev.langchain4j.web.search.WebSearchEngine; // NOUVEL IMPORT
 import dev.langchain4j.web.search.tavily.TavilyWebSearchEngine; // NOUVEL IMPORT
 
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 import java.util.Scanner;
 import java.util.logging.ConsoleHandler;
@@ -76,7 +76,8 @@ public class Test5WebRag {
         }
 
         // --- Configuration des modèles (comme TestRagNaif) ---
-        ChatModel model = GoogleAiGeminiChatModel.builder()
+        // Modèle en streaming : la réponse s'affiche token par token
+        StreamingChatModel model = GoogleAiGeminiStreamingChatModel.builder()
                 .apiKey(geminiKey)
                 .modelName("gemini-2.5-flash")
                 .temperature(0.3)
@@ -96,13 +97,22 @@ public class Test5WebRag {
         DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
         List<TextSegment> segments = splitter.split(document);
 
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        Response<List<Embedding>> embeddingsResponse = embeddingModel.embedAll(segments);
+        // Cache disque : seuls les segments nouveaux ou modifiés sont envoyés au modèle
+        CachingEmbeddingModel cachedEmbeddingModel = new CachingEmbeddingModel(embeddingModel,
+                Paths.get(".cache", "embeddings.bin"),
+                CachingEmbeddingModel.namespace("text-embedding-004", 300, 30));
+        // Écrit les derniers vecteurs du cache sur disque à l'arrêt, Ctrl-C compris
+        Runtime.getRuntime().addShutdownHook(new Thread(cachedEmbeddingModel::close));
+
+        EmbeddingStore<TextSegment> embeddingStore = new OffHeapEmbeddingStore();
+        Response<List<Embedding>> embeddingsResponse = cachedEmbeddingModel.embedAll(segments);
         embeddingStore.addAll(embeddingsResponse.content(), segments);
 
+        // Une question déjà posée n'est pas ré-embeddée (cache LRU en mémoire)
+        QueryEmbeddingCache queryEmbeddingModel = new QueryEmbeddingCache(embeddingModel, 1000);
         ContentRetriever localContentRetriever = EmbeddingStoreContentRetriever.builder()
                 .embeddingStore(embeddingStore)
-                .embeddingModel(embeddingModel)
+                .embeddingModel(queryEmbeddingModel)
                 .maxResults(2)
                 .minScore(0.5)
                 .build();
@@ -111,10 +121,18 @@ public class Test5WebRag {
 
         // --- RETRIEVER 2 : RAG WEB (NOUVEAU) ---
 
-        // 1. Créer le moteur de recherche (Tavily)
-        WebSearchEngine webSearchEngine = TavilyWebSearchEngine.builder()
-                .apiKey(tavilyKey)
+        // 1. Créer le moteur de recherche (Tavily), derrière un cache de 6 h persisté entre redémarrages
+        CachingWebSearchEngine webSearchEngine = CachingWebSearchEngine.builder()
+                .webSearchEngine(TavilyWebSearchEngine.builder()
+                        .apiKey(tavilyKey)
+                        .build())
+                .maxEntries(1000)
+                .maxBytes(32L << 20)
+                .ttl(Duration.ofHours(6))
+                .persistFile(Paths.get(".cache", "web-search.bin"))
                 .build();
+        // Sauvegarde le cache web à l'arrêt, Ctrl-C compris, comme le cache d'embeddings
+        Runtime.getRuntime().addShutdownHook(new Thread(webSearchEngine::save));
 
         // 2. Créer le ContentRetriever pour le Web
         ContentRetriever webContentRetriever = WebSearchContentRetriever.builder()
@@ -125,30 +143,63 @@ public class Test5WebRag {
 
         // --- NOUVELLE CONFIGURATION : ROUTEUR + AUGMENTOR ---
 
-        // 3. Créer le QueryRouter avec les DEUX retrievers
-        QueryRouter queryRouter = new DefaultQueryRouter(
-                localContentRetriever,
-                webContentRetriever
-        );
-
-        // 4. Créer le RetrievalAugmentor avec ce routeur
+        // 3. Combiner les DEUX retrievers : local d'abord (2 s max), le web (5 s max) seulement
+        //    si le meilleur score local est sous 0.75. Le web n'est appelé qu'après la recherche locale :
+        //    pas d'appel Tavily facturé pour rien quand le PDF suffit.
+        FanOutContentRetriever fanOutRetriever = FanOutContentRetriever.builder()
+                .retriever("local (PDF)", localContentRetriever, Duration.ofSeconds(2))
+                .fallbackRetriever("web (Tavily)", webContentRetriever, Duration.ofSeconds(5), 0.75)
+                .build();
+        QueryRouter queryRouter = new DefaultQueryRouter(fanOutRetriever);
+
+        // 4. Créer le RetrievalAugmentor avec ce routeur. Le contexte est assemblé dans 1500 tokens :
+        //    quasi-doublons écartés (MMR), segments voisins fusionnés. Les segments du PDF reprennent
+        //    leur vecteur de .cache/embeddings.bin ; seuls les extraits web sont embeddés, via un cache
+        //    en mémoire : ils n'ont rien à faire dans le cache disque.
+        ContextPacker contextPacker = ContextPacker.builder()
+                .contentEmbeddingModel(new QueryEmbeddingCache(embeddingModel, 1000))
+                .cachedEmbeddings(cachedEmbeddingModel)
+                .queryEmbeddingModel(queryEmbeddingModel)
+                .maxTokens(1500)
+                .build();
         RetrievalAugmentor retrievalAugmentor = DefaultRetrievalAugmentor.builder()
                 .queryRouter(queryRouter)
+                .contentAggregator(contextPacker)
+                .build();
+
+        // 5. Mémoire bornée en tokens : le contexte injecté sort des anciennes questions et les
+        //    anciens tours sont résumés en arrière-plan par un modèle bloquant.
+        ChatModel summaryModel = GoogleAiGeminiChatModel.builder()
+                .apiKey(geminiKey)
+                .modelName("gemini-2.5-flash")
+                .temperature(0.3)
+                .build();
+        CompactingChatMemory chatMemory = CompactingChatMemory.builder()
+                .maxTokens(3000)
+                .summarizer(summaryModel)
                 .build();
 
-        // 5. Créer l'assistant avec le RetrievalAugmentor
-        Assistant assistant = AiServices.builder(Assistant.class)
-                .chatModel(model)
-                .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+        // 6. Créer l'assistant avec le RetrievalAugmentor
+        StreamingAssistant assistant = AiServices.builder(StreamingAssistant.class)
+                .streamingChatModel(model)
+                .chatMemory(chatMemory)
                 .retrievalAugmentor(retrievalAugmentor) // Utilise l'augmentor au lieu du retriever simple
                 .build();
 
-        // Lancer la conversation
-        conversationAvec(assistant);
+        // Lancer la conversation ; temps jusqu'au premier token et durée de chaque tour résumés à la fin
+        InProcessMetrics metrics = new InProcessMetrics();
+        conversationAvec(assistant, metrics);
+        System.out.println("Statistiques des retrievers :");
+        System.out.print(fanOutRetriever);
+        System.out.println("Cache de recherche web : " + webSearchEngine);
+        System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel);
+        System.out.println("Contexte injecté : " + contextPacker);
+        System.out.println("Mémoire de conversation : " + chatMemory);
+        System.out.print("Latences :\n" + metrics);
     }
 
     // Helper pour la boucle de conversation (identique à TestRagNaif)
-    private static void conversationAvec(Assistant assistant) {
+    private static void conversationAvec(StreamingAssistant assistant, MetricsSink metrics) {
         try (Scanner scanner = new Scanner(System.in)) {
             while (true) {
                 System.out.println("==================================================");
@@ -165,8 +216,7 @@ public class Test5WebRag {
                 }
 
                 System.out.println("==================================================");
-                String reponse = assistant.chat(question);
-                System.out.println("Assistant : " + reponse);
+                StreamingConsole.chat(assistant, question, metrics);
                 System.out.println("==================================================");
             }
         }
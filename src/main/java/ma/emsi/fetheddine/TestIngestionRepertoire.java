@@ -0,0 +1,114 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.googleai.GoogleAiEmbeddingModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.service.AiServices;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+/**
+ * Ingestion de tout un répertoire de PDF avec IngestionPipeline, puis conversation RAG.
+ * Le répertoire est passé en argument (par défaut src/main/resources).
+ */
+public class TestIngestionRepertoire {
+
+    public static void main(String[] args) {
+        String geminiKey = System.getenv("GEMINI_KEY");
+        if (geminiKey == null || geminiKey.isEmpty()) {
+            System.err.println("Erreur : la variable d'environnement GEMINI_KEY n'est pas définie.");
+            return;
+        }
+        Path directory = Paths.get(args.length > 0 ? args[0] : "src/main/resources");
+
+        EmbeddingModel embeddingModel = GoogleAiEmbeddingModel.builder()
+                .apiKey(geminiKey)
+                .modelName("text-embedding-004")
+                .build();
+
+        CachingEmbeddingModel cachedEmbeddingModel = new CachingEmbeddingModel(embeddingModel,
+                Paths.get(".cache", "embeddings.bin"),
+                CachingEmbeddingModel.namespace("text-embedding-004", 300, 30));
+        // Écrit les derniers vecteurs du cache sur disque à l'arrêt, Ctrl-C compris
+        Runtime.getRuntime().addShutdownHook(new Thread(cachedEmbeddingModel::close));
+
+        // Parsing en parallèle sur des threads virtuels, embedding par lots de 100 avec 4 appels en vol au plus ;
+        // les PDF sont lus page par page, la mémoire ne dépend pas de leur taille
+        EmbeddingStore<TextSegment> embeddingStore = new OffHeapEmbeddingStore();
+        IngestionPipeline pipeline = IngestionPipeline.builder()
+                .documentParser(ApacheTikaDocumentParser::new)
+                .streamPdfPages(true)
+                .documentSplitter(DocumentSplitters.recursive(300, 30))
+                .embeddingModel(cachedEmbeddingModel)
+                .embeddingStore(embeddingStore)
+                .fileGlob("*.pdf")
+                .batchSize(100)
+                .embedConcurrency(4)
+                .build();
+
+        System.out.println("Ingestion du répertoire " + directory.toAbsolutePath() + " ...");
+        IngestionPipeline.Report report = pipeline.ingestDirectory(directory);
+        System.out.println(report);
+
+        ChatModel model = GoogleAiGeminiChatModel.builder()
+                .apiKey(geminiKey)
+                .modelName("gemini-2.5-flash")
+                .temperature(0.3)
+                .build();
+
+        // Une question déjà posée sur le même contexte est servie depuis le cache, sans appel Gemini ;
+        // l'embedding de la question est partagé avec le retriever.
+        QueryEmbeddingCache queryEmbeddingModel = new QueryEmbeddingCache(embeddingModel, 1000);
+        ContentRetriever contentRetriever = EmbeddingStoreContentRetriever.builder()
+                .embeddingStore(embeddingStore)
+                .embeddingModel(queryEmbeddingModel)
+                .maxResults(2)
+                .minScore(0.5)
+                .build();
+        AnswerCache answerCache = AnswerCache.builder()
+                .embeddingModel(queryEmbeddingModel)
+                .build();
+
+        // Mémoire bornée en tokens : les anciens tours sont résumés par Gemini, hors du chemin de la requête.
+        CompactingChatMemory chatMemory = CompactingChatMemory.builder()
+                .maxTokens(3000)
+                .summarizer(model)
+                .build();
+
+        Assistant assistant = AiServices.builder(Assistant.class)
+                .chatModel(answerCache.chatModel(model))
+                .chatMemory(chatMemory)
+                .retrievalAugmentor(answerCache.retrievalAugmentor(DefaultRetrievalAugmentor.builder()
+                        .contentRetriever(contentRetriever)
+                        .build()))
+                .build();
+
+        try (Scanner scanner = new Scanner(System.in)) {
+            while (true) {
+                System.out.println("==================================================");
+                System.out.println("Posez votre question (ou 'fin' pour quitter) : ");
+                String question = scanner.nextLine();
+                if (question.isBlank()) {
+                    continue;
+                }
+                if ("fin".equalsIgnoreCase(question)) {
+                    System.out.println("Conversation terminée.");
+                    System.out.println("Cache des réponses : " + answerCache);
+                    System.out.println("Mémoire de conversation : " + chatMemory);
+                    break;
+                }
+                System.out.println("Assistant : " + assistant.chat(question));
+            }
+        }
+    }
+}
@@ -10,16 +10,15 @@ import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.ChatMemory;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
-import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiEmbeddingModel;
-import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiStreamingChatModel;
 import dev.langchain4j.model.output.Response;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -54,7 +53,8 @@ public class TestRagNaif {
 
         configureLogger();
 
-        ChatModel model = GoogleAiGeminiChatModel.builder()
+        // Modèle en streaming : les tokens s'affichent dès qu'ils arrivent
+        StreamingChatModel model = GoogleAiGeminiStreamingChatModel.builder()
                 .apiKey(System.getenv("GEMINI_KEY"))
                 .modelName("gemini-2.5-flash")
                 .temperature(0.3)
@@ -70,9 +70,15 @@ public class TestRagNaif {
                 .apiKey(System.getenv("GEMINI_KEY"))
                 .modelName("text-embedding-004")
                 .build();
-        Response<List<Embedding>> embeddingsResponse = embeddingModel.embedAll(segments);
+        // Les segments déjà vus lors d'un démarrage précédent sont relus depuis le cache disque
+        CachingEmbeddingModel cachedEmbeddingModel = new CachingEmbeddingModel(embeddingModel,
+                Paths.get(".cache", "embeddings.bin"),
+                CachingEmbeddingModel.namespace("text-embedding-004", 300, 30));
+        // Écrit les derniers vecteurs du cache sur disque à l'arrêt, Ctrl-C compris
+        Runtime.getRuntime().addShutdownHook(new Thread(cachedEmbeddingModel::close));
+        Response<List<Embedding>> embeddingsResponse = cachedEmbeddingModel.embedAll(segments);
         List<Embedding> embeddings = embeddingsResponse.content();
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
+        EmbeddingStore<TextSegment> embeddingStore = new OffHeapEmbeddingStore();
         embeddingStore.addAll(embeddings, segments);
 
         ContentRetriever contentRetriever = EmbeddingStoreContentRetriever.builder()
@@ -84,16 +90,19 @@ public class TestRagNaif {
 
         ChatMemory chatMemory = MessageWindowChatMemory.withMaxMessages(10);
 
-        Assistant assistant = AiServices.builder(Assistant.class)
-                .chatModel(model)
+        StreamingAssistant assistant = AiServices.builder(StreamingAssistant.class)
+                .streamingChatModel(model)
                 .chatMemory(chatMemory)
                 .contentRetriever(contentRetriever)
                 .build();
 
-        conversationAvec(assistant);
+        // Temps jusqu'au premier token et durée de chaque tour, résumés à la fin
+        InProcessMetrics metrics = new InProcessMetrics();
+        conversationAvec(assistant, metrics);
+        System.out.print("Latences :\n" + metrics);
     }
 
-    private static void conversationAvec(Assistant assistant) {
+    private static void conversationAvec(StreamingAssistant assistant, MetricsSink metrics) {
         try (Scanner scanner = new Scanner(System.in)) {
             while (true) {
                 System.out.println("==================================================");
@@ -110,8 +119,7 @@ public class TestRagNaif {
                 }
 
                 System.out.println("==================================================");
-                String reponse = assistant.chat(question);
-                System.out.println("Assistant : " + reponse);
+                StreamingConsole.chat(assistant, question, metrics);
                 System.out.println("==================================================");
             }
         }
@@ -1,17 +1,15 @@
 package ma.emsi.fetheddine;
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
 import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
 import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
 import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiEmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiStreamingChatModel;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
@@ -20,12 +18,12 @@ import dev.langchain4j.rag.query.router.LanguageModelQueryRouter;
 import dev.langchain4j.rag.query.router.QueryRouter;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 
 import java.io.File;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,22 +41,60 @@ public class TestRoutage {
         packageLogger.addHandler(handler);
     }
     // Method to create and ingest an embedding store from a document
+    // Reuses the snapshot in .cache/ when it was built from the same PDF with the same model and splitter
     private static EmbeddingStore<TextSegment> createAndIngestEmbeddingStore(String documentPath, EmbeddingModel embeddingModel) {
         Path path = Paths.get(documentPath);
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(path, parser);
+        Path snapshot = Paths.get(".cache", path.getFileName() + ".snapshot");
+        // Segments are split page by page: "/pages" keeps snapshots of whole-document splits from being reused
+        EmbeddingStoreSnapshot.Header expected = EmbeddingStoreSnapshot.expectedHeader(
+                "text-embedding-004", 0, "recursive(300,0)/pages", List.of(path));
+        if (EmbeddingStoreSnapshot.isUpToDate(snapshot, expected)) {
+            return EmbeddingStoreSnapshot.load(snapshot);
+        }
 
         DocumentSplitter splitter = DocumentSplitters.recursive(300, 0);
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        EmbeddingStoreIngestor ingestor = EmbeddingStoreIngestor.builder()
+        EmbeddingStore<TextSegment> embeddingStore = new OffHeapEmbeddingStore();
+        EmbeddingStoreSnapshot.Recorder recorder = new EmbeddingStoreSnapshot.Recorder(embeddingStore);
+        // Batched, pipelined ingestion: the PDF is read page by page and the first batches are embedded
+        // while the following pages are still being extracted
+        IngestionPipeline pipeline = IngestionPipeline.builder()
+                .documentParser(ApacheTikaDocumentParser::new)
+                .streamPdfPages(true)
                 .documentSplitter(splitter)
                 .embeddingModel(embeddingModel)
-                .embeddingStore(embeddingStore)
+                .embeddingStore(recorder)
                 .build();
-        ingestor.ingest(document);
+        IngestionPipeline.Report report = pipeline.ingest(List.of(path));
+        System.out.println(path.getFileName() + ": " + report);
+        recorder.writeSnapshot(snapshot, expected);
         return embeddingStore;
     }
 
+    // Incremental index for the threat reports: restored from its snapshot, then only the segments of
+    // revised reports are re-embedded; new drops in the directory are picked up by the watcher.
+    private static IncrementalIngestor createIncrementalStore(Path directory, String fileGlob,
+                                                              EmbeddingStore<TextSegment> embeddingStore,
+                                                              EmbeddingModel embeddingModel, Path snapshot) {
+        IncrementalIngestor ingestor = IncrementalIngestor.builder()
+                .documentParser(ApacheTikaDocumentParser::new)
+                .documentSplitter(DocumentSplitters.recursive(300, 0))
+                .embeddingModel(embeddingModel)
+                .embeddingStore(embeddingStore)
+                .fileGlob(fileGlob)
+                .build();
+        if (Files.exists(snapshot)) {
+            EmbeddingStoreSnapshot.Header header = EmbeddingStoreSnapshot.readHeader(snapshot);
+            if (header.modelName().equals("text-embedding-004") && header.splitterConfig().equals("recursive(300,0)")) {
+                ingestor.restore(EmbeddingStoreSnapshot.load(snapshot));
+            }
+        }
+        for (IncrementalIngestor.Update update : ingestor.syncDirectory(directory)) {
+            System.out.println(update);
+        }
+        ingestor.writeSnapshot(snapshot, "text-embedding-004", "recursive(300,0)");
+        return ingestor;
+    }
+
     public static void main(String[] args) {
         configureLogger();
         // Phase 1: Ingestion
@@ -67,8 +103,27 @@ public class TestRoutage {
                 .modelName("text-embedding-004")
                 .build();
 
-        EmbeddingStore<TextSegment> ragEmbeddingStore = createAndIngestEmbeddingStore("src/main/resources/rag.pdf", embeddingModel);
-        EmbeddingStore<TextSegment> threatReportEmbeddingStore = createAndIngestEmbeddingStore("src/main/resources/threat_report.pdf", embeddingModel);
+        // On-disk cache shared by both documents: a restart only re-embeds what has changed
+        CachingEmbeddingModel cachedEmbeddingModel = new CachingEmbeddingModel(embeddingModel,
+                Paths.get(".cache", "embeddings.bin"),
+                CachingEmbeddingModel.namespace("text-embedding-004", 300, 0));
+        // Flushes the last cached vectors to disk on exit, including Ctrl-C
+        Runtime.getRuntime().addShutdownHook(new Thread(cachedEmbeddingModel::close));
+
+        EmbeddingStore<TextSegment> ragEmbeddingStore = createAndIngestEmbeddingStore("src/main/resources/rag.pdf", cachedEmbeddingModel);
+        // Vector store and BM25 index of the threat report are filled in the same ingestion pass,
+        // so exact identifiers (CVE, hashes, IPs) are found even when the vector score is low
+        EmbeddingStore<TextSegment> threatReportEmbeddingStore = new OffHeapEmbeddingStore();
+        Bm25Index threatReportLexicalIndex = new Bm25Index();
+        Path reportsDirectory = Paths.get("src/main/resources");
+        Path threatSnapshot = Paths.get(".cache", "threat_report.pdf.snapshot");
+        IncrementalIngestor threatIngestor = createIncrementalStore(reportsDirectory, "threat_report*.pdf",
+                threatReportLexicalIndex.indexing(threatReportEmbeddingStore), cachedEmbeddingModel, threatSnapshot);
+        // Report drops are applied live, once the file has stopped changing for 2 s
+        IncrementalIngestor.Watcher reportWatcher = threatIngestor.watch(reportsDirectory, Duration.ofSeconds(2), update -> {
+            System.out.println("Threat report index updated: " + update);
+            threatIngestor.writeSnapshot(threatSnapshot, "text-embedding-004", "recursive(300,0)");
+        });
 
         // Phase 2: Retrieval
         ChatModel chatModel = GoogleAiGeminiChatModel.builder()
@@ -78,38 +133,76 @@ public class TestRoutage {
                 .logRequestsAndResponses(true)
                 .build();
 
+        // Streaming model for the answers (the fallback router above keeps the blocking one)
+        StreamingChatModel streamingChatModel = GoogleAiGeminiStreamingChatModel.builder()
+                .apiKey(System.getenv("GEMINI_KEY"))
+                .modelName("gemini-2.5-flash")
+                .temperature(0.3)
+                .logRequestsAndResponses(true)
+                .build();
+
+        // One embedding call per distinct question, shared by the router and both retrievers
+        QueryEmbeddingCache queryEmbeddingModel = new QueryEmbeddingCache(embeddingModel, 1000);
+
         ContentRetriever ragContentRetriever = EmbeddingStoreContentRetriever.builder()
                 .embeddingStore(ragEmbeddingStore)
-                .embeddingModel(embeddingModel)
+                .embeddingModel(queryEmbeddingModel)
                 .maxResults(2)
                 .minScore(0.6)
                 .build();
 
-        ContentRetriever threatReportContentRetriever = EmbeddingStoreContentRetriever.builder()
+        ContentRetriever threatReportContentRetriever = HybridContentRetriever.builder()
                 .embeddingStore(threatReportEmbeddingStore)
-                .embeddingModel(embeddingModel)
-                .maxResults(2)
-                .minScore(0.6)
+                .embeddingModel(queryEmbeddingModel)
+                .lexicalIndex(threatReportLexicalIndex)
+                .maxResults(3)
+                .minVectorScore(0.6)
                 .build();
 
         Map<ContentRetriever, String> retrieverMap = new HashMap<>();
         retrieverMap.put(ragContentRetriever, "Answers questions about Retrieval-Augmented Generation (RAG)");
         retrieverMap.put(threatReportContentRetriever, "Answers questions about a threat report");
 
-        QueryRouter queryRouter = new LanguageModelQueryRouter(chatModel, retrieverMap);
+        // Local routing by nearest description centroid: no LLM call per question.
+        // The LLM router is only consulted when the two retrievers score too close to each other.
+        QueryRouter llmQueryRouter = new LanguageModelQueryRouter(chatModel, retrieverMap);
+        QueryRouter queryRouter = EmbeddingQueryRouter.builder()
+                .embeddingModel(queryEmbeddingModel)
+                .retrieverToDescription(retrieverMap)
+                .examples(ragContentRetriever, List.of(
+                        "Qu'est-ce que le RAG ?",
+                        "Comment fonctionne la recherche de documents avec des embeddings ?",
+                        "What is Retrieval-Augmented Generation?"))
+                .examples(threatReportContentRetriever, List.of(
+                        "Quelles sont les principales menaces décrites dans le rapport ?",
+                        "Which ransomware groups are mentioned?",
+                        "Quels indicateurs de compromission et CVE sont cités ?"))
+                .fallbackRouter(llmQueryRouter)
+                .build();
+
+        // Both searches start with the routing decision (and the LLM fallback); the one not chosen is cancelled
+        SpeculativeQueryRouter speculativeRouter = new SpeculativeQueryRouter(queryRouter, Map.of(
+                ragContentRetriever, "rag",
+                threatReportContentRetriever, "threat_report"));
 
         RetrievalAugmentor retrievalAugmentor = DefaultRetrievalAugmentor.builder()
-                .queryRouter(queryRouter)
+                .queryRouter(speculativeRouter)
                 .build();
 
         // Phase 3: Assistant Creation
-        Assistant assistant = AiServices.builder(Assistant.class)
-                .chatModel(chatModel)
+        // Prompt bounded by tokens: old turns lose their injected context and get summarized
+        CompactingChatMemory chatMemory = CompactingChatMemory.builder()
+                .maxTokens(3000)
+                .summarizer(chatModel)
+                .build();
+        StreamingAssistant assistant = AiServices.builder(StreamingAssistant.class)
+                .streamingChatModel(streamingChatModel)
                 .retrievalAugmentor(retrievalAugmentor)
-                .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+                .chatMemory(chatMemory)
                 .build();
 
-        // Test
+        // Test; time to first token and turn duration are summarized on exit
+        InProcessMetrics metrics = new InProcessMetrics();
         Scanner scanner = new Scanner(System.in);
         while (true) {
             System.out.print("You: ");
@@ -117,9 +210,13 @@ public class TestRoutage {
             if (query.equalsIgnoreCase("exit")) {
                 break;
             }
-            String response = assistant.chat(query);
-            System.out.println("Assistant: " + response);
+            StreamingConsole.chat(assistant, query, metrics);
         }
         scanner.close();
+        reportWatcher.close();
+        System.out.println("Question embedding cache: " + queryEmbeddingModel);
+        System.out.println("Speculative retrieval: " + speculativeRouter);
+        System.out.println("Chat memory: " + chatMemory);
+        System.out.print("Latencies:\n" + metrics);
     }
 }
\ No newline at end of file
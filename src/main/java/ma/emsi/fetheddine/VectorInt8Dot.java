@@ -0,0 +1,54 @@
+package ma.emsi.fetheddine;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.Vector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Produit scalaire int8 x int8 écrit avec l'API Vector (module incubateur
+ * jdk.incubator.vector), pour QuantizedEmbeddingStore. Sur JDK 21, C2 ne vectorise pas
+ * utilement la boucle scalaire équivalente : le balayage INT8 n'y est guère plus rapide que
+ * le scan float32. Ici chaque tour charge un bloc d'octets, l'élargit en short, multiplie
+ * (|produit| <= 127 x 127, tient dans un short), puis l'élargit en int et l'accumule.
+ * <p>
+ * La classe n'est chargée que si la JVM a été lancée avec
+ * {@code --add-modules jdk.incubator.vector} et que le processeur offre des registres d'au
+ * moins 256 bits (AVX2, AVX-512) : voir {@link #available()}.
+ */
+final class VectorInt8Dot {
+
+    private static final int PREFERRED_BITS = IntVector.SPECIES_PREFERRED.vectorBitSize();
+    // Même nombre de voies à chaque largeur : 8 octets -> 8 short -> 8 int en AVX2, 16 en AVX-512.
+    private static final VectorSpecies<Integer> INTS = PREFERRED_BITS >= 512 ? IntVector.SPECIES_512 : IntVector.SPECIES_256;
+    private static final VectorSpecies<Short> SHORTS =
+            ShortVector.SPECIES_128.withShape(VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+    private static final VectorSpecies<Byte> BYTES =
+            ByteVector.SPECIES_64.withShape(VectorShape.forBitSize(INTS.vectorBitSize() / 4));
+
+    private VectorInt8Dot() {
+    }
+
+    static boolean available() {
+        return PREFERRED_BITS >= 256;
+    }
+
+    static int dot(byte[] query, byte[] codes, int base) {
+        IntVector sum = IntVector.zero(INTS);
+        int bound = BYTES.loopBound(query.length);
+        int d = 0;
+        for (; d < bound; d += BYTES.length()) {
+            Vector<Short> q = ByteVector.fromArray(BYTES, query, d).convertShape(VectorOperators.B2S, SHORTS, 0);
+            Vector<Short> c = ByteVector.fromArray(BYTES, codes, base + d).convertShape(VectorOperators.B2S, SHORTS, 0);
+            sum = sum.add(q.mul(c).convertShape(VectorOperators.S2I, INTS, 0));
+        }
+        int dot = sum.reduceLanes(VectorOperators.ADD);
+        for (; d < query.length; d++) {
+            dot += query[d] * codes[base + d];
+        }
+        return dot;
+    }
+}
@@ -0,0 +1,216 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.web.search.WebSearchRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Comportement de CachingWebSearchEngine face à StubWebSearchEngine, sans réseau et sans
+ * attendre le TTL grâce à une horloge avancée à la main : expiration, éviction LRU en nombre
+ * d'entrées puis en taille estimée, recherches simultanées fusionnées, persistance.
+ */
+class CachingWebSearchEngineTest {
+
+    private static final Duration TTL = Duration.ofHours(6);
+
+    @Test
+    void servesEntriesUntilTheTtl() {
+        ManualClock clock = new ManualClock();
+        StubWebSearchEngine engine = new StubWebSearchEngine();
+        CachingWebSearchEngine cache = CachingWebSearchEngine.builder()
+                .webSearchEngine(engine)
+                .ttl(TTL)
+                .clock(clock)
+                .build();
+
+        cache.search(request("Prix du baril de Brent"));
+        cache.search(request("  prix du BARIL de brent ?"));
+        assertEquals(1, engine.calls(), "requête normalisée servie par le cache");
+        clock.advance(TTL.minusMinutes(1));
+        cache.search(request("Prix du baril de Brent"));
+        assertEquals(1, engine.calls(), "entrée encore valide juste avant le TTL");
+        clock.advance(Duration.ofMinutes(2));
+        cache.search(request("Prix du baril de Brent"));
+        assertEquals(2, engine.calls(), "entrée expirée après le TTL, moteur rappelé");
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry() {
+        StubWebSearchEngine engine = new StubWebSearchEngine();
+        CachingWebSearchEngine cache = CachingWebSearchEngine.builder()
+                .webSearchEngine(engine)
+                .maxEntries(3)
+                .clock(new ManualClock())
+                .build();
+
+        cache.search(request("a"));
+        cache.search(request("b"));
+        cache.search(request("c"));
+        // « a » redevient la plus récente : « b » est la moins récemment utilisée.
+        cache.search(request("a"));
+        cache.search(request("d"));
+        assertEquals(3, cache.size(), "au plus maxEntries entrées");
+        long before = engine.calls();
+        cache.search(request("a"));
+        cache.search(request("c"));
+        cache.search(request("d"));
+        assertEquals(before, engine.calls(), "entrées récemment utilisées gardées");
+        cache.search(request("b"));
+        assertEquals(before + 1, engine.calls(), "entrée la moins récemment utilisée évincée");
+    }
+
+    @Test
+    void staysUnderMaxBytes() {
+        StubWebSearchEngine engine = new StubWebSearchEngine(0, 1000);
+        long maxBytes = 30_000;
+        CachingWebSearchEngine cache = CachingWebSearchEngine.builder()
+                .webSearchEngine(engine)
+                .maxBytes(maxBytes)
+                .clock(new ManualClock())
+                .build();
+
+        for (int i = 0; i < 5; i++) {
+            cache.search(request("requête " + i));
+            assertTrue(cache.bytes() <= maxBytes, "taille estimée sous maxBytes : " + cache.bytes());
+        }
+        assertTrue(cache.size() < 5, "entrées évincées sur la taille");
+        long before = engine.calls();
+        cache.search(request("requête 4"));
+        assertEquals(before, engine.calls(), "dernière entrée gardée");
+        cache.search(request("requête 0"));
+        assertEquals(before + 1, engine.calls(), "première entrée évincée");
+    }
+
+    @Test
+    void doesNotCacheResultsLargerThanMaxBytes() {
+        CachingWebSearchEngine cache = CachingWebSearchEngine.builder()
+                .webSearchEngine(new StubWebSearchEngine(0, 100_000))
+                .maxBytes(30_000)
+                .clock(new ManualClock())
+                .build();
+
+        cache.search(request("page énorme"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    void coalescesConcurrentIdenticalSearches() throws InterruptedException {
+        int concurrent = 32;
+        StubWebSearchEngine engine = new StubWebSearchEngine(200, 200);
+        CachingWebSearchEngine cache = CachingWebSearchEngine.builder()
+                .webSearchEngine(engine)
+                .clock(new ManualClock())
+                .build();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(concurrent);
+        for (int i = 0; i < concurrent; i++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                cache.search(request("Cours de l'or aujourd'hui"));
+            }));
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, engine.calls(), "un seul appel au moteur");
+        assertEquals(1, cache.misses());
+        assertEquals(concurrent - 1, cache.hits() + cache.coalesced(),
+                "les autres servies par l'appel en cours ou le cache");
+    }
+
+    @Test
+    void reloadsSavedEntriesExceptExpiredOnes(@TempDir Path directory) {
+        Path file = directory.resolve("web-search.bin");
+        ManualClock clock = new ManualClock();
+        CachingWebSearchEngine cache = CachingWebSearchEngine.builder()
+                .webSearchEngine(new StubWebSearchEngine())
+                .ttl(TTL)
+                .persistFile(file)
+                .clock(clock)
+                .build();
+        cache.search(request("Météo à Casablanca"));
+        clock.advance(Duration.ofHours(1));
+        cache.search(request("Horaires du train Rabat Casablanca"));
+        cache.save();
+
+        StubWebSearchEngine restarted = new StubWebSearchEngine();
+        CachingWebSearchEngine reloaded = CachingWebSearchEngine.builder()
+                .webSearchEngine(restarted)
+                .ttl(TTL)
+                .persistFile(file)
+                .clock(clock)
+                .build();
+        assertEquals(2, reloaded.size(), "entrées rechargées au démarrage");
+        String content = reloaded.search(request("Météo à Casablanca")).results().get(0).content();
+        assertEquals(0, restarted.calls(), "résultat rechargé sans appel au moteur");
+        assertEquals(200, content.length());
+
+        // La première entrée expire 6 h après sa création, la seconde une heure plus tard.
+        clock.advance(TTL.minusMinutes(30));
+        CachingWebSearchEngine later = CachingWebSearchEngine.builder()
+                .webSearchEngine(restarted)
+                .ttl(TTL)
+                .persistFile(file)
+                .clock(clock)
+                .build();
+        assertEquals(1, later.size(), "entrée expirée ignorée au rechargement");
+    }
+
+    private static WebSearchRequest request(String query) {
+        return WebSearchRequest.from(query, 5);
+    }
+
+    /**
+     * Horloge qui n'avance qu'à la demande.
+     */
+    private static final class ManualClock extends Clock {
+
+        private final AtomicLong millis = new AtomicLong(Instant.parse("2025-01-01T00:00:00Z").toEpochMilli());
+
+        void advance(Duration duration) {
+            millis.addAndGet(duration.toMillis());
+        }
+
+        @Override
+        public long millis() {
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis.get());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
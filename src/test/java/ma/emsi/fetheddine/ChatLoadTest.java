@@ -0,0 +1,153 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test de charge de ChatServer avec StubChatModel et StubEmbeddingModel : pour chaque
+ * niveau de concurrence, autant de clients que de sessions envoient chacun une série
+ * de questions, et on mesure débit, p50 et p99 de la latence des requêtes.
+ * <p>
+ * Arguments optionnels : latence simulée du LLM en ms (100 par défaut), nombre de
+ * questions par session (10), puis les niveaux de concurrence (1 8 32 128 512).
+ */
+public class ChatLoadTest {
+
+    private static final String[] WORDS = {
+            "retrieval", "augmented", "generation", "embedding", "segment", "vecteur", "document",
+            "modèle", "requête", "contexte", "prompt", "similarité", "index", "recherche", "réponse",
+            "mémoire", "session", "latence", "routeur", "hallucination", "corpus", "pertinence"
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long llmLatencyMillis = args.length > 0 ? Long.parseLong(args[0]) : 100;
+        int turnsPerSession = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int[] concurrencyLevels = args.length > 2
+                ? Arrays.stream(args, 2, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1, 8, 32, 128, 512};
+
+        // Pipeline partagé : un seul store et un seul retriever pour toutes les sessions
+        EmbeddingModel embeddingModel = new StubEmbeddingModel();
+        OffHeapEmbeddingStore embeddingStore = new OffHeapEmbeddingStore();
+        Random random = new Random(42);
+        List<TextSegment> segments = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            segments.add(TextSegment.from(sentence(random, 40)));
+        }
+        embeddingStore.addAll(embeddingModel.embedAll(segments).content(), segments);
+        // Répartition du temps par étape (embedding de la question, recherche, requête complète)
+        InProcessMetrics metrics = new InProcessMetrics();
+        ContentRetriever contentRetriever = PipelineMetrics.contentRetriever("stub",
+                EmbeddingStoreContentRetriever.builder()
+                        .embeddingStore(embeddingStore)
+                        .embeddingModel(PipelineMetrics.embeddingModel(embeddingModel, metrics))
+                        .maxResults(2)
+                        .minScore(0.5)
+                        .build(),
+                metrics);
+
+        SessionMemoryStore memoryStore = new SessionMemoryStore(10_000, Duration.ofMinutes(30), 10);
+        SessionAssistant assistant = ChatServer.assistant(new StubChatModel(llmLatencyMillis), contentRetriever,
+                memoryStore);
+
+        try (ChatServer chatServer = ChatServer.start(0, assistant, memoryStore, metrics);
+             ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            URI uri = URI.create("http://localhost:" + chatServer.port() + "/chat");
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(clients)
+                    .build();
+            System.out.printf("LLM simulé : %d ms, %d questions par session, %d segments indexés%n",
+                    llmLatencyMillis, turnsPerSession, segments.size());
+            System.out.printf("%12s %10s %12s %10s %10s %8s%n",
+                    "concurrence", "requêtes", "débit (r/s)", "p50 (ms)", "p99 (ms)", "erreurs");
+
+            // Échauffement (JIT, connexions) non mesuré
+            runLevel(httpClient, clients, uri, 8, 5, "warmup");
+
+            for (int concurrency : concurrencyLevels) {
+                long start = System.nanoTime();
+                Level level = runLevel(httpClient, clients, uri, concurrency, turnsPerSession, "c" + concurrency);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                long[] latencies = level.latencies();
+                Arrays.sort(latencies);
+                System.out.printf("%12d %10d %12.1f %10.1f %10.1f %8d%n", concurrency, latencies.length,
+                        latencies.length / seconds, percentile(latencies, 0.50) / 1e6,
+                        percentile(latencies, 0.99) / 1e6, level.errors());
+            }
+            System.out.println("Serveur : " + chatServer);
+            System.out.print("Métriques par étape (échauffement compris) :\n" + metrics);
+        }
+    }
+
+    private record Level(long[] latencies, int errors) {
+    }
+
+    private static Level runLevel(HttpClient httpClient, ExecutorService clients, URI uri, int concurrency,
+                                  int turns, String prefix) throws InterruptedException {
+        long[] latencies = new long[concurrency * turns];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>(concurrency);
+        for (int c = 0; c < concurrency; c++) {
+            String sessionId = prefix + "-" + c;
+            Random random = new Random(c);
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int t = 0; t < turns; t++) {
+                    HttpRequest request = HttpRequest.newBuilder(uri)
+                            .header(ChatServer.SESSION_HEADER, sessionId)
+                            .POST(HttpRequest.BodyPublishers.ofString(sentence(random, 8) + " ?"))
+                            .build();
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    latencies[next.getAndIncrement()] = System.nanoTime() - start;
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new Level(Arrays.copyOf(latencies, next.get()), errors.get());
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
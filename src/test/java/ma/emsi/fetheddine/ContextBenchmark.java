@@ -0,0 +1,136 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.rag.AugmentationRequest;
+import dev.langchain4j.rag.AugmentationResult;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.content.aggregator.DefaultContentAggregator;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.rag.query.Metadata;
+import dev.langchain4j.rag.query.router.DefaultQueryRouter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tokens de prompt et latence du LLM selon l'assemblage du contexte, à couverture égale.
+ * <p>
+ * Corpus : rag.pdf et threat_report.pdf découpés en recursive(300, 30) comme Test5WebRag,
+ * embeddés par StubEmbeddingModel. Deux retrievers renvoient chacun 8 segments (vecteurs et
+ * BM25), qui se recouvrent souvent, derrière un DefaultQueryRouter. Chaque question reprend
+ * une dizaine de mots d'un segment tiré au hasard ; elle est couverte si ces mots figurent
+ * dans le contexte injecté. Le LLM est un StubChatModel dont la latence croît avec le prompt
+ * (200 ms + 0,5 ms par token).
+ * <p>
+ * Comparaison : DefaultContentAggregator (tout est concaténé) puis ContextPacker pour
+ * plusieurs budgets. Argument optionnel : nombre de questions (200).
+ */
+public class ContextBenchmark {
+
+    private static final int QUESTION_WORDS = 10;
+
+    public static void main(String[] args) {
+        int questionCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel();
+        List<TextSegment> segments = new ArrayList<>();
+        for (Path source : List.of(Paths.get("src/main/resources/rag.pdf"),
+                Paths.get("src/main/resources/threat_report.pdf"))) {
+            Document document = FileSystemDocumentLoader.loadDocument(source, new ApacheTikaDocumentParser());
+            segments.addAll(DocumentSplitters.recursive(300, 30).split(document));
+        }
+        OffHeapEmbeddingStore embeddingStore = new OffHeapEmbeddingStore();
+        Bm25Index lexicalIndex = new Bm25Index();
+        List<String> ids = embeddingStore.addAll(embeddingModel.embedAll(segments).content(), segments);
+        lexicalIndex.addAll(ids, segments);
+
+        ContentRetriever vectorRetriever = EmbeddingStoreContentRetriever.builder()
+                .embeddingStore(embeddingStore)
+                .embeddingModel(embeddingModel)
+                .maxResults(8)
+                .build();
+        ContentRetriever lexicalRetriever = query -> lexicalIndex.search(query.text(), 8).stream()
+                .map(hit -> Content.from(hit.segment()))
+                .toList();
+
+        Random random = new Random(11);
+        List<String> questions = new ArrayList<>(questionCount);
+        while (questions.size() < questionCount) {
+            String[] words = segments.get(random.nextInt(segments.size())).text().split("\\s+");
+            if (words.length >= 2 * QUESTION_WORDS) {
+                int start = random.nextInt(words.length - QUESTION_WORDS);
+                questions.add(String.join(" ", Arrays.copyOfRange(words, start, start + QUESTION_WORDS)));
+            }
+        }
+
+        Map<String, ContentAggregator> aggregators = new LinkedHashMap<>();
+        aggregators.put("concaténation (défaut)", new DefaultContentAggregator());
+        for (int budget : new int[]{800, 500, 300}) {
+            aggregators.put("ContextPacker " + budget + " tokens", ContextPacker.builder()
+                    .contentEmbeddingModel(embeddingModel)
+                    .queryEmbeddingModel(embeddingModel)
+                    .maxTokens(budget)
+                    .build());
+        }
+
+        ChatModel model = new StubChatModel(200, 0.5);
+        System.out.printf("%d segments, %d questions%n", segments.size(), questionCount);
+        System.out.printf("%-28s %10s %10s %11s %11s %13s%n", "assemblage", "couverture", "tokens",
+                "LLM moy.", "LLM p95", "assemblage");
+        for (Map.Entry<String, ContentAggregator> entry : aggregators.entrySet()) {
+            RetrievalAugmentor augmentor = DefaultRetrievalAugmentor.builder()
+                    .queryRouter(new DefaultQueryRouter(vectorRetriever, lexicalRetriever))
+                    .contentAggregator(entry.getValue())
+                    .build();
+            int covered = 0;
+            long tokens = 0;
+            long augmentNanos = 0;
+            long[] latencies = new long[questions.size()];
+            for (int q = 0; q < questions.size(); q++) {
+                UserMessage question = UserMessage.from(questions.get(q));
+                long start = System.nanoTime();
+                AugmentationResult result = augmentor.augment(
+                        new AugmentationRequest(question, Metadata.from(question, null, List.of())));
+                augmentNanos += System.nanoTime() - start;
+                String prompt = ((UserMessage) result.chatMessage()).singleText();
+                String context = prompt.substring(Math.min(prompt.length(), questions.get(q).length()));
+                if (normalize(context).contains(normalize(questions.get(q)))) {
+                    covered++;
+                }
+                tokens += ContextPacker.estimateTokens(prompt);
+                start = System.nanoTime();
+                model.chat(result.chatMessage());
+                latencies[q] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-28s %9.1f%% %10.0f %8.0f ms %8.0f ms %10.2f ms%n", entry.getKey(),
+                    100.0 * covered / questions.size(), (double) tokens / questions.size(),
+                    Arrays.stream(latencies).average().orElse(0) / 1e6,
+                    latencies[(int) Math.ceil(0.95 * latencies.length) - 1] / 1e6,
+                    augmentNanos / 1e6 / questions.size());
+            if (entry.getValue() instanceof ContextPacker packer) {
+                System.out.printf("%-28s %s%n", "", packer);
+            }
+        }
+    }
+
+    private static String normalize(String text) {
+        return text.replaceAll("\\s+", " ");
+    }
+}
@@ -0,0 +1,180 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.exception.InternalServerException;
+import dev.langchain4j.exception.RateLimitException;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Modèle de chat et d'embedding sans réseau qui imite le comportement d'une API distante
+ * sous charge, pour exercer ModelCallPolicy :
+ * <ul>
+ *     <li>latence log-normale (médiane, sigma), plus une fraction d'appels lents multipliés
+ *     par slowFactor, qui forment la queue de distribution ;</li>
+ *     <li>une fraction d'erreurs serveur (InternalServerException) ;</li>
+ *     <li>une capacité : au-delà de capacity appels simultanés, la requête est refusée
+ *     (RateLimitException, comme un 429 RESOURCE_EXHAUSTED) et, avant cela, la latence
+ *     croît avec la charge.</li>
+ * </ul>
+ * Les réponses viennent de StubChatModel et StubEmbeddingModel.
+ */
+public class FlakyStubModel implements ChatModel, EmbeddingModel {
+
+    private final long medianNanos;
+    private final double sigma;
+    private final double slowProbability;
+    private final double slowFactor;
+    private final double errorProbability;
+    private final int capacity;
+    private final StubChatModel chatModel = new StubChatModel(0);
+    private final StubEmbeddingModel embeddingModel = new StubEmbeddingModel();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private FlakyStubModel(Builder builder) {
+        this.medianNanos = builder.median.toNanos();
+        this.sigma = builder.sigma;
+        this.slowProbability = builder.slowProbability;
+        this.slowFactor = builder.slowFactor;
+        this.errorProbability = builder.errorProbability;
+        this.capacity = builder.capacity;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public ChatResponse doChat(ChatRequest chatRequest) {
+        simulate();
+        return chatModel.doChat(chatRequest);
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        simulate();
+        return embeddingModel.embedAll(segments);
+    }
+
+    @Override
+    public int dimension() {
+        return embeddingModel.dimension();
+    }
+
+    public long calls() {
+        return calls.sum();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    public long errors() {
+        return errors.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d appels reçus, %d refusés (429), %d erreurs serveur",
+                calls.sum(), rejected.sum(), errors.sum());
+    }
+
+    private void simulate() {
+        calls.increment();
+        int load = inFlight.incrementAndGet();
+        try {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (capacity > 0 && load > capacity) {
+                rejected.increment();
+                sleep(medianNanos / 10);
+                throw new RateLimitException("Capacité simulée dépassée (" + load + " > " + capacity + ")");
+            }
+            double latency = medianNanos * Math.exp(sigma * random.nextGaussian());
+            if (random.nextDouble() < slowProbability) {
+                latency *= slowFactor;
+            }
+            if (capacity > 0) {
+                // Files d'attente côté serveur : +50 % de latence à pleine capacité.
+                latency *= 1 + 0.5 * load / capacity;
+            }
+            boolean error = random.nextDouble() < errorProbability;
+            sleep((long) (error ? latency / 2 : latency));
+            if (error) {
+                errors.increment();
+                throw new InternalServerException("Erreur serveur simulée");
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Appel simulé interrompu", e);
+        }
+    }
+
+    public static class Builder {
+
+        private Duration median = Duration.ofMillis(100);
+        private double sigma = 0.25;
+        private double slowProbability;
+        private double slowFactor = 10;
+        private double errorProbability;
+        private int capacity;
+
+        /**
+         * Latence médiane et dispersion log-normale (100 ms, sigma 0.25).
+         */
+        public Builder latency(Duration median, double sigma) {
+            this.median = median;
+            this.sigma = sigma;
+            return this;
+        }
+
+        /**
+         * Fraction des appels dont la latence est multipliée par factor (aucun par défaut).
+         */
+        public Builder slowCalls(double probability, double factor) {
+            this.slowProbability = probability;
+            this.slowFactor = factor;
+            return this;
+        }
+
+        /**
+         * Fraction des appels qui échouent en erreur serveur (0 par défaut).
+         */
+        public Builder errorRate(double probability) {
+            this.errorProbability = probability;
+            return this;
+        }
+
+        /**
+         * Nombre d'appels simultanés acceptés avant les refus 429 (0, par défaut : illimité).
+         */
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        public FlakyStubModel build() {
+            return new FlakyStubModel(this);
+        }
+    }
+}
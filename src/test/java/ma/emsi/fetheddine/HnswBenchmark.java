@@ -0,0 +1,154 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Rapport rappel / latence de HnswEmbeddingStore face au scan exact (OffHeapEmbeddingStore),
+ * avec les réglages des retrievers routés : maxResults(2), minScore(0.6).
+ * <p>
+ * Corpus synthétique regroupé en clusters (comme des segments issus de rapports proches),
+ * requêtes = segments du corpus bruités.
+ * Arguments optionnels : nombre de vecteurs (défaut 20000), dimension (défaut 768).
+ */
+public class HnswBenchmark {
+
+    private static final int QUERIES = 500;
+    private static final int CLUSTERS = 200;
+    private static final int[] EF_SEARCH = {10, 20, 50, 100, 200};
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 768;
+        Random random = new Random(7);
+
+        float[][] centers = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centers[c] = gaussian(random, dimension, 1f);
+        }
+        List<String> ids = new ArrayList<>(count);
+        List<Embedding> embeddings = new ArrayList<>(count);
+        List<TextSegment> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] vector = add(centers[random.nextInt(CLUSTERS)], gaussian(random, dimension, 0.6f));
+            ids.add("seg-" + i);
+            embeddings.add(Embedding.from(vector));
+            segments.add(TextSegment.from("segment " + i));
+        }
+        List<EmbeddingSearchRequest> requests = new ArrayList<>(QUERIES);
+        for (int q = 0; q < QUERIES; q++) {
+            float[] base = embeddings.get(random.nextInt(count)).vector();
+            requests.add(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(Embedding.from(add(base, gaussian(random, dimension, 0.5f))))
+                    .maxResults(2)
+                    .minScore(0.6)
+                    .build());
+        }
+
+        OffHeapEmbeddingStore exact = new OffHeapEmbeddingStore();
+        exact.addAll(ids, embeddings, segments);
+        List<Set<String>> truth = new ArrayList<>(QUERIES);
+        for (EmbeddingSearchRequest request : requests) {
+            truth.add(idsOf(exact, request));
+        }
+        long[] exactLatencies = measure(exact, requests);
+        System.out.printf("Corpus : %d vecteurs x %d dimensions, %d requêtes%n", count, dimension, QUERIES);
+        System.out.printf("%-22s rappel=%.3f  moyenne=%7.1f µs  p99=%7.1f µs%n",
+                "scan exact", 1.0, mean(exactLatencies) / 1e3, percentile(exactLatencies, 0.99) / 1e3);
+
+        long start = System.nanoTime();
+        HnswEmbeddingStore hnsw = HnswEmbeddingStore.builder().m(16).efConstruction(200).build();
+        hnsw.addAll(ids, embeddings, segments);
+        System.out.printf("Construction HNSW (m=16, efConstruction=200) : %.1f s%n", (System.nanoTime() - start) / 1e9);
+
+        Path file = Files.createTempFile("hnsw", ".index");
+        start = System.nanoTime();
+        hnsw.save(file);
+        long saved = System.nanoTime() - start;
+        start = System.nanoTime();
+        hnsw = HnswEmbeddingStore.load(file);
+        System.out.printf("Sauvegarde : %.0f ms, rechargement : %.0f ms, %d Mo%n",
+                saved / 1e6, (System.nanoTime() - start) / 1e6, Files.size(file) >> 20);
+        Files.deleteIfExists(file);
+
+        for (int ef : EF_SEARCH) {
+            hnsw.setEfSearch(ef);
+            long[] latencies = measure(hnsw, requests);
+            int found = 0;
+            int expected = 0;
+            for (int q = 0; q < QUERIES; q++) {
+                Set<String> approximate = idsOf(hnsw, requests.get(q));
+                expected += truth.get(q).size();
+                for (String id : truth.get(q)) {
+                    if (approximate.contains(id)) {
+                        found++;
+                    }
+                }
+            }
+            System.out.printf("%-22s rappel=%.3f  moyenne=%7.1f µs  p99=%7.1f µs%n",
+                    "HNSW efSearch=" + ef, expected == 0 ? 1.0 : (double) found / expected,
+                    mean(latencies) / 1e3, percentile(latencies, 0.99) / 1e3);
+        }
+    }
+
+    private static Set<String> idsOf(EmbeddingStore<TextSegment> store, EmbeddingSearchRequest request) {
+        Set<String> ids = new HashSet<>();
+        for (EmbeddingMatch<TextSegment> match : store.search(request).matches()) {
+            ids.add(match.embeddingId());
+        }
+        return ids;
+    }
+
+    // Une passe de chauffe puis une passe mesurée.
+    private static long[] measure(EmbeddingStore<TextSegment> store, List<EmbeddingSearchRequest> requests) {
+        for (EmbeddingSearchRequest request : requests) {
+            store.search(request);
+        }
+        long[] latencies = new long[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            long start = System.nanoTime();
+            store.search(requests.get(i));
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private static double mean(long[] values) {
+        return Arrays.stream(values).average().orElse(0);
+    }
+
+    private static double percentile(long[] values, double percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static float[] gaussian(Random random, int dimension, float scale) {
+        float[] vector = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            vector[d] = (float) random.nextGaussian() * scale;
+        }
+        return vector;
+    }
+
+    private static float[] add(float[] a, float[] b) {
+        float[] sum = new float[a.length];
+        for (int d = 0; d < a.length; d++) {
+            sum[d] = a[d] + b[d];
+        }
+        return sum;
+    }
+}
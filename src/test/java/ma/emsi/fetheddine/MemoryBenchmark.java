@@ -0,0 +1,118 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.service.AiServices;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Taille du prompt au fil d'une longue session RAG selon la mémoire de conversation.
+ * <p>
+ * Une session enchaîne des questions d'une quinzaine de mots ; un retriever factice injecte
+ * 4 segments d'environ 75 tokens à chaque tour et le LLM factice répond en 120 tokens
+ * environ. Le résumé de CompactingChatMemory est produit par un StubChatModel (50 ms).
+ * Pour chaque mémoire : tokens envoyés au LLM à quelques tours, puis moyenne et maximum sur
+ * la session.
+ * <p>
+ * Argument optionnel : nombre de tours (60).
+ */
+public class MemoryBenchmark {
+
+    private static final String[] WORDS = ("document index segment modèle question réponse contexte "
+            + "embedding recherche vecteur requête source page texte résultat score mémoire session "
+            + "utilisateur assistant résumé budget token prompt cache").split(" ");
+
+    public static void main(String[] args) throws InterruptedException {
+        int turns = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+
+        Map<String, Supplier<ChatMemory>> memories = new LinkedHashMap<>();
+        memories.put("MessageWindowChatMemory(10)", () -> MessageWindowChatMemory.withMaxMessages(10));
+        memories.put("CompactingChatMemory(1000)", () -> CompactingChatMemory.builder()
+                .maxTokens(1000)
+                .summarizer(new StubChatModel(50))
+                .build());
+        memories.put("CompactingChatMemory(500)", () -> CompactingChatMemory.builder()
+                .maxTokens(500)
+                .summarizer(new StubChatModel(50))
+                .build());
+
+        System.out.printf("%d tours, 4 segments injectés par tour%n", turns);
+        System.out.printf("%-28s %7s %7s %7s %7s %7s %9s%n", "mémoire", "tour 1", "tour 10", "tour 30",
+                "dernier", "moyenne", "maximum");
+        for (Map.Entry<String, Supplier<ChatMemory>> entry : memories.entrySet()) {
+            ChatMemory memory = entry.getValue().get();
+            List<Integer> promptTokens = new ArrayList<>();
+            Random random = new Random(7);
+            ChatModel model = new ChatModel() {
+                @Override
+                public ChatResponse doChat(ChatRequest chatRequest) {
+                    int tokens = 0;
+                    for (ChatMessage message : chatRequest.messages()) {
+                        tokens += ContextPacker.estimateTokens(text(message));
+                    }
+                    promptTokens.add(tokens);
+                    return ChatResponse.builder()
+                            .aiMessage(AiMessage.from(sentence(random, 80)))
+                            .build();
+                }
+            };
+            ContentRetriever retriever = query -> List.of(Content.from(sentence(random, 50)),
+                    Content.from(sentence(random, 50)), Content.from(sentence(random, 50)),
+                    Content.from(sentence(random, 50)));
+            Assistant assistant = AiServices.builder(Assistant.class)
+                    .chatModel(model)
+                    .chatMemory(memory)
+                    .contentRetriever(retriever)
+                    .build();
+
+            for (int turn = 0; turn < turns; turn++) {
+                assistant.chat(sentence(random, 15) + " ?");
+                if (memory instanceof CompactingChatMemory compacting) {
+                    // Laisse le résumé se faire entre deux questions, comme le temps de lecture
+                    // d'un utilisateur.
+                    compacting.awaitSummary();
+                }
+            }
+            System.out.printf("%-28s %7d %7d %7d %7d %7.0f %9d%n", entry.getKey(), promptTokens.get(0),
+                    promptTokens.get(Math.min(9, turns - 1)), promptTokens.get(Math.min(29, turns - 1)),
+                    promptTokens.get(turns - 1),
+                    promptTokens.stream().mapToInt(Integer::intValue).average().orElse(0),
+                    promptTokens.stream().mapToInt(Integer::intValue).max().orElse(0));
+            if (memory instanceof CompactingChatMemory) {
+                System.out.printf("%-28s %s%n", "", memory);
+            }
+        }
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sentence.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+
+    private static String text(ChatMessage message) {
+        return switch (message) {
+            case SystemMessage system -> system.text();
+            case UserMessage user -> user.singleText();
+            case AiMessage ai -> ai.text();
+            default -> "";
+        };
+    }
+}
@@ -0,0 +1,208 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.googleai.GoogleAiEmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Empreinte mémoire, latence et rappel de QuantizedEmbeddingStore (INT8 et PQ) face au
+ * scan exact en float32 (OffHeapEmbeddingStore), en top-3 comme le retriever du rapport.
+ * <p>
+ * Deux corpus : les PDF fournis (rag.pdf + threat_report.pdf, questions = début de chaque
+ * segment), embeddés par Gemini si GEMINI_KEY est définie, sinon par StubEmbeddingModel ;
+ * puis un corpus synthétique regroupé en clusters, à l'échelle d'un nœud.
+ * Arguments optionnels : nombre de vecteurs synthétiques (défaut 100000), dimension (défaut 768).
+ */
+public class QuantizationBenchmark {
+
+    private static final int MAX_RESULTS = 3;
+    private static final int QUERIES = 500;
+    private static final int CLUSTERS = 200;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 768;
+
+        String geminiKey = System.getenv("GEMINI_KEY");
+        EmbeddingModel embeddingModel = geminiKey == null || geminiKey.isEmpty()
+                ? new StubEmbeddingModel()
+                : GoogleAiEmbeddingModel.builder().apiKey(geminiKey).modelName("text-embedding-004").build();
+        List<TextSegment> segments = new ArrayList<>();
+        for (Path source : List.of(Paths.get("src/main/resources/rag.pdf"),
+                Paths.get("src/main/resources/threat_report.pdf"))) {
+            Document document = FileSystemDocumentLoader.loadDocument(source, new ApacheTikaDocumentParser());
+            segments.addAll(DocumentSplitters.recursive(300, 0).split(document));
+        }
+        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+        List<TextSegment> questions = new ArrayList<>();
+        for (TextSegment segment : segments) {
+            questions.add(TextSegment.from(segment.text().substring(0, Math.min(60, segment.text().length()))));
+        }
+        List<Embedding> questionEmbeddings = embeddingModel.embedAll(questions).content();
+        System.out.printf("PDF fournis : %d segments x %d dimensions (%s)%n", segments.size(),
+                embeddings.get(0).dimension(), embeddingModel.getClass().getSimpleName());
+        compare(ids(segments.size()), embeddings, segments, requests(questionEmbeddings));
+
+        Random random = new Random(7);
+        float[][] centers = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centers[c] = gaussian(random, dimension, 1f);
+        }
+        List<Embedding> synthetic = new ArrayList<>(count);
+        List<TextSegment> syntheticSegments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            synthetic.add(Embedding.from(add(centers[random.nextInt(CLUSTERS)], gaussian(random, dimension, 0.6f))));
+            syntheticSegments.add(TextSegment.from("segment " + i));
+        }
+        List<Embedding> syntheticQueries = new ArrayList<>(QUERIES);
+        for (int q = 0; q < QUERIES; q++) {
+            float[] base = synthetic.get(random.nextInt(count)).vector();
+            syntheticQueries.add(Embedding.from(add(base, gaussian(random, dimension, 0.5f))));
+        }
+        System.out.printf("%nCorpus synthétique : %d vecteurs x %d dimensions%n", count, dimension);
+        compare(ids(count), synthetic, syntheticSegments, requests(syntheticQueries));
+    }
+
+    private static void compare(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments,
+                                List<EmbeddingSearchRequest> requests) {
+        int dimension = embeddings.get(0).dimension();
+        OffHeapEmbeddingStore exact = new OffHeapEmbeddingStore();
+        exact.addAll(ids, embeddings, segments);
+        List<Set<String>> truth = new ArrayList<>(requests.size());
+        for (EmbeddingSearchRequest request : requests) {
+            truth.add(idsOf(exact, request));
+        }
+        System.out.printf("%-24s %12s %8s %8s %12s %12s%n",
+                "store", "octets/vect.", "gain", "rappel", "moyenne", "p99");
+        long floatBytes = (long) dimension * Float.BYTES + Float.BYTES;
+        report("float32 (scan exact)", floatBytes, floatBytes, 1.0, measure(exact, requests));
+
+        List<QuantizedEmbeddingStore.Builder> builders = new ArrayList<>();
+        builders.add(QuantizedEmbeddingStore.builder().encoding(QuantizedEmbeddingStore.Encoding.INT8));
+        for (int subDimension : new int[]{4, 8}) {
+            if (dimension % subDimension == 0) {
+                builders.add(QuantizedEmbeddingStore.builder()
+                        .encoding(QuantizedEmbeddingStore.Encoding.PQ)
+                        .pqSubspaces(dimension / subDimension));
+            }
+        }
+        for (QuantizedEmbeddingStore.Builder builder : builders) {
+            try (QuantizedEmbeddingStore store = builder.build()) {
+                long start = System.nanoTime();
+                store.addAll(ids, embeddings, segments);
+                if (!store.isTrained()) {
+                    store.train();
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                long[] latencies = measure(store, requests);
+                int found = 0;
+                int expected = 0;
+                for (int q = 0; q < requests.size(); q++) {
+                    Set<String> approximate = idsOf(store, requests.get(q));
+                    expected += truth.get(q).size();
+                    for (String id : truth.get(q)) {
+                        if (approximate.contains(id)) {
+                            found++;
+                        }
+                    }
+                }
+                String name = store.toString();
+                report(name, (double) store.quantizedBytes() / store.size(), floatBytes,
+                        expected == 0 ? 1.0 : (double) found / expected, latencies);
+                System.out.printf("%-24s construction %.1f s, %d Mo de vecteurs complets hors tas%n", "",
+                        seconds, store.fullPrecisionBytes() >> 20);
+            }
+        }
+    }
+
+    private static void report(String name, double bytesPerVector, double floatBytes, double recall,
+                               long[] latencies) {
+        System.out.printf("%-24s %12.1f %7.1fx %8.3f %9.1f µs %9.1f µs%n", name, bytesPerVector,
+                floatBytes / bytesPerVector, recall, mean(latencies) / 1e3, percentile(latencies, 0.99) / 1e3);
+    }
+
+    private static List<String> ids(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add("seg-" + i);
+        }
+        return ids;
+    }
+
+    private static List<EmbeddingSearchRequest> requests(List<Embedding> queries) {
+        List<EmbeddingSearchRequest> requests = new ArrayList<>(queries.size());
+        for (Embedding query : queries) {
+            requests.add(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(query)
+                    .maxResults(MAX_RESULTS)
+                    .minScore(0.0)
+                    .build());
+        }
+        return requests;
+    }
+
+    private static Set<String> idsOf(EmbeddingStore<TextSegment> store, EmbeddingSearchRequest request) {
+        Set<String> ids = new HashSet<>();
+        for (EmbeddingMatch<TextSegment> match : store.search(request).matches()) {
+            ids.add(match.embeddingId());
+        }
+        return ids;
+    }
+
+    // Une passe de chauffe puis une passe mesurée.
+    private static long[] measure(EmbeddingStore<TextSegment> store, List<EmbeddingSearchRequest> requests) {
+        for (EmbeddingSearchRequest request : requests) {
+            store.search(request);
+        }
+        long[] latencies = new long[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            long start = System.nanoTime();
+            store.search(requests.get(i));
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private static double mean(long[] values) {
+        return Arrays.stream(values).average().orElse(0);
+    }
+
+    private static double percentile(long[] values, double percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static float[] gaussian(Random random, int dimension, float scale) {
+        float[] vector = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            vector[d] = (float) random.nextGaussian() * scale;
+        }
+        return vector;
+    }
+
+    private static float[] add(float[] a, float[] b) {
+        float[] sum = new float[a.length];
+        for (int d = 0; d < a.length; d++) {
+            sum[d] = a[d] + b[d];
+        }
+        return sum;
+    }
+}
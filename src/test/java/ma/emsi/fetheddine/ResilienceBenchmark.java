@@ -0,0 +1,117 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.model.chat.ChatModel;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Latence de queue des appels au LLM avec et sans ModelCallPolicy, face à FlakyStubModel :
+ * médiane 100 ms, 2 % d'appels lents (x10), 2 % d'erreurs serveur et 32 appels simultanés
+ * au plus avant les refus 429.
+ * <p>
+ * Pour chaque nombre de clients (chacun enchaîne ses appels), quatre configurations :
+ * appel direct, reprises seules (concurrence non limitée), AIMD + seau à jetons + reprises,
+ * puis la même chose avec les requêtes de couverture. Les percentiles portent sur les appels
+ * réussis, attente comprise ; « requêtes » est le nombre d'appels reçus par le modèle.
+ * <p>
+ * Arguments optionnels : appels par client (50), puis les nombres de clients (16 64).
+ */
+public class ResilienceBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int callsPerClient = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int[] clientCounts = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{16, 64};
+
+        List<String> names = List.of("direct", "reprises seules", "AIMD + reprises", "AIMD + reprises + hedging");
+        // null : appels directs, sans politique.
+        List<Supplier<ModelCallPolicy>> policies = List.of(
+                () -> null,
+                () -> ModelCallPolicy.builder()
+                        .concurrency(1024, 1024, 1024)
+                        .backoff(Duration.ofMillis(50), Duration.ofSeconds(1))
+                        .build(),
+                () -> ModelCallPolicy.builder()
+                        .rateLimit(400, 20)
+                        .concurrency(8, 1, 64)
+                        .backoff(Duration.ofMillis(50), Duration.ofSeconds(1))
+                        .build(),
+                () -> ModelCallPolicy.builder()
+                        .rateLimit(400, 20)
+                        .concurrency(8, 1, 64)
+                        .backoff(Duration.ofMillis(50), Duration.ofSeconds(1))
+                        .hedging(0.95, 0.1)
+                        .build());
+
+        for (int clients : clientCounts) {
+            System.out.printf("%n%d clients x %d appels%n", clients, callsPerClient);
+            System.out.printf("%-28s %8s %9s %9s %9s %9s %9s %10s%n", "configuration", "succès",
+                    "p50 (ms)", "p95 (ms)", "p99 (ms)", "p99.9", "max (ms)", "requêtes");
+            for (int i = 0; i < names.size(); i++) {
+                FlakyStubModel model = FlakyStubModel.builder()
+                        .latency(Duration.ofMillis(100), 0.25)
+                        .slowCalls(0.02, 10)
+                        .errorRate(0.02)
+                        .capacity(32)
+                        .build();
+                ModelCallPolicy policy = policies.get(i).get();
+                Run run;
+                try {
+                    run = run(policy == null ? model : policy.chatModel(model), clients, callsPerClient);
+                } finally {
+                    if (policy != null) {
+                        policy.close();
+                    }
+                }
+                long[] latencies = run.latencies();
+                Arrays.sort(latencies);
+                System.out.printf("%-28s %7.1f%% %9.1f %9.1f %9.1f %9.1f %9.1f %10d%n", names.get(i),
+                        100.0 * latencies.length / (clients * callsPerClient),
+                        percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.95) / 1e6,
+                        percentile(latencies, 0.99) / 1e6, percentile(latencies, 0.999) / 1e6,
+                        percentile(latencies, 1.0) / 1e6, model.calls());
+            }
+        }
+    }
+
+    private record Run(long[] latencies, int failures) {
+    }
+
+    private static Run run(ChatModel model, int clients, int callsPerClient) throws InterruptedException {
+        long[] latencies = new long[clients * callsPerClient];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>(clients);
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int call = 0; call < callsPerClient; call++) {
+                    long start = System.nanoTime();
+                    try {
+                        model.chat("Question " + call + " du client " + client);
+                        latencies[next.getAndIncrement()] = System.nanoTime() - start;
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new Run(Arrays.copyOf(latencies, next.get()), failures.get());
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
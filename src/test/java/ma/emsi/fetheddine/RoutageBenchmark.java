@@ -0,0 +1,137 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.googleai.GoogleAiEmbeddingModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.LanguageModelQueryRouter;
+import dev.langchain4j.rag.query.router.QueryRouter;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compare précision et latence d'EmbeddingQueryRouter et de LanguageModelQueryRouter
+ * sur un jeu de questions étiquetées, avec les descriptions de TestRoutage.
+ * <p>
+ * Avec GEMINI_KEY, les deux routeurs utilisent les vrais modèles. Sans clé, seul le
+ * routeur par embeddings est mesuré, avec StubEmbeddingModel (précision non représentative).
+ */
+public class RoutageBenchmark {
+
+    private static final String RAG = "rag";
+    private static final String THREAT = "threat";
+
+    // Exemples qui forment les centroïdes d'EmbeddingQueryRouter : aucun n'est dans le jeu
+    // d'évaluation, sinon la précision mesurerait en partie l'apprentissage.
+    private static final List<String> RAG_EXAMPLES = List.of(
+            "What is Retrieval-Augmented Generation?",
+            "Comment fonctionne la recherche de documents avec des embeddings ?");
+    private static final List<String> THREAT_EXAMPLES = List.of(
+            "Which threat actors are described in the report?",
+            "Quelles attaques informatiques le rapport analyse-t-il ?");
+
+    // Question → retrievers attendus (vide : aucune recherche utile).
+    private static final Map<String, Set<String>> LABELLED_QUERIES = new LinkedHashMap<>();
+
+    static {
+        label("Qu'est-ce que le RAG ?", RAG);
+        label("Explique le principe de Retrieval-Augmented Generation", RAG);
+        label("Comment découper un document en segments pour le RAG ?", RAG);
+        label("À quoi sert un modèle d'embedding dans une recherche sémantique ?", RAG);
+        label("Quelle est la différence entre RAG naïf et RAG avancé ?", RAG);
+        label("How does a vector store retrieve relevant passages?", RAG);
+        label("Pourquoi le RAG réduit-il les hallucinations des LLM ?", RAG);
+        label("Quelles sont les principales menaces décrites dans le rapport ?", THREAT);
+        label("Quels groupes de ransomware sont mentionnés ?", THREAT);
+        label("Which vulnerabilities were most exploited this year?", THREAT);
+        label("Quels secteurs ont été les plus ciblés par les attaquants ?", THREAT);
+        label("Le rapport parle-t-il de phishing ?", THREAT);
+        label("Quelles recommandations de sécurité donne le rapport de menaces ?", THREAT);
+        label("Quels indicateurs de compromission sont listés ?", THREAT);
+        label("Quel temps fait-il à Casablanca ?");
+        label("Donne-moi une recette de tajine");
+        label("Qui a gagné la coupe du monde 2022 ?");
+    }
+
+    private static void label(String query, String... retrievers) {
+        if (RAG_EXAMPLES.contains(query) || THREAT_EXAMPLES.contains(query)) {
+            throw new IllegalStateException("Question d'évaluation aussi utilisée comme exemple : " + query);
+        }
+        LABELLED_QUERIES.put(query, new HashSet<>(Arrays.asList(retrievers)));
+    }
+
+    private record NamedRetriever(String name) implements ContentRetriever {
+        @Override
+        public List<Content> retrieve(Query query) {
+            return List.of();
+        }
+    }
+
+    public static void main(String[] args) {
+        String geminiKey = System.getenv("GEMINI_KEY");
+        boolean live = geminiKey != null && !geminiKey.isEmpty();
+
+        EmbeddingModel embeddingModel = live
+                ? GoogleAiEmbeddingModel.builder().apiKey(geminiKey).modelName("text-embedding-004").build()
+                : new StubEmbeddingModel();
+
+        ContentRetriever rag = new NamedRetriever(RAG);
+        ContentRetriever threat = new NamedRetriever(THREAT);
+        Map<ContentRetriever, String> retrieverMap = new LinkedHashMap<>();
+        retrieverMap.put(rag, "Answers questions about Retrieval-Augmented Generation (RAG)");
+        retrieverMap.put(threat, "Answers questions about a threat report");
+
+        EmbeddingQueryRouter embeddingRouter = EmbeddingQueryRouter.builder()
+                .embeddingModel(embeddingModel)
+                .retrieverToDescription(retrieverMap)
+                .examples(rag, RAG_EXAMPLES)
+                .examples(threat, THREAT_EXAMPLES)
+                .build();
+        run("EmbeddingQueryRouter", embeddingRouter);
+
+        if (live) {
+            ChatModel chatModel = GoogleAiGeminiChatModel.builder()
+                    .apiKey(geminiKey)
+                    .modelName("gemini-2.5-flash")
+                    .temperature(0.3)
+                    .build();
+            run("LanguageModelQueryRouter", new LanguageModelQueryRouter(chatModel, retrieverMap));
+        } else {
+            System.out.println("GEMINI_KEY absente : LanguageModelQueryRouter non mesuré.");
+        }
+    }
+
+    private static void run(String name, QueryRouter router) {
+        int correct = 0;
+        long[] latencies = new long[LABELLED_QUERIES.size()];
+        int i = 0;
+        for (Map.Entry<String, Set<String>> labelled : LABELLED_QUERIES.entrySet()) {
+            long start = System.nanoTime();
+            Collection<ContentRetriever> routed = router.route(Query.from(labelled.getKey()));
+            latencies[i++] = System.nanoTime() - start;
+            Set<String> names = new HashSet<>();
+            for (ContentRetriever retriever : routed) {
+                names.add(((NamedRetriever) retriever).name());
+            }
+            if (names.equals(labelled.getValue())) {
+                correct++;
+            } else {
+                System.out.println("  [" + name + "] " + labelled.getKey() + " -> " + names
+                        + " (attendu " + labelled.getValue() + ")");
+            }
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-26s précision=%d/%d  médiane=%8.2f ms  p95=%8.2f ms%n", name, correct, latencies.length,
+                latencies[latencies.length / 2] / 1e6,
+                latencies[(int) Math.ceil(0.95 * latencies.length) - 1] / 1e6);
+    }
+}
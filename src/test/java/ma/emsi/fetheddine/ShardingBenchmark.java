@@ -0,0 +1,215 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Passage à l'échelle de ShardedEmbeddingStore de 1 à N shards sur un corpus synthétique
+ * (un million de vecteurs par défaut, regroupés en clusters comme dans HnswBenchmark).
+ * <p>
+ * Deux séries : des shards locaux (OffHeapEmbeddingStore, scan exact en parallèle sur le
+ * ForkJoinPool), puis des shards distants, un processus ShardServer par shard lancé sur
+ * cette machine avec le même classpath, qui tient lieu de cluster. Pour chaque
+ * configuration : durée d'ingestion, latence d'une recherche top-10 isolée (moyenne et
+ * p99), débit avec 8 clients simultanés, et part des recherches dont le top-10 est
+ * identique à celui du shard unique (la fusion des top-k locaux doit être exacte).
+ * <p>
+ * Arguments optionnels : nombre de vecteurs (1000000), dimension (128), nombre maximal de
+ * shards locaux (8), de shards distants (4).
+ * <p>
+ * Seule mesure disponible : une machine à un cœur, où les shards ne peuvent pas travailler en
+ * parallèle. Latence moyenne stable de 1 à 8 shards locaux (142 à 143 ms), 160 ms avec 4
+ * processus : elle ne chiffre que le surcoût de la fusion et du protocole. Le gain attendu
+ * de 1 à N cœurs ou nœuds n'a pas été mesuré.
+ */
+public class ShardingBenchmark {
+
+    private static final int CLUSTERS = 1000;
+    private static final int BATCH = 10_000;
+    private static final int QUERIES = 100;
+    private static final int CLIENTS = 8;
+    private static final Pattern PORT = Pattern.compile("(\\d+)\\s*$");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        int maxLocalShards = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int maxRemoteShards = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+        Random random = new Random(7);
+        float[][] centers = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centers[c] = gaussian(random, dimension, 1f);
+        }
+        List<EmbeddingSearchRequest> requests = new ArrayList<>(QUERIES);
+        for (int q = 0; q < QUERIES; q++) {
+            requests.add(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(Embedding.from(add(centers[random.nextInt(CLUSTERS)],
+                            gaussian(random, dimension, 0.6f))))
+                    .maxResults(10)
+                    .build());
+        }
+
+        System.out.printf("Corpus : %d vecteurs x %d dimensions, %d requêtes top-10, %d cœurs%n",
+                count, dimension, QUERIES, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-16s %12s %13s %11s %12s %10s%n", "shards", "ingestion", "latence moy.",
+                "p99", "débit (x" + CLIENTS + ")", "identique");
+
+        List<List<String>> truth = null;
+        for (int shards = 1; shards <= maxLocalShards; shards *= 2) {
+            List<OffHeapEmbeddingStore> stores = new ArrayList<>(shards);
+            for (int s = 0; s < shards; s++) {
+                stores.add(new OffHeapEmbeddingStore());
+            }
+            try (ShardedEmbeddingStore store = ShardedEmbeddingStore.builder().shards(stores).build()) {
+                truth = run(shards + " local", store, centers, count, requests, truth);
+            }
+            stores = null;
+            // Libère les buffers hors du tas avant la configuration suivante.
+            System.gc();
+        }
+
+        for (int shards = 1; shards <= maxRemoteShards; shards *= 2) {
+            List<Process> processes = new ArrayList<>(shards);
+            List<RemoteEmbeddingStore> stores = new ArrayList<>(shards);
+            try {
+                for (int s = 0; s < shards; s++) {
+                    Process process = startShard();
+                    processes.add(process);
+                    stores.add(new RemoteEmbeddingStore(InetAddress.getLoopbackAddress().getHostAddress(),
+                            readPort(process)));
+                }
+                try (ShardedEmbeddingStore store = ShardedEmbeddingStore.builder().shards(stores).build()) {
+                    run(shards + " processus", store, centers, count, requests, truth);
+                }
+            } finally {
+                for (Process process : processes) {
+                    process.destroy();
+                    process.waitFor();
+                }
+            }
+        }
+    }
+
+    private static List<List<String>> run(String name, ShardedEmbeddingStore store, float[][] centers, int count,
+                                          List<EmbeddingSearchRequest> requests, List<List<String>> truth)
+            throws InterruptedException {
+        long ingestNanos = ingest(store, centers, count);
+
+        long[] latencies = new long[requests.size()];
+        List<List<String>> results = new ArrayList<>(requests.size());
+        for (int q = 0; q < requests.size(); q++) {
+            long start = System.nanoTime();
+            List<EmbeddingMatch<TextSegment>> matches = store.search(requests.get(q)).matches();
+            latencies[q] = System.nanoTime() - start;
+            results.add(matches.stream().map(EmbeddingMatch::embeddingId).toList());
+        }
+        Arrays.sort(latencies);
+
+        AtomicInteger next = new AtomicInteger();
+        List<Thread> clients = new ArrayList<>(CLIENTS);
+        long start = System.nanoTime();
+        for (int c = 0; c < CLIENTS; c++) {
+            clients.add(Thread.ofPlatform().start(() -> {
+                int q;
+                while ((q = next.getAndIncrement()) < requests.size()) {
+                    store.search(requests.get(q));
+                }
+            }));
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        double throughput = requests.size() / ((System.nanoTime() - start) / 1e9);
+
+        int identical = 0;
+        for (int q = 0; q < results.size(); q++) {
+            if (truth == null || truth.get(q).equals(results.get(q))) {
+                identical++;
+            }
+        }
+        System.out.printf("%-16s %10.1f s %10.1f ms %8.1f ms %8.1f req/s %9.0f%%%n", name, ingestNanos / 1e9,
+                Arrays.stream(latencies).average().orElse(0) / 1e6,
+                latencies[(int) Math.ceil(0.99 * latencies.length) - 1] / 1e6,
+                throughput, 100.0 * identical / results.size());
+        System.out.printf("%-16s %s%n", "", store);
+        return truth == null ? results : truth;
+    }
+
+    // Régénère le même corpus (même graine) pour chaque configuration, par lots : seul
+    // l'ajout dans le store est chronométré.
+    private static long ingest(EmbeddingStore<TextSegment> store, float[][] centers, int count) {
+        Random random = new Random(11);
+        int dimension = centers[0].length;
+        long nanos = 0;
+        for (int from = 0; from < count; from += BATCH) {
+            int size = Math.min(BATCH, count - from);
+            List<String> ids = new ArrayList<>(size);
+            List<Embedding> embeddings = new ArrayList<>(size);
+            List<TextSegment> segments = new ArrayList<>(size);
+            for (int i = from; i < from + size; i++) {
+                ids.add("seg-" + i);
+                embeddings.add(Embedding.from(add(centers[random.nextInt(CLUSTERS)],
+                        gaussian(random, dimension, 0.6f))));
+                segments.add(TextSegment.from("segment " + i));
+            }
+            long start = System.nanoTime();
+            store.addAll(ids, embeddings, segments);
+            nanos += System.nanoTime() - start;
+        }
+        return nanos;
+    }
+
+    private static Process startShard() throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-Xmx512m", "-XX:MaxDirectMemorySize=2g",
+                "-cp", System.getProperty("java.class.path"), ShardServer.class.getName())
+                .redirectErrorStream(true)
+                .redirectInput(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private static int readPort(Process process) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Matcher matcher = PORT.matcher(line);
+            if (line.startsWith("Shard") && matcher.find()) {
+                return Integer.parseInt(matcher.group(1));
+            }
+        }
+        throw new IOException("Le processus shard s'est arrêté avant d'écouter");
+    }
+
+    private static float[] gaussian(Random random, int dimension, float sigma) {
+        float[] vector = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            vector[d] = (float) random.nextGaussian() * sigma;
+        }
+        return vector;
+    }
+
+    private static float[] add(float[] a, float[] b) {
+        float[] sum = new float[a.length];
+        for (int d = 0; d < a.length; d++) {
+            sum[d] = a[d] + b[d];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,101 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.googleai.GoogleAiEmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Benchmark du démarrage à froid sur rag.pdf + threat_report.pdf :
+ * ingestion complète (Tika, split, embedding) contre chargement du snapshot.
+ * <p>
+ * Utilise Gemini si GEMINI_KEY est définie, sinon StubEmbeddingModel (le temps
+ * d'embedding mesuré est alors celui du stub, bien inférieur à celui de l'API).
+ * Chaque mesure inclut une première recherche, pour compter le coût du mapping.
+ */
+public class SnapshotBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws IOException {
+        String geminiKey = System.getenv("GEMINI_KEY");
+        EmbeddingModel embeddingModel;
+        String modelName;
+        if (geminiKey == null || geminiKey.isEmpty()) {
+            embeddingModel = new StubEmbeddingModel();
+            modelName = "stub-768";
+        } else {
+            embeddingModel = GoogleAiEmbeddingModel.builder()
+                    .apiKey(geminiKey)
+                    .modelName("text-embedding-004")
+                    .build();
+            modelName = "text-embedding-004";
+        }
+        System.out.println("Modèle d'embedding : " + modelName);
+
+        List<Path> sources = List.of(
+                Paths.get("src/main/resources/rag.pdf"),
+                Paths.get("src/main/resources/threat_report.pdf"));
+        Path snapshot = Files.createTempFile("bench", ".snapshot");
+        EmbeddingStoreSnapshot.Header header = EmbeddingStoreSnapshot.expectedHeader(
+                modelName, 0, "recursive(300,0)", sources);
+        EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(embeddingModel.embed("Qu'est-ce que le RAG ?").content())
+                .maxResults(2)
+                .minScore(0.6)
+                .build();
+
+        long bestIngest = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            EmbeddingStore<TextSegment> store = new InMemoryEmbeddingStore<>();
+            EmbeddingStoreSnapshot.Recorder recorder = new EmbeddingStoreSnapshot.Recorder(store);
+            EmbeddingStoreIngestor ingestor = EmbeddingStoreIngestor.builder()
+                    .documentSplitter(DocumentSplitters.recursive(300, 0))
+                    .embeddingModel(embeddingModel)
+                    .embeddingStore(recorder)
+                    .build();
+            for (Path source : sources) {
+                Document document = FileSystemDocumentLoader.loadDocument(source, new ApacheTikaDocumentParser());
+                ingestor.ingest(document);
+            }
+            store.search(request);
+            long elapsed = System.nanoTime() - start;
+            bestIngest = Math.min(bestIngest, elapsed);
+            System.out.printf("Sans snapshot  #%d : %8.1f ms%n", i + 1, elapsed / 1e6);
+            if (i == 0) {
+                recorder.writeSnapshot(snapshot, header);
+            }
+        }
+
+        long bestLoad = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            if (!EmbeddingStoreSnapshot.isUpToDate(snapshot, header)) {
+                throw new IllegalStateException("Le snapshot devrait être à jour");
+            }
+            MappedEmbeddingStore store = EmbeddingStoreSnapshot.load(snapshot);
+            store.search(request);
+            long elapsed = System.nanoTime() - start;
+            bestLoad = Math.min(bestLoad, elapsed);
+            System.out.printf("Avec snapshot  #%d : %8.1f ms (%d segments)%n", i + 1, elapsed / 1e6, store.size());
+        }
+
+        System.out.printf("%nMeilleur temps : %.1f ms sans snapshot, %.1f ms avec (x%.0f), snapshot de %d Ko%n",
+                bestIngest / 1e6, bestLoad / 1e6, (double) bestIngest / bestLoad, Files.size(snapshot) / 1024);
+        Files.deleteIfExists(snapshot);
+    }
+}
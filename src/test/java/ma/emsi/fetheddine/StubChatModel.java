@@ -0,0 +1,65 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Modèle de chat sans réseau pour les tests de charge : attend une latence fixe puis
+ * renvoie une réponse qui indique la taille de l'historique et du prompt reçus, ce qui
+ * permet de vérifier que chaque session garde bien sa propre mémoire.
+ */
+public class StubChatModel implements ChatModel {
+
+    private final long latencyMillis;
+    private final double millisPerPromptToken;
+
+    /**
+     * @param latencyMillis Latence simulée par appel, pour imiter le temps de génération du LLM.
+     */
+    public StubChatModel(long latencyMillis) {
+        this(latencyMillis, 0);
+    }
+
+    /**
+     * @param latencyMillis        Latence fixe par appel.
+     * @param millisPerPromptToken Latence ajoutée par token de prompt (4 caractères), pour
+     *                             imiter le traitement du contexte injecté.
+     */
+    public StubChatModel(long latencyMillis, double millisPerPromptToken) {
+        this.latencyMillis = latencyMillis;
+        this.millisPerPromptToken = millisPerPromptToken;
+    }
+
+    @Override
+    public ChatResponse doChat(ChatRequest chatRequest) {
+        List<ChatMessage> messages = chatRequest.messages();
+        String question = "";
+        int promptLength = 0;
+        for (ChatMessage message : messages) {
+            if (message instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+                question = userMessage.singleText();
+                promptLength += question.length();
+            }
+        }
+        long latencyNanos = (long) ((latencyMillis + millisPerPromptToken * promptLength / 4) * 1e6);
+        if (latencyNanos > 0) {
+            try {
+                Thread.sleep(Duration.ofNanos(latencyNanos));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        String answer = String.format("Réponse simulée n°%d (%d caractères de prompt) : %s",
+                (messages.size() + 1) / 2, promptLength, question.lines().findFirst().orElse(""));
+        return ChatResponse.builder()
+                .aiMessage(AiMessage.from(answer))
+                .build();
+    }
+}
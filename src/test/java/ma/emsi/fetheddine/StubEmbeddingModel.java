@@ -0,0 +1,74 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Modèle d'embedding déterministe, sans réseau, pour les benchmarks et les tests de charge.
+ * <p>
+ * Chaque mot est haché vers quelques composantes du vecteur (feature hashing) :
+ * deux textes qui partagent des mots ont donc une similarité cosinus positive,
+ * ce qui suffit à exercer le routage et la recherche de façon réaliste.
+ */
+public class StubEmbeddingModel implements EmbeddingModel {
+
+    private final int dimension;
+    private final long latencyMillis;
+
+    public StubEmbeddingModel() {
+        this(768, 0);
+    }
+
+    /**
+     * @param dimension     La dimension des vecteurs (768 comme text-embedding-004 par défaut).
+     * @param latencyMillis Latence simulée par appel à embedAll, pour imiter l'API.
+     */
+    public StubEmbeddingModel(int dimension, long latencyMillis) {
+        this.dimension = dimension;
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<Embedding> embeddings = new ArrayList<>(segments.size());
+        for (TextSegment segment : segments) {
+            embeddings.add(Embedding.from(vectorOf(segment.text())));
+        }
+        return Response.from(embeddings);
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    private float[] vectorOf(String text) {
+        float[] vector = new float[dimension];
+        for (String word : text.toLowerCase(Locale.ROOT).split("\\W+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            int hash = word.hashCode();
+            for (int k = 0; k < 3; k++) {
+                hash = hash * 0x9E3779B1 + k;
+                vector[Math.floorMod(hash, dimension)] += (hash & 1) == 0 ? 1f : -1f;
+            }
+        }
+        // Un texte vide ou sans mot reçoit une composante constante pour garder une norme non nulle.
+        vector[0] += 1e-3f;
+        return vector;
+    }
+}
@@ -0,0 +1,69 @@
+package ma.emsi.fetheddine;
+
+import dev.langchain4j.web.search.WebSearchEngine;
+import dev.langchain4j.web.search.WebSearchInformationResult;
+import dev.langchain4j.web.search.WebSearchOrganicResult;
+import dev.langchain4j.web.search.WebSearchRequest;
+import dev.langchain4j.web.search.WebSearchResults;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moteur de recherche web sans réseau pour les tests : attend une latence fixe puis renvoie
+ * maxResults résultats (5 par défaut) dérivés du texte de la requête, chacun avec un contenu
+ * de contentLength caractères. Compte les appels reçus, pour vérifier ce qu'un cache
+ * (CachingWebSearchEngine) épargne au vrai moteur.
+ */
+public class StubWebSearchEngine implements WebSearchEngine {
+
+    private final long latencyMillis;
+    private final int contentLength;
+    private final LongAdder calls = new LongAdder();
+
+    public StubWebSearchEngine() {
+        this(0, 200);
+    }
+
+    /**
+     * @param latencyMillis Latence simulée par recherche, pour imiter l'API (Tavily : 1 à 2 s).
+     * @param contentLength Taille du contenu de chaque résultat, en caractères.
+     */
+    public StubWebSearchEngine(long latencyMillis, int contentLength) {
+        this.latencyMillis = latencyMillis;
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public WebSearchResults search(WebSearchRequest request) {
+        calls.increment();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(Duration.ofMillis(latencyMillis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Recherche simulée interrompue", e);
+            }
+        }
+        int count = request.maxResults() == null ? 5 : request.maxResults();
+        String terms = request.searchTerms();
+        List<WebSearchOrganicResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(WebSearchOrganicResult.from("Résultat " + (i + 1) + " : " + terms,
+                    URI.create("https://example.org/" + Math.abs(terms.hashCode()) + "/" + i),
+                    "Extrait sur " + terms,
+                    "x".repeat(contentLength)));
+        }
+        return WebSearchResults.from(WebSearchInformationResult.from((long) count), results);
+    }
+
+    /**
+     * Nombre de recherches reçues depuis la création.
+     */
+    public long calls() {
+        return calls.sum();
+    }
+}